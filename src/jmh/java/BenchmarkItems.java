@@ -0,0 +1,67 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+/** Deterministic DynamoDB items of a given billed size built from a small vocabulary, so they compress like typical text heavy items */
+final class BenchmarkItems {
+
+    private static final String[] WORDS = { "order", "customer", "shipped", "pending", "warehouse", "invoice", "payment", "status", "region", "priority", "standard", "express", "returned", "delivered",
+            "account", "address", "street", "city", "north", "south" };
+
+    private BenchmarkItems() {
+
+    }
+
+    /** small: about 300 bytes, medium: about 8 KB, large: just under the 400 KB item limit */
+    static Map<String, AttributeValue> item(String size) {
+        switch (size) {
+        case "small":
+            return item(300);
+        case "medium":
+            return item(8 * 1024);
+        case "large":
+            return item(390 * 1024);
+        default:
+            throw new IllegalArgumentException(size);
+        }
+    }
+
+    static Map<String, AttributeValue> item(long targetSize) {
+        Random random = new Random(42);
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put("id", AttributeValue.builder().s("item-" + targetSize).build());
+        item.put("version", AttributeValue.builder().n("1").build());
+        item.put("active", AttributeValue.builder().bool(true).build());
+        List<AttributeValue> records = new ArrayList<>();
+        // name, list overhead and one byte per element, see CapacityEncoder.attributeSize
+        long size = CapacityEncoder.itemSize(item) + "records".length() + 3;
+        while (size < targetSize) {
+            Map<String, AttributeValue> record = new HashMap<>();
+            record.put("name", AttributeValue.builder().s(words(random, 3)).build());
+            record.put("description", AttributeValue.builder().s(words(random, 12)).build());
+            record.put("amount", AttributeValue.builder().n(Integer.toString(random.nextInt(100_000)) + "." + random.nextInt(100)).build());
+            record.put("tags", AttributeValue.builder().l(AttributeValue.builder().s(words(random, 1)).build(), AttributeValue.builder().s(words(random, 1)).build()).build());
+            AttributeValue value = AttributeValue.builder().m(record).build();
+            records.add(value);
+            size += CapacityEncoder.attributeSize(value) + 1;
+        }
+        item.put("records", AttributeValue.builder().l(records).build());
+        return item;
+    }
+
+    private static String words(Random random, int count) {
+        StringBuilder words = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                words.append(' ');
+            }
+            words.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return words.toString();
+    }
+
+}
@@ -0,0 +1,97 @@
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+
+import javax.json.JsonObject;
+
+import benchmark.Utilities;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.http.SdkHttpFullRequest;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.kms.KmsClient;
+
+/** Default package side of benchmark.Utilities, delegating to the utilities */
+public class BenchmarkUtilities implements Utilities {
+
+    @Override
+    public Map<String, AttributeValue> item(String size) {
+        return BenchmarkItems.item(size);
+    }
+
+    @Override
+    public long itemSize(Map<String, AttributeValue> item) {
+        return CapacityEncoder.itemSize(item);
+    }
+
+    @Override
+    public JsonObject toJson(Map<String, AttributeValue> item) {
+        return DynamoDBUtil.toJson(item);
+    }
+
+    @Override
+    public Map<String, AttributeValue> toAttribute(JsonObject json) {
+        return DynamoDBUtil.toAttribute(json);
+    }
+
+    @Override
+    public void toJson(Map<String, AttributeValue> item, OutputStream outputStream) {
+        DynamoDBUtil.toJson(item, outputStream);
+    }
+
+    @Override
+    public Map<String, AttributeValue> toAttribute(InputStream inputStream) {
+        return DynamoDBUtil.toAttribute(inputStream);
+    }
+
+    @Override
+    public AttributeValue compress(Map<String, AttributeValue> item) throws Exception {
+        return DynamoDBUtil.compress(item);
+    }
+
+    @Override
+    public Map<String, AttributeValue> decompressItem(AttributeValue compressed) {
+        return DynamoDBUtil.decompressItem(compressed);
+    }
+
+    @Override
+    public void initializeKms(KmsClient kmsClient, DynamoDbClient dynamoDbClient, String table, AttributeValue id, String attribute) {
+        KMSUtil.initialize(kmsClient, dynamoDbClient, table, id, attribute);
+    }
+
+    @Override
+    public String encrypt(String value) throws Exception {
+        return KMSUtil.encrypt(value);
+    }
+
+    @Override
+    public String decrypt(String value) throws Exception {
+        return KMSUtil.decrypt(value);
+    }
+
+    @Override
+    public HttpClient signerClient(String serviceName, int maxConnections) {
+        AWSSignerHttpClient client = AWSSignerHttpClient.builder().serviceName(serviceName).region(Region.US_WEST_1)
+                .awsCredentials(StaticCredentialsProvider.create(AwsBasicCredentials.create("AKIDEXAMPLE", "secret"))).maxConnections(maxConnections).build();
+        return new HttpClient() {
+            @Override
+            public JsonObject execute(SdkHttpFullRequest request) {
+                return client.execute(request);
+            }
+
+            @Override
+            public void close() {
+                client.close();
+            }
+        };
+    }
+
+    @Override
+    public Presigner bulkPresigner(Region region, AwsCredentials credentials) {
+        return S3BulkPresigner.builder().region(region).awsCredentials(StaticCredentialsProvider.create(credentials)).build()::presignGetObjects;
+    }
+
+}
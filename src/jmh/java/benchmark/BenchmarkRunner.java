@@ -0,0 +1,33 @@
+package benchmark;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks selected by the JMH command line with the gc profiler, once for each of 1, 4 and 16 threads unless -t is given, so allocation rates and contention show up next to throughput.
+ *
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark.args="ConversionBenchmark -p size=large"
+ * </pre>
+ */
+public class BenchmarkRunner {
+
+    private static final List<Integer> THREAD_COUNTS = Arrays.asList(1, 4, 16);
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        List<Integer> threadCounts = commandLine.getThreads().hasValue() ? Collections.singletonList(commandLine.getThreads().get()) : THREAD_COUNTS;
+        for (int threads : threadCounts) {
+            Options options = new OptionsBuilder().parent(commandLine).threads(threads).addProfiler(GCProfiler.class).build();
+            new Runner(options).run();
+        }
+    }
+
+}
@@ -0,0 +1,57 @@
+package benchmark;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+/** DynamoDBUtil.compress / decompressItem with the pooled default codec, the compression ratio is printed once per fork */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompressionBenchmark {
+
+    private static final Utilities UTILITIES = Utilities.load();
+
+    @Param({ "small", "medium", "large" })
+    public String size;
+
+    private Map<String, AttributeValue> item;
+    private AttributeValue compressed;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        item = UTILITIES.item(size);
+        compressed = UTILITIES.compress(item);
+        long plain = UTILITIES.itemSize(item);
+        long packed = compressed.b().asByteArrayUnsafe().length;
+        System.out.printf("%n%s item: %d bytes, %d compressed, ratio %.2f%n", size, plain, packed, (double) plain / packed);
+    }
+
+    @Benchmark
+    public AttributeValue compress() throws Exception {
+        return UTILITIES.compress(item);
+    }
+
+    @Benchmark
+    public Map<String, AttributeValue> decompress() {
+        return UTILITIES.decompressItem(compressed);
+    }
+
+}
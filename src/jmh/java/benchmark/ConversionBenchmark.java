@@ -0,0 +1,89 @@
+package benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.json.JsonObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+/** DynamoDBUtil item conversion, through the JSON-P object model and streaming */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConversionBenchmark {
+
+    private static final Utilities UTILITIES = Utilities.load();
+
+    @Param({ "small", "medium", "large" })
+    public String size;
+
+    private Map<String, AttributeValue> item;
+    private JsonObject json;
+    private byte[] bytes;
+
+    @Setup
+    public void setup() {
+        item = UTILITIES.item(size);
+        json = UTILITIES.toJson(item);
+        bytes = json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public JsonObject toJson() {
+        return UTILITIES.toJson(item);
+    }
+
+    @Benchmark
+    public Map<String, AttributeValue> toAttribute() {
+        return UTILITIES.toAttribute(json);
+    }
+
+    @Benchmark
+    public void toJsonStream(Blackhole blackhole) {
+        UTILITIES.toJson(item, new BlackholeOutputStream(blackhole));
+    }
+
+    @Benchmark
+    public Map<String, AttributeValue> toAttributeStream() {
+        return UTILITIES.toAttribute(new ByteArrayInputStream(bytes));
+    }
+
+    static class BlackholeOutputStream extends OutputStream {
+        private final Blackhole blackhole;
+
+        BlackholeOutputStream(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void write(int b) {
+            blackhole.consume(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            blackhole.consume(b);
+        }
+    }
+
+}
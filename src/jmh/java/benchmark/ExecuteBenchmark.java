@@ -0,0 +1,81 @@
+package benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.json.JsonObject;
+
+import org.apache.logging.log4j.core.config.Configurator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.net.httpserver.HttpServer;
+
+import software.amazon.awssdk.http.SdkHttpFullRequest;
+import software.amazon.awssdk.http.SdkHttpMethod;
+
+/** Signed AWSSignerHttpClient.execute round trips against an embedded HTTP server, covering signing, the connection pool and response parsing */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+// the connection pool and the server threads take several seconds to reach a steady state
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExecuteBenchmark {
+
+    private static final Utilities UTILITIES = Utilities.load();
+
+    private HttpServer server;
+    private Utilities.HttpClient client;
+    private SdkHttpFullRequest request;
+
+    @Setup
+    public void setup() throws IOException {
+        // avoids the Nagle / delayed ack stall between the stub response headers and body
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        // the test log4j2.xml logs the wire at debug
+        Configurator.setLevel("software.amazon.awssdk.request", org.apache.logging.log4j.Level.WARN);
+        Configurator.setLevel("org.apache.http.wire", org.apache.logging.log4j.Level.WARN);
+        byte[] body = "{\"took\":1,\"hits\":{\"total\":{\"value\":0},\"hits\":[]}}".getBytes(StandardCharsets.UTF_8);
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 128);
+        server.setExecutor(Executors.newFixedThreadPool(16));
+        server.createContext("/", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.start();
+        request = SdkHttpFullRequest.builder().method(SdkHttpMethod.GET).protocol("http").host("localhost").port(server.getAddress().getPort()).encodedPath("/index/_search").build();
+        client = UTILITIES.signerClient("es", 64);
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.close();
+        server.stop(0);
+        ((ExecutorService) server.getExecutor()).shutdownNow();
+    }
+
+    @Benchmark
+    public JsonObject execute() {
+        return client.execute(request);
+    }
+
+}
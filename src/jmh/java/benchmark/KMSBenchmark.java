@@ -0,0 +1,99 @@
+package benchmark;
+
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.DecryptRequest;
+import software.amazon.awssdk.services.kms.model.DecryptResponse;
+
+/** KMSUtil.encrypt / decrypt with the data key loaded through stub KMS and DynamoDB clients, run with several threads to expose contention on the key */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KMSBenchmark {
+
+    private static final Utilities UTILITIES = Utilities.load();
+
+    @Param({ "64", "4096" })
+    public int length;
+
+    private String plaintext;
+    private String ciphertext;
+
+    @Setup
+    public void setup() throws Exception {
+        byte[] dataKey = new byte[32];
+        Arrays.fill(dataKey, (byte) 7);
+        KmsClient kmsClient = new KmsClient() {
+            @Override
+            public DecryptResponse decrypt(DecryptRequest decryptRequest) {
+                return DecryptResponse.builder().plaintext(SdkBytes.fromByteArray(dataKey)).build();
+            }
+
+            @Override
+            public String serviceName() {
+                return "kms";
+            }
+
+            @Override
+            public void close() {
+
+            }
+        };
+        DynamoDbClient dynamoDbClient = new DynamoDbClient() {
+            @Override
+            public GetItemResponse getItem(GetItemRequest getItemRequest) {
+                return GetItemResponse.builder().item(Collections.singletonMap("key", AttributeValue.builder().s(Base64.getEncoder().encodeToString(new byte[64])).build())).build();
+            }
+
+            @Override
+            public String serviceName() {
+                return "dynamodb";
+            }
+
+            @Override
+            public void close() {
+
+            }
+        };
+        UTILITIES.initializeKms(kmsClient, dynamoDbClient, "keys", AttributeValue.builder().s("benchmark").build(), "key");
+        char[] chars = new char[length];
+        Arrays.fill(chars, 'x');
+        plaintext = new String(chars);
+        ciphertext = UTILITIES.encrypt(plaintext);
+    }
+
+    @Benchmark
+    public String encrypt() throws Exception {
+        return UTILITIES.encrypt(plaintext);
+    }
+
+    @Benchmark
+    public String decrypt() throws Exception {
+        return UTILITIES.decrypt(ciphertext);
+    }
+
+}
@@ -0,0 +1,78 @@
+package benchmark;
+
+import java.net.URL;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+/** Presigning a batch of S3 GET URLs with S3BulkPresigner against one SDK S3Presigner call per key */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PresignBenchmark {
+
+    private static final Utilities UTILITIES = Utilities.load();
+    private static final String BUCKET = "some-bucket";
+    private static final Duration SIGNATURE_DURATION = Duration.ofMinutes(5);
+
+    @Param({ "100", "10000" })
+    public int keys;
+
+    private List<String> objectKeys;
+    private S3Presigner sdkPresigner;
+    private Utilities.Presigner bulkPresigner;
+
+    @Setup
+    public void setup() {
+        objectKeys = new ArrayList<>(keys);
+        for (int i = 0; i < keys; i++) {
+            objectKeys.add("some-directory/object-" + i + ".json");
+        }
+        AwsCredentials credentials = AwsBasicCredentials.create("AKIDEXAMPLE", "secret");
+        sdkPresigner = S3Presigner.builder().region(Region.US_WEST_2).credentialsProvider(StaticCredentialsProvider.create(credentials)).build();
+        bulkPresigner = UTILITIES.bulkPresigner(Region.US_WEST_2, credentials);
+    }
+
+    @TearDown
+    public void tearDown() {
+        sdkPresigner.close();
+    }
+
+    @Benchmark
+    public List<URL> sdk() {
+        List<URL> urls = new ArrayList<>(objectKeys.size());
+        for (String key : objectKeys) {
+            urls.add(sdkPresigner.presignGetObject(r -> r.signatureDuration(SIGNATURE_DURATION).getObjectRequest(gor -> gor.bucket(BUCKET).key(key))).url());
+        }
+        return urls;
+    }
+
+    @Benchmark
+    public List<URL> bulk() {
+        return bulkPresigner.presignGetObjects(BUCKET, objectKeys, SIGNATURE_DURATION);
+    }
+
+}
@@ -1,54 +1,146 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import javax.json.Json;
+import javax.json.JsonReader;
+import javax.json.JsonReaderFactory;
 import javax.json.JsonStructure;
 
+import io.netty.channel.ChannelOption;
+import software.amazon.awssdk.auth.credentials.AnonymousCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
-import software.amazon.awssdk.auth.signer.Aws4Signer;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
 import software.amazon.awssdk.auth.signer.AwsSignerExecutionAttribute;
+import software.amazon.awssdk.awscore.AwsRequestOverrideConfiguration;
 import software.amazon.awssdk.core.RequestOverrideConfiguration;
 import software.amazon.awssdk.core.SdkField;
 import software.amazon.awssdk.core.SdkRequest;
+import software.amazon.awssdk.core.client.config.SdkAdvancedAsyncClientOption;
 import software.amazon.awssdk.core.client.config.SdkClientConfiguration;
 import software.amazon.awssdk.core.client.config.SdkClientOption;
+import software.amazon.awssdk.core.exception.ApiCallTimeoutException;
+import software.amazon.awssdk.core.exception.SdkClientException;
 import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
 import software.amazon.awssdk.core.http.ExecutionContext;
 import software.amazon.awssdk.core.http.HttpResponseHandler;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
 import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
 import software.amazon.awssdk.core.interceptor.ExecutionInterceptorChain;
 import software.amazon.awssdk.core.interceptor.InterceptorContext;
+import software.amazon.awssdk.core.internal.http.AmazonAsyncHttpClient;
 import software.amazon.awssdk.core.internal.http.AmazonSyncHttpClient;
 import software.amazon.awssdk.core.internal.http.CombinedResponseHandler;
+import software.amazon.awssdk.core.internal.http.async.AsyncResponseHandler;
+import software.amazon.awssdk.core.internal.http.async.AsyncAfterTransmissionInterceptorCallingResponseHandler;
+import software.amazon.awssdk.core.internal.http.async.CombinedResponseAsyncHttpResponseHandler;
+import software.amazon.awssdk.core.internal.http.loader.DefaultSdkAsyncHttpClientBuilder;
 import software.amazon.awssdk.core.internal.http.loader.DefaultSdkHttpClientBuilder;
 import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.core.retry.RetryPolicyContext;
+import software.amazon.awssdk.core.retry.backoff.FullJitterBackoffStrategy;
+import software.amazon.awssdk.core.retry.conditions.AndRetryCondition;
+import software.amazon.awssdk.core.retry.conditions.OrRetryCondition;
+import software.amazon.awssdk.core.retry.conditions.RetryCondition;
+import software.amazon.awssdk.core.retry.conditions.RetryOnStatusCodeCondition;
+import software.amazon.awssdk.core.signer.Signer;
 import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.http.ContentStreamProvider;
 import software.amazon.awssdk.http.SdkHttpClient;
 import software.amazon.awssdk.http.SdkHttpConfigurationOption;
 import software.amazon.awssdk.http.SdkHttpFullRequest;
 import software.amazon.awssdk.http.SdkHttpFullResponse;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.core.metrics.CoreMetric;
+import software.amazon.awssdk.metrics.MetricCollection;
+import software.amazon.awssdk.metrics.MetricCollector;
+import software.amazon.awssdk.metrics.MetricPublisher;
 import software.amazon.awssdk.metrics.NoOpMetricCollector;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.regions.providers.DefaultAwsRegionProviderChain;
 import software.amazon.awssdk.utils.AttributeMap;
 import software.amazon.awssdk.utils.IoUtils;
+import software.amazon.awssdk.utils.ThreadFactoryBuilder;
 
 public class AWSSignerHttpClient implements AutoCloseable {
 
+    private static final MetricCollector NO_OP_METRIC_COLLECTOR = NoOpMetricCollector.create();
+    private static final String GZIP = "gzip";
+    // initial size of the gzip output buffer for large request bodies
+    private static final int MAX_GZIP_BUFFER = 1 << 20;
+    // Json.createReader looks up the provider with a ServiceLoader and allocates new parser buffers on every call, a shared factory reuses them
+    static final JsonReaderFactory JSON_READER_FACTORY = Json.createReaderFactory(Collections.emptyMap());
+    private static final ErrorHandler ERROR_HANDLER = new ErrorHandler();
+    @SuppressWarnings("rawtypes")
+    private static final JsonHandler JSON_HANDLER = new JsonHandler();
+    private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = virtualThreadExecutorFactory();
+
     private String serviceName;
     private Region region;
     private AwsCredentialsProvider awsCredentialsProvider;
+    private Duration credentialsRefreshInterval = CachedCredentialsProvider.DEFAULT_REFRESH_INTERVAL;
+    private boolean closeCredentialsProvider;
     private Duration readTimeOut;
+    private Integer maxConnections;
+    private Duration connectionMaxIdleTimeout;
+    private Duration connectionTimeToLive;
+    private Boolean tcpKeepAlive;
+    private Boolean tcpNoDelay;
     private SdkHttpClient sdkClient;
+    private SdkAsyncHttpClient sdkAsyncClient;
+    private Executor futureCompletionExecutor;
+    private int batchPoolSize = 64;
+    private volatile ExecutorService batchExecutor;
     // required by client to avoid NPE
     private SdkRequest sdkRequest = new ServiceSDKRequest();
     private ExecutionInterceptorChain execInterceptorChain = new ExecutionInterceptorChain(Collections.emptyList());
+    // the pipeline copies the request into the interceptor context, so the same immutable instance serves every call
+    private InterceptorContext interceptorContext = InterceptorContext.builder().request(sdkRequest).build();
+    private RetryPolicy retryPolicy;
+    private boolean adaptiveRateLimiting;
+    private AdaptiveRateLimiter rateLimiter;
+    private List<MetricPublisher> metricPublishers = new ArrayList<>();
+    private boolean compressRequests;
+    private int compressionThreshold = 1024;
+    private boolean acceptGzip;
+    private SigV4Signer.PayloadSigning payloadSigning;
+    private ResponseCache responseCache;
     private AmazonSyncHttpClient awsClient;
-    private Aws4Signer signer;
+    private volatile AmazonAsyncHttpClient awsAsyncClient;
+    private ScheduledExecutorService asyncScheduler;
+    private Signer signer;
 
     private AWSSignerHttpClient() {
 
@@ -59,27 +151,375 @@ public class AWSSignerHttpClient implements AutoCloseable {
     }
 
     public <T> T execute(SdkHttpFullRequest httpRequest, HttpResponseHandler<T> responseHandler) {
-        return execute(httpRequest, responseHandler, new ErrorHandler());
+        return execute(httpRequest, responseHandler, ERROR_HANDLER);
     }
 
     public <T extends JsonStructure> T execute(SdkHttpFullRequest httpRequest) {
-        return execute(httpRequest, new JsonHandler<T>(), new ErrorHandler());
+        return execute(httpRequest, (JsonHandler<T>) JSON_HANDLER, ERROR_HANDLER);
     }
 
     public <T> T execute(SdkHttpFullRequest httpRequest, HttpResponseHandler<T> responseHandler, HttpResponseHandler<? extends SdkException> errorHandler) {
-        InterceptorContext incerceptorContext = InterceptorContext.builder().request(sdkRequest).httpRequest(httpRequest).build();
-        ExecutionContext.Builder execContextBuilder = ExecutionContext.builder();
-        execContextBuilder.signer(signer);
-        execContextBuilder.interceptorChain(execInterceptorChain);
-        execContextBuilder.metricCollector(NoOpMetricCollector.create());
+        return execute(httpRequest, responseHandler, errorHandler, sdkRequest);
+    }
+
+    // the original request carries the override configuration, executeAll sets the remaining time as its api call timeout
+    private <T> T execute(SdkHttpFullRequest httpRequest, HttpResponseHandler<T> responseHandler, HttpResponseHandler<? extends SdkException> errorHandler, SdkRequest originalRequest) {
+        if (responseCache != null) {
+            if (ResponseCache.isCacheable(httpRequest)) {
+                return responseCache.execute(this, httpRequest, responseHandler, errorHandler, originalRequest);
+            }
+            responseCache.invalidate(httpRequest);
+        }
+        return executeUncached(httpRequest, responseHandler, errorHandler, originalRequest);
+    }
+
+    <T> T executeUncached(SdkHttpFullRequest httpRequest, HttpResponseHandler<T> responseHandler, HttpResponseHandler<? extends SdkException> errorHandler, SdkRequest originalRequest) {
+        httpRequest = encode(httpRequest);
+        MetricCollector metricCollector = createMetricCollector(httpRequest);
+        ExecutionContext execContext = createExecutionContext(httpRequest, metricCollector);
+        try {
+            return awsClient.requestExecutionBuilder().executionContext(execContext).originalRequest(originalRequest).request(httpRequest).execute(new CombinedResponseHandler<T>(responseHandler, errorHandler));
+        } finally {
+            publishMetrics(metricCollector);
+        }
+    }
+
+    public <T> CompletableFuture<T> executeAsync(SdkHttpFullRequest httpRequest, HttpResponseHandler<T> responseHandler) {
+        return executeAsync(httpRequest, responseHandler, ERROR_HANDLER);
+    }
+
+    public <T extends JsonStructure> CompletableFuture<T> executeAsync(SdkHttpFullRequest httpRequest) {
+        return executeAsync(httpRequest, (JsonHandler<T>) JSON_HANDLER, ERROR_HANDLER);
+    }
+
+    /**
+     * Non-blocking variant of execute. The request is signed and sent on the SdkAsyncHttpClient event loop and the response handlers are invoked once the full response has been received.
+     */
+    public <T> CompletableFuture<T> executeAsync(SdkHttpFullRequest httpRequest, HttpResponseHandler<T> responseHandler, HttpResponseHandler<? extends SdkException> errorHandler) {
+        if (responseCache != null && !ResponseCache.isCacheable(httpRequest)) {
+            responseCache.invalidate(httpRequest);
+        }
+        httpRequest = encode(httpRequest);
+        MetricCollector metricCollector = createMetricCollector(httpRequest);
+        ExecutionContext execContext = createExecutionContext(httpRequest, metricCollector);
+        ExecutionAttributes executionAttributes = execContext.executionAttributes();
+        AsyncResponseHandler<T> asyncResponseHandler = new AsyncResponseHandler<>(responseHandler, Function.identity(), executionAttributes);
+        AsyncResponseHandler<? extends SdkException> asyncErrorHandler = new AsyncResponseHandler<>(errorHandler, Function.identity(), executionAttributes);
+        AmazonAsyncHttpClient asyncClient = asyncClient();
+        SdkHttpFullRequest request = httpRequest;
+        Supplier<CompletableFuture<T>> send = () -> asyncClient.requestExecutionBuilder().executionContext(execContext).originalRequest(sdkRequest).request(request).execute(
+                // the async pipeline leaves the afterTransmission and modifyHttpResponse interceptor calls to the response handler
+                new AsyncAfterTransmissionInterceptorCallingResponseHandler<>(new CombinedResponseAsyncHttpResponseHandler<T>(asyncResponseHandler, asyncErrorHandler), execContext));
+        CompletableFuture<T> result;
+        long waitNanos = 0;
+        if (rateLimiter != null) {
+            // the token is reserved here and the send scheduled, so neither the caller nor an event loop thread waits in beforeTransmission
+            executionAttributes.putAttribute(AdaptiveRateLimiter.NON_BLOCKING, true);
+            waitNanos = rateLimiter.reserve();
+        }
+        if (waitNanos > 0) {
+            result = new CompletableFuture<>();
+            CompletableFuture<T> delayed = result;
+            asyncScheduler.schedule(() -> {
+                if (delayed.isDone()) {
+                    return;
+                }
+                try {
+                    send.get().whenComplete((r, e) -> {
+                        if (e != null) {
+                            delayed.completeExceptionally(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                        } else {
+                            delayed.complete(r);
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    delayed.completeExceptionally(e);
+                }
+            }, waitNanos, TimeUnit.NANOSECONDS);
+        } else {
+            result = send.get();
+        }
+        if (metricCollector == NO_OP_METRIC_COLLECTOR) {
+            return result;
+        }
+        return result.whenComplete((r, e) -> publishMetrics(metricCollector));
+    }
+
+    // gzips the body before it reaches the signing stage so the payload hash and Content-Length match what is sent
+    private SdkHttpFullRequest encode(SdkHttpFullRequest httpRequest) {
+        boolean compress = compressRequests && httpRequest.contentStreamProvider().isPresent() && !httpRequest.firstMatchingHeader("Content-Encoding").isPresent();
+        if (compress) {
+            Optional<String> contentLength = httpRequest.firstMatchingHeader("Content-Length");
+            compress = !contentLength.isPresent() || Long.parseLong(contentLength.get()) >= compressionThreshold;
+        }
+        boolean accept = acceptGzip && !httpRequest.firstMatchingHeader("Accept-Encoding").isPresent();
+        if (!compress && !accept) {
+            return httpRequest;
+        }
+        SdkHttpFullRequest.Builder builder = httpRequest.toBuilder();
+        if (accept) {
+            builder.putHeader("Accept-Encoding", GZIP);
+        }
+        if (compress) {
+            byte[] body = gzip(httpRequest.contentStreamProvider().get(), httpRequest.firstMatchingHeader("Content-Length").map(Long::parseLong).orElse(8192L));
+            builder.contentStreamProvider(() -> new ByteArrayInputStream(body)).putHeader("Content-Encoding", GZIP).putHeader("Content-Length", String.valueOf(body.length));
+        }
+        return builder.build();
+    }
+
+    private static byte[] gzip(ContentStreamProvider contentStreamProvider, long contentLength) {
+        // JSON typically compresses 5-10x, the buffer grows past the cap when it does not
+        ByteArrayOutputStream bos = new ByteArrayOutputStream((int) Math.min(MAX_GZIP_BUFFER, Math.max(512, contentLength / 4)));
+        try (InputStream is = contentStreamProvider.newStream(); GZIPOutputStream gos = new GZIPOutputStream(bos, 8192)) {
+            IoUtils.copy(is, gos);
+        } catch (IOException e) {
+            throw SdkClientException.create("Unable to compress the request body", e);
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * Returns the response body, decompressed while it is read if the response has Content-Encoding gzip. Response handlers should read the content through this method when acceptGzip is enabled.
+     */
+    public static Optional<InputStream> content(SdkHttpFullResponse response) throws IOException {
+        if (!response.content().isPresent()) {
+            return Optional.empty();
+        }
+        InputStream content = response.content().get();
+        Optional<String> encoding = response.firstMatchingHeader("Content-Encoding");
+        if (encoding.isPresent() && GZIP.equalsIgnoreCase(encoding.get().trim())) {
+            return Optional.of(new GZIPInputStream(content, 8192));
+        }
+        return Optional.of(content);
+    }
+
+    private MetricCollector createMetricCollector(SdkHttpFullRequest httpRequest) {
+        if (metricPublishers.isEmpty()) {
+            return NO_OP_METRIC_COLLECTOR;
+        }
+        MetricCollector metricCollector = MetricCollector.create("ApiCall");
+        metricCollector.reportMetric(CoreMetric.SERVICE_ID, serviceName);
+        metricCollector.reportMetric(CoreMetric.OPERATION_NAME, httpRequest.method().name());
+        metricCollector.reportMetric(AWSSignerMetric.HOST, httpRequest.host());
+        return metricCollector;
+    }
+
+    private void publishMetrics(MetricCollector metricCollector) {
+        if (metricCollector != NO_OP_METRIC_COLLECTOR) {
+            MetricCollection metrics = metricCollector.collect();
+            metricPublishers.forEach(p -> p.publish(metrics));
+        }
+    }
+
+    // the execution attributes are written by the pipeline (attempt number, clock skew, backoff) so only they are created per call
+    private ExecutionContext createExecutionContext(SdkHttpFullRequest httpRequest, MetricCollector metricCollector) {
         ExecutionAttributes executionAttributes = new ExecutionAttributes();
-        executionAttributes.putAttribute(AwsSignerExecutionAttribute.AWS_CREDENTIALS, awsCredentialsProvider.resolveCredentials());
+        if (metricCollector != NO_OP_METRIC_COLLECTOR) {
+            long start = System.nanoTime();
+            executionAttributes.putAttribute(AwsSignerExecutionAttribute.AWS_CREDENTIALS, awsCredentialsProvider.resolveCredentials());
+            metricCollector.reportMetric(CoreMetric.CREDENTIALS_FETCH_DURATION, Duration.ofNanos(System.nanoTime() - start));
+            executionAttributes.putAttribute(MetricsInterceptor.METRIC_COLLECTOR, metricCollector);
+        } else {
+            executionAttributes.putAttribute(AwsSignerExecutionAttribute.AWS_CREDENTIALS, awsCredentialsProvider.resolveCredentials());
+        }
         executionAttributes.putAttribute(AwsSignerExecutionAttribute.SERVICE_SIGNING_NAME, serviceName);
         executionAttributes.putAttribute(AwsSignerExecutionAttribute.SIGNING_REGION, region);
-        execContextBuilder.executionAttributes(executionAttributes);
-        execContextBuilder.interceptorContext(incerceptorContext).build();
-        ExecutionContext execContext = execContextBuilder.build();
-        return awsClient.requestExecutionBuilder().executionContext(execContext).originalRequest(sdkRequest).request(httpRequest).execute(new CombinedResponseHandler<T>(responseHandler, errorHandler));
+        if (payloadSigning != null) {
+            executionAttributes.putAttribute(SigV4Signer.PAYLOAD_SIGNING, payloadSigning);
+        }
+        return ExecutionContext.builder().signer(signer).interceptorChain(execInterceptorChain).metricCollector(metricCollector).interceptorContext(interceptorContext).executionAttributes(executionAttributes).build();
+    }
+
+    public <T extends JsonStructure> List<Result<T>> executeAll(List<SdkHttpFullRequest> requests, int maxConcurrency, Duration deadline) {
+        return executeAll(requests, (JsonHandler<T>) JSON_HANDLER, maxConcurrency, deadline);
+    }
+
+    /**
+     * Executes the requests with at most maxConcurrency of them in flight and returns one Result per request, in request order. Requests still pending once the deadline has passed are not sent, running
+     * ones are aborted, and both are reported as failed with an ApiCallTimeoutException. Runs on virtual threads when the JDK provides them (21+), otherwise on a pool of batchPoolSize threads shared by all executeAll calls.
+     */
+    public <T> List<Result<T>> executeAll(List<SdkHttpFullRequest> requests, HttpResponseHandler<T> responseHandler, int maxConcurrency, Duration deadline) {
+        long deadlineNanos = System.nanoTime() + deadline.toNanos();
+        AtomicReferenceArray<Result<T>> results = new AtomicReferenceArray<>(requests.size());
+        AtomicInteger nextRequest = new AtomicInteger();
+        ExecutorService virtualThreads = newVirtualThreadExecutor();
+        ExecutorService executor = virtualThreads != null ? virtualThreads : batchExecutor();
+        // each worker takes the next request until none are left, the number of workers is the concurrency limit
+        Runnable worker = () -> {
+            int i;
+            long remaining;
+            while ((i = nextRequest.getAndIncrement()) < requests.size() && !Thread.currentThread().isInterrupted() && (remaining = deadlineNanos - System.nanoTime()) > 0) {
+                SdkHttpFullRequest request = requests.get(i);
+                // cancelling the worker does not stop a blocking execute, the api call timeout aborts the http request and releases its connection
+                SdkRequest timed = new ServiceSDKRequest(AwsRequestOverrideConfiguration.builder().apiCallTimeout(Duration.ofMillis(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)))).build());
+                Result<T> result;
+                try {
+                    result = new Result<>(request, execute(request, responseHandler, ERROR_HANDLER, timed), null);
+                } catch (RuntimeException e) {
+                    result = new Result<>(request, null, e);
+                }
+                results.compareAndSet(i, null, result);
+            }
+        };
+        List<Future<?>> workers = new ArrayList<>();
+        try {
+            for (int i = 0; i < Math.min(maxConcurrency, requests.size()); i++) {
+                workers.add(executor.submit(worker));
+            }
+            for (Future<?> future : workers) {
+                future.get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+        } catch (TimeoutException e) {
+            // reported per request below
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw SdkClientException.create("executeAll worker failed", e.getCause());
+        } finally {
+            workers.forEach(f -> f.cancel(true));
+            if (virtualThreads != null) {
+                virtualThreads.shutdownNow();
+            }
+        }
+        List<Result<T>> list = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            results.compareAndSet(i, null, new Result<>(requests.get(i), null, ApiCallTimeoutException.create(deadline.toMillis())));
+            list.add(results.get(i));
+        }
+        return list;
+    }
+
+    private static Method virtualThreadExecutorFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    // compiled for Java 8, so virtual threads are looked up reflectively
+    private static ExecutorService newVirtualThreadExecutor() {
+        if (NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR == null) {
+            return null;
+        }
+        try {
+            return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // preview feature not enabled on JDK 19 and 20
+            return null;
+        }
+    }
+
+    private ExecutorService batchExecutor() {
+        ExecutorService executor = batchExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = batchExecutor;
+                if (executor == null) {
+                    ThreadPoolExecutor pool = new ThreadPoolExecutor(batchPoolSize, batchPoolSize, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new ThreadFactoryBuilder().threadNamePrefix("aws-signer-execute-all").daemonThreads(true).build());
+                    pool.allowCoreThreadTimeOut(true);
+                    executor = pool;
+                    batchExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    // the async client is only created on first use so the default Netty event loops are not started for sync only usage
+    private AmazonAsyncHttpClient asyncClient() {
+        AmazonAsyncHttpClient client = awsAsyncClient;
+        if (client == null) {
+            synchronized (this) {
+                client = awsAsyncClient;
+                if (client == null) {
+                    if (sdkAsyncClient == null) {
+                        sdkAsyncClient = tcpKeepAlive != null || tcpNoDelay != null ? nettyClient() : new DefaultSdkAsyncHttpClientBuilder().buildWithDefaults(httpOptions());
+                    }
+                    if (futureCompletionExecutor == null) {
+                        int processors = Runtime.getRuntime().availableProcessors();
+                        int poolSize = Math.max(8, processors * 2);
+                        ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<>(1_000), new ThreadFactoryBuilder().threadNamePrefix("aws-signer-async-response").build());
+                        executor.allowCoreThreadTimeOut(true);
+                        futureCompletionExecutor = executor;
+                    }
+                    ScheduledExecutorService scheduledExecutor = Executors.newScheduledThreadPool(5, new ThreadFactoryBuilder().threadNamePrefix("aws-signer-async-timer").build());
+                    asyncScheduler = scheduledExecutor;
+                    RetryPolicy asyncRetryPolicy = retryPolicy;
+                    if (rateLimiter != null) {
+                        // async retries are scheduled, so the token wait is added to their backoff instead of blocking the timer thread
+                        asyncRetryPolicy = retryPolicy.toBuilder().backoffStrategy(rateLimiter.backoffStrategy(retryPolicy.backoffStrategy()))
+                                .throttlingBackoffStrategy(rateLimiter.backoffStrategy(retryPolicy.throttlingBackoffStrategy())).build();
+                    }
+                    SdkClientConfiguration clientConfiguration = SdkClientConfiguration.builder().option(SdkClientOption.ADDITIONAL_HTTP_HEADERS, new LinkedHashMap<>()).option(SdkClientOption.CRC32_FROM_COMPRESSED_DATA_ENABLED, true).option(SdkClientOption.ASYNC_HTTP_CLIENT, sdkAsyncClient)
+                            .option(SdkClientOption.SCHEDULED_EXECUTOR_SERVICE, scheduledExecutor).option(SdkAdvancedAsyncClientOption.FUTURE_COMPLETION_EXECUTOR, futureCompletionExecutor).option(SdkClientOption.RETRY_POLICY, asyncRetryPolicy).build();
+                    client = new AmazonAsyncHttpClient(clientConfiguration);
+                    awsAsyncClient = client;
+                }
+            }
+        }
+        return client;
+    }
+
+    private AttributeMap httpOptions() {
+        AttributeMap.Builder options = AttributeMap.builder();
+        if (readTimeOut != null) {
+            options.put(SdkHttpConfigurationOption.READ_TIMEOUT, readTimeOut);
+        }
+        if (maxConnections != null) {
+            options.put(SdkHttpConfigurationOption.MAX_CONNECTIONS, maxConnections);
+        }
+        if (connectionMaxIdleTimeout != null) {
+            options.put(SdkHttpConfigurationOption.CONNECTION_MAX_IDLE_TIMEOUT, connectionMaxIdleTimeout);
+        }
+        if (connectionTimeToLive != null) {
+            options.put(SdkHttpConfigurationOption.CONNECTION_TIME_TO_LIVE, connectionTimeToLive);
+        }
+        return options.build();
+    }
+
+    // socket options are not part of the SdkHttpConfigurationOption SPI, Netty accepts them as channel options
+    private SdkAsyncHttpClient nettyClient() {
+        NettyNioAsyncHttpClient.Builder builder = NettyNioAsyncHttpClient.builder();
+        if (tcpKeepAlive != null) {
+            builder.putChannelOption(ChannelOption.SO_KEEPALIVE, tcpKeepAlive);
+        }
+        if (tcpNoDelay != null) {
+            builder.putChannelOption(ChannelOption.TCP_NODELAY, tcpNoDelay);
+        }
+        return builder.buildWithDefaults(httpOptions());
+    }
+
+    /**
+     * Retries throttling (429), 5xx and I/O failures of idempotent requests (GET, HEAD, OPTIONS, PUT and DELETE) up to 3 times with full jitter exponential backoff. POST and PATCH requests are not retried, a
+     * failed attempt may still have been applied. Each attempt passes through the signing stage again so it carries a fresh timestamp.
+     */
+    public static RetryPolicy defaultRetryPolicy() {
+        RetryCondition retryCondition = AndRetryCondition.create(AWSSignerHttpClient::isIdempotent, OrRetryCondition.create(RetryCondition.defaultRetryCondition(), RetryOnStatusCodeCondition.create(429)));
+        FullJitterBackoffStrategy backoff = FullJitterBackoffStrategy.builder().baseDelay(Duration.ofMillis(100)).maxBackoffTime(Duration.ofSeconds(20)).build();
+        FullJitterBackoffStrategy throttlingBackoff = FullJitterBackoffStrategy.builder().baseDelay(Duration.ofMillis(500)).maxBackoffTime(Duration.ofSeconds(20)).build();
+        return RetryPolicy.builder().numRetries(3).retryCondition(retryCondition).backoffStrategy(backoff).throttlingBackoffStrategy(throttlingBackoff).build();
+    }
+
+    private static boolean isIdempotent(RetryPolicyContext context) {
+        if (context.request() == null) {
+            return false;
+        }
+        switch (context.request().method()) {
+        case GET:
+        case HEAD:
+        case OPTIONS:
+        case PUT:
+        case DELETE:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /** The rate limiter of this client, null unless adaptiveRateLimiting is enabled */
+    public AdaptiveRateLimiter rateLimiter() {
+        return rateLimiter;
     }
 
     public static class Builder {
@@ -87,22 +527,43 @@ public class AWSSignerHttpClient implements AutoCloseable {
 
         public AWSSignerHttpClient build() {
             if (client.awsCredentialsProvider == null) {
-                DefaultCredentialsProvider provider = DefaultCredentialsProvider.create();
-                client.awsCredentialsProvider = provider;
+                // not the create() singleton, which other SDK clients share
+                client.awsCredentialsProvider = CachedCredentialsProvider.createOwning(DefaultCredentialsProvider.builder().build(), client.credentialsRefreshInterval);
+                client.closeCredentialsProvider = true;
+            } else if (!(client.awsCredentialsProvider instanceof CachedCredentialsProvider || client.awsCredentialsProvider instanceof StaticCredentialsProvider
+                    || client.awsCredentialsProvider instanceof AnonymousCredentialsProvider)) {
+                // static credentials are already a field read, a cached provider may be shared by several clients
+                client.awsCredentialsProvider = CachedCredentialsProvider.create(client.awsCredentialsProvider, client.credentialsRefreshInterval);
+                client.closeCredentialsProvider = true;
             }
             if (client.sdkClient == null) {
-                AttributeMap options = client.readTimeOut != null ? AttributeMap.builder().put(SdkHttpConfigurationOption.READ_TIMEOUT, client.readTimeOut).build() : AttributeMap.empty();
-                client.sdkClient = new DefaultSdkHttpClientBuilder().buildWithDefaults(options);
+                client.sdkClient = new DefaultSdkHttpClientBuilder().buildWithDefaults(client.httpOptions());
             }
 
             if (client.region == null) {
                 client.region = new DefaultAwsRegionProviderChain().getRegion();
             }
-            client.signer = Aws4Signer.create();
+            if (client.signer == null) {
+                client.signer = SigV4Signer.create();
+            }
+            if (client.retryPolicy == null) {
+                client.retryPolicy = defaultRetryPolicy();
+            }
+            List<ExecutionInterceptor> interceptors = new ArrayList<>();
+            if (client.adaptiveRateLimiting) {
+                client.rateLimiter = AdaptiveRateLimiter.create();
+                interceptors.add(client.rateLimiter);
+            }
+            if (!client.metricPublishers.isEmpty()) {
+                interceptors.add(new MetricsInterceptor());
+            }
+            client.execInterceptorChain = new ExecutionInterceptorChain(interceptors);
             // signer.setRegionName(client.region.value());
             // signer.setServiceName(client.serviceName);
             // client.signingProvider = StaticSignerProvider.create(signer);
-            SdkClientConfiguration clientConfiguration = SdkClientConfiguration.builder().option(SdkClientOption.ADDITIONAL_HTTP_HEADERS, new LinkedHashMap<>()).option(SdkClientOption.CRC32_FROM_COMPRESSED_DATA_ENABLED, true).option(SdkClientOption.SYNC_HTTP_CLIENT, client.sdkClient).option(SdkClientOption.RETRY_POLICY, RetryPolicy.none()).build();
+            SdkClientConfiguration clientConfiguration = SdkClientConfiguration.builder().option(SdkClientOption.ADDITIONAL_HTTP_HEADERS, new LinkedHashMap<>()).option(SdkClientOption.CRC32_FROM_COMPRESSED_DATA_ENABLED, true).option(SdkClientOption.SYNC_HTTP_CLIENT, client.sdkClient).option(SdkClientOption.RETRY_POLICY, client.retryPolicy)
+                    // runs the api call timeouts of executeAll, the thread is only started by the first one
+                    .option(SdkClientOption.SCHEDULED_EXECUTOR_SERVICE, Executors.newScheduledThreadPool(1, new ThreadFactoryBuilder().threadNamePrefix("aws-signer-timeout").daemonThreads(true).build())).build();
             client.awsClient = new AmazonSyncHttpClient(clientConfiguration);
             return client;
         }
@@ -112,6 +573,35 @@ public class AWSSignerHttpClient implements AutoCloseable {
             return this;
         }
 
+        public Builder sdkAsyncClient(SdkAsyncHttpClient sdkAsyncClient) {
+            client.sdkAsyncClient = sdkAsyncClient;
+            return this;
+        }
+
+        /**
+         * Executor used to complete the executeAsync futures. Keeps dependent stages off the SdkAsyncHttpClient event loop threads.
+         */
+        public Builder futureCompletionExecutor(Executor futureCompletionExecutor) {
+            client.futureCompletionExecutor = futureCompletionExecutor;
+            return this;
+        }
+
+        /**
+         * Serves repeated GET requests of execute and executeAll from the cache, see ResponseCache. executeAsync always goes to the service.
+         */
+        public Builder responseCache(ResponseCache responseCache) {
+            client.responseCache = responseCache;
+            return this;
+        }
+
+        /**
+         * Size of the thread pool running executeAll requests when virtual threads are not available, 64 by default.
+         */
+        public Builder batchPoolSize(int batchPoolSize) {
+            client.batchPoolSize = batchPoolSize;
+            return this;
+        }
+
         public Builder serviceName(String serviceName) {
             client.serviceName = serviceName;
             return this;
@@ -122,22 +612,146 @@ public class AWSSignerHttpClient implements AutoCloseable {
             return this;
         }
 
+        /**
+         * Wrapped in a CachedCredentialsProvider refreshing it in the background, except static providers and providers that are already cached.
+         */
         public Builder awsCredentials(AwsCredentialsProvider awsCredentialsProvider) {
             client.awsCredentialsProvider = awsCredentialsProvider;
             return this;
         }
 
+        /**
+         * How often the cached credentials are resolved again from the credentials provider in the background.
+         */
+        public Builder credentialsRefreshInterval(Duration credentialsRefreshInterval) {
+            client.credentialsRefreshInterval = credentialsRefreshInterval;
+            return this;
+        }
+
+        public Builder signer(Signer signer) {
+            client.signer = signer;
+            return this;
+        }
+
+        /**
+         * Overrides defaultRetryPolicy(), which only retries idempotent requests. RetryPolicy.none() disables retries.
+         */
+        public Builder retryPolicy(RetryPolicy retryPolicy) {
+            client.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * Enables the client side AdaptiveRateLimiter which slows down all requests of this client once the service starts throttling. Disabled by default. Synchronous calls wait for their send token,
+         * executeAsync calls are scheduled once it is available.
+         */
+        public Builder adaptiveRateLimiting(boolean adaptiveRateLimiting) {
+            client.adaptiveRateLimiting = adaptiveRateLimiting;
+            return this;
+        }
+
+        /**
+         * Publishes per request metrics: credential resolution, signing, time to first byte, service call and response handling durations, status codes and bytes sent and received, tagged with the service name
+         * and host. MetricsRecorder is an in-memory histogram publisher.
+         */
+        public Builder addMetricPublisher(MetricPublisher metricPublisher) {
+            client.metricPublishers.add(metricPublisher);
+            return this;
+        }
+
+        /**
+         * Sends request bodies of at least compressionThreshold bytes gzip compressed with Content-Encoding gzip. The body is signed after compression.
+         */
+        public Builder compressRequests(boolean compressRequests) {
+            client.compressRequests = compressRequests;
+            return this;
+        }
+
+        /**
+         * Minimum Content-Length of a request body to compress, 1024 bytes by default. Bodies without a Content-Length are always compressed.
+         */
+        public Builder compressionThreshold(int compressionThreshold) {
+            client.compressionThreshold = compressionThreshold;
+            return this;
+        }
+
+        /**
+         * Sends Accept-Encoding gzip. The JsonHandler, ErrorHandler, JsonStreamHandler and BulkIndexer handlers decompress the response while parsing it, custom handlers can use AWSSignerHttpClient.content(response).
+         */
+        public Builder acceptGzip(boolean acceptGzip) {
+            client.acceptGzip = acceptGzip;
+            return this;
+        }
+
+        /**
+         * How SigV4Signer covers request bodies. STREAMING signs the body chunk by chunk while it is sent so large bodies are read once with constant memory, UNSIGNED skips the body hash over HTTPS. Both require
+         * a service that accepts them, the default SIGNED hashes the body up front.
+         */
+        public Builder payloadSigning(SigV4Signer.PayloadSigning payloadSigning) {
+            client.payloadSigning = payloadSigning;
+            return this;
+        }
+
         public Builder readTimeout(Duration readTimeOut) {
             client.readTimeOut = readTimeOut;
             return this;
         }
+
+        /**
+         * Connection pool size of the default HTTP clients, 50 by default. Applies to the Netty client as its maximum concurrency.
+         */
+        public Builder maxConnections(int maxConnections) {
+            client.maxConnections = maxConnections;
+            return this;
+        }
+
+        /**
+         * How long a pooled connection may stay idle before it is closed, 60 seconds by default.
+         */
+        public Builder connectionMaxIdleTimeout(Duration connectionMaxIdleTimeout) {
+            client.connectionMaxIdleTimeout = connectionMaxIdleTimeout;
+            return this;
+        }
+
+        /**
+         * Maximum lifetime of a pooled connection, unlimited by default. A limit lets the client pick up new domain nodes behind DNS.
+         */
+        public Builder connectionTimeToLive(Duration connectionTimeToLive) {
+            client.connectionTimeToLive = connectionTimeToLive;
+            return this;
+        }
+
+        /**
+         * Sets SO_KEEPALIVE on the default async (Netty) client connections. The SDK Apache client always disables it.
+         */
+        public Builder tcpKeepAlive(boolean tcpKeepAlive) {
+            client.tcpKeepAlive = tcpKeepAlive;
+            return this;
+        }
+
+        /**
+         * Sets TCP_NODELAY on the default async (Netty) client connections. Both SDK clients enable it by default and the Apache client does not allow it to be changed.
+         */
+        public Builder tcpNoDelay(boolean tcpNoDelay) {
+            client.tcpNoDelay = tcpNoDelay;
+            return this;
+        }
     }
 
     public static class ServiceSDKRequest extends SdkRequest {
+        private final RequestOverrideConfiguration overrideConfiguration;
+
+        public ServiceSDKRequest() {
+            this(null);
+        }
+
+        ServiceSDKRequest(RequestOverrideConfiguration overrideConfiguration) {
+            this.overrideConfiguration = overrideConfiguration;
+        }
 
         @Override
         public Optional<? extends RequestOverrideConfiguration> overrideConfiguration() {
-            return Optional.empty();
+            return Optional.ofNullable(overrideConfiguration);
         }
 
         @Override
@@ -146,12 +760,12 @@ public class AWSSignerHttpClient implements AutoCloseable {
 
                 @Override
                 public RequestOverrideConfiguration overrideConfiguration() {
-                    return null;
+                    return overrideConfiguration;
                 }
 
                 @Override
                 public SdkRequest build() {
-                    return new ServiceSDKRequest();
+                    return new ServiceSDKRequest(overrideConfiguration);
                 }
 
             };
@@ -164,12 +778,126 @@ public class AWSSignerHttpClient implements AutoCloseable {
 
     }
 
+    /** Outcome of one executeAll request, either a value or an error */
+    public static class Result<T> {
+        private final SdkHttpFullRequest request;
+        private final T value;
+        private final Throwable error;
+
+        Result(SdkHttpFullRequest request, T value, Throwable error) {
+            this.request = request;
+            this.value = value;
+            this.error = error;
+        }
+
+        public SdkHttpFullRequest request() {
+            return request;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        public T value() {
+            return value;
+        }
+
+        /** The SdkServiceException for error responses, ApiCallTimeoutException if the deadline passed first */
+        public Throwable error() {
+            return error;
+        }
+    }
+
+    /** Records the metrics the SDK pipeline does not: time to first byte and request and response sizes */
+    public static class MetricsInterceptor implements ExecutionInterceptor {
+        static final ExecutionAttribute<MetricCollector> METRIC_COLLECTOR = new ExecutionAttribute<>("AwsSignerMetricCollector");
+        private static final ExecutionAttribute<Long> TRANSMISSION_START = new ExecutionAttribute<>("AwsSignerTransmissionStart");
+
+        @Override
+        public void beforeTransmission(Context.BeforeTransmission context, ExecutionAttributes executionAttributes) {
+            MetricCollector metricCollector = executionAttributes.getAttribute(METRIC_COLLECTOR);
+            if (metricCollector != null) {
+                context.httpRequest().firstMatchingHeader("Content-Length").ifPresent(l -> metricCollector.reportMetric(AWSSignerMetric.BYTES_SENT, Long.valueOf(l)));
+                executionAttributes.putAttribute(TRANSMISSION_START, System.nanoTime());
+            }
+        }
+
+        @Override
+        public void afterTransmission(Context.AfterTransmission context, ExecutionAttributes executionAttributes) {
+            MetricCollector metricCollector = executionAttributes.getAttribute(METRIC_COLLECTOR);
+            Long start = executionAttributes.getAttribute(TRANSMISSION_START);
+            if (metricCollector != null && start != null) {
+                metricCollector.reportMetric(AWSSignerMetric.TIME_TO_FIRST_BYTE, Duration.ofNanos(System.nanoTime() - start));
+                if (!context.responseBody().isPresent()) {
+                    // async responses are published as a stream, use the declared length
+                    context.httpResponse().firstMatchingHeader("Content-Length").ifPresent(l -> metricCollector.reportMetric(AWSSignerMetric.BYTES_RECEIVED, Long.valueOf(l)));
+                }
+            }
+        }
+
+        @Override
+        public Optional<InputStream> modifyHttpResponseContent(Context.ModifyHttpResponse context, ExecutionAttributes executionAttributes) {
+            MetricCollector metricCollector = executionAttributes.getAttribute(METRIC_COLLECTOR);
+            if (metricCollector == null || !context.responseBody().isPresent()) {
+                return context.responseBody();
+            }
+            return Optional.of(new CountingInputStream(context.responseBody().get(), metricCollector));
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private final MetricCollector metricCollector;
+        private long count;
+        private boolean reported;
+
+        CountingInputStream(InputStream in, MetricCollector metricCollector) {
+            super(in);
+            this.metricCollector = metricCollector;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            } else {
+                report();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            } else if (read < 0) {
+                report();
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            report();
+            super.close();
+        }
+
+        private void report() {
+            if (!reported) {
+                reported = true;
+                metricCollector.reportMetric(AWSSignerMetric.BYTES_RECEIVED, count);
+            }
+        }
+    }
+
     public static class ErrorHandler implements HttpResponseHandler<SdkException> {
 
         @Override
         public SdkException handle(SdkHttpFullResponse response, ExecutionAttributes executionAttributes) throws Exception {
-            String responseMsg = response.content().isPresent() ? IoUtils.toUtf8String(response.content().get()) : "";
-            return SdkException.builder().message(String.format("%d: %s", response.statusCode(), responseMsg)).build();
+            Optional<InputStream> content = content(response);
+            String responseMsg = content.isPresent() ? IoUtils.toUtf8String(content.get()) : "";
+            return SdkServiceException.builder().statusCode(response.statusCode()).message(String.format("%d: %s", response.statusCode(), responseMsg)).build();
         }
 
     }
@@ -178,7 +906,13 @@ public class AWSSignerHttpClient implements AutoCloseable {
 
         @Override
         public T handle(SdkHttpFullResponse response, ExecutionAttributes executionAttributes) throws Exception {
-            return response.content().isPresent() ? (T) Json.createReader(response.content().get()).read() : null;
+            Optional<InputStream> content = content(response);
+            if (!content.isPresent()) {
+                return null;
+            }
+            try (JsonReader reader = JSON_READER_FACTORY.createReader(content.get())) {
+                return (T) reader.read();
+            }
         }
 
     }
@@ -186,6 +920,17 @@ public class AWSSignerHttpClient implements AutoCloseable {
     @Override
     public void close() {
         awsClient.close();
+        metricPublishers.forEach(MetricPublisher::close);
+        if (awsAsyncClient != null) {
+            awsAsyncClient.close();
+        }
+        if (batchExecutor != null) {
+            batchExecutor.shutdownNow();
+        }
+        // only the cache created by the builder, a caller supplied provider may be shared with other clients
+        if (closeCredentialsProvider) {
+            ((CachedCredentialsProvider) awsCredentialsProvider).close();
+        }
 
     }
 }
\ No newline at end of file
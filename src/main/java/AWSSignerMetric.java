@@ -0,0 +1,28 @@
+import java.time.Duration;
+
+import software.amazon.awssdk.metrics.MetricCategory;
+import software.amazon.awssdk.metrics.MetricLevel;
+import software.amazon.awssdk.metrics.SdkMetric;
+
+/**
+ * Metrics reported by AWSSignerHttpClient in addition to the SDK CoreMetric and HttpMetric values recorded by the request pipeline (signing, service call, unmarshalling, status code and retry metrics).
+ */
+public final class AWSSignerMetric {
+
+    /** The host the request was sent to */
+    public static final SdkMetric<String> HOST = SdkMetric.create("AwsSignerHost", String.class, MetricLevel.ERROR, MetricCategory.CORE);
+
+    /** Time from handing the signed request to the HTTP client until the response headers were received, including connection acquisition */
+    public static final SdkMetric<Duration> TIME_TO_FIRST_BYTE = SdkMetric.create("AwsSignerTimeToFirstByte", Duration.class, MetricLevel.INFO, MetricCategory.CORE, MetricCategory.HTTP_CLIENT);
+
+    /** Request body size */
+    public static final SdkMetric<Long> BYTES_SENT = SdkMetric.create("AwsSignerBytesSent", Long.class, MetricLevel.INFO, MetricCategory.HTTP_CLIENT);
+
+    /** Response body size as read from the wire */
+    public static final SdkMetric<Long> BYTES_RECEIVED = SdkMetric.create("AwsSignerBytesReceived", Long.class, MetricLevel.INFO, MetricCategory.HTTP_CLIENT);
+
+    private AWSSignerMetric() {
+
+    }
+
+}
@@ -0,0 +1,163 @@
+import java.time.Duration;
+
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.core.retry.backoff.BackoffStrategy;
+
+/**
+ * Client side token bucket that adapts its fill rate to throttling responses using the CUBIC algorithm of the AWS SDKs adaptive retry mode. The bucket is disabled until the first throttling response is seen,
+ * after which every attempt, including retries, acquires a token before transmission. On throttling the rate is cut to 70% of the measured send rate and then grows back along a cubic curve, so the sustained
+ * rate converges on the capacity of the service instead of oscillating between bursts and failures.
+ * <p>
+ * Registered as an ExecutionInterceptor on the AWSSignerHttpClient interceptor chain so it observes each attempt. Synchronous attempts wait for their token in beforeTransmission. Attempts marked NON_BLOCKING
+ * are not held there, their wait is applied without blocking a thread: executeAsync schedules the first attempt after reserve() and retries are delayed through backoffStrategy().
+ */
+public class AdaptiveRateLimiter implements ExecutionInterceptor {
+
+    private static final double MIN_FILL_RATE = 0.5;
+    private static final double MIN_CAPACITY = 1;
+    private static final double SMOOTH = 0.8;
+    private static final double BETA = 0.7;
+    private static final double SCALE_CONSTANT = 0.4;
+
+    /** Marks an execution whose attempts reserved their token without blocking */
+    public static final ExecutionAttribute<Boolean> NON_BLOCKING = new ExecutionAttribute<>("AdaptiveRateLimiterNonBlocking");
+
+    private double fillRate;
+    private double maxCapacity;
+    private double currentCapacity;
+    private double lastTimestamp = -1;
+    private boolean enabled;
+    private double measuredTxRate;
+    private double lastTxRateBucket = Math.floor(now());
+    private int requestCount;
+    private double lastMaxRate;
+    private double lastThrottleTime = now();
+    private double timeWindow;
+
+    public static AdaptiveRateLimiter create() {
+        return new AdaptiveRateLimiter();
+    }
+
+    /**
+     * Blocks until a send token is available. Returns immediately while no throttling has been observed.
+     */
+    public void acquire() {
+        long waitNanos = reserve();
+        if (waitNanos > 0) {
+            try {
+                Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Reserves a send token and returns how many nanoseconds the caller has to wait before sending, 0 while no throttling has been observed.
+     */
+    public synchronized long reserve() {
+        if (!enabled) {
+            return 0;
+        }
+        refill();
+        // reserve the token now so concurrent callers queue up behind each other
+        currentCapacity -= 1;
+        return currentCapacity < 0 ? (long) (-currentCapacity / fillRate * 1_000_000_000L) : 0;
+    }
+
+    /**
+     * Retry backoff that also reserves the token of the retry, delaying it until both the backoff and the token wait have elapsed.
+     */
+    public BackoffStrategy backoffStrategy(BackoffStrategy backoffStrategy) {
+        return context -> {
+            Duration backoff = backoffStrategy.computeDelayBeforeNextRetry(context);
+            long waitNanos = reserve();
+            return waitNanos > backoff.toNanos() ? Duration.ofNanos(waitNanos) : backoff;
+        };
+    }
+
+    /**
+     * Updates the send rate from the outcome of an attempt.
+     */
+    public synchronized void update(boolean throttled) {
+        updateMeasuredRate();
+        double calculatedRate;
+        if (throttled) {
+            double rateToUse = enabled ? Math.min(measuredTxRate, fillRate) : measuredTxRate;
+            lastMaxRate = rateToUse;
+            calculateTimeWindow();
+            lastThrottleTime = now();
+            calculatedRate = rateToUse * BETA;
+            enabled = true;
+        } else {
+            calculateTimeWindow();
+            calculatedRate = SCALE_CONSTANT * Math.pow(now() - lastThrottleTime - timeWindow, 3) + lastMaxRate;
+        }
+        updateRate(Math.min(calculatedRate, 2 * measuredTxRate));
+    }
+
+    public synchronized double fillRate() {
+        return enabled ? fillRate : Double.POSITIVE_INFINITY;
+    }
+
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void beforeTransmission(Context.BeforeTransmission context, ExecutionAttributes executionAttributes) {
+        if (!Boolean.TRUE.equals(executionAttributes.getAttribute(NON_BLOCKING))) {
+            acquire();
+        }
+    }
+
+    @Override
+    public void afterTransmission(Context.AfterTransmission context, ExecutionAttributes executionAttributes) {
+        update(isThrottled(context.httpResponse().statusCode()));
+    }
+
+    public static boolean isThrottled(int statusCode) {
+        return statusCode == 429 || statusCode == 503;
+    }
+
+    private void refill() {
+        double timestamp = now();
+        if (lastTimestamp < 0) {
+            lastTimestamp = timestamp;
+            return;
+        }
+        currentCapacity = Math.min(maxCapacity, currentCapacity + (timestamp - lastTimestamp) * fillRate);
+        lastTimestamp = timestamp;
+    }
+
+    private void updateRate(double newRate) {
+        refill();
+        fillRate = Math.max(newRate, MIN_FILL_RATE);
+        maxCapacity = Math.max(newRate, MIN_CAPACITY);
+        currentCapacity = Math.min(currentCapacity, maxCapacity);
+    }
+
+    private void updateMeasuredRate() {
+        double timeBucket = Math.floor(now() * 2) / 2;
+        requestCount++;
+        if (timeBucket > lastTxRateBucket) {
+            double currentRate = requestCount / (timeBucket - lastTxRateBucket);
+            measuredTxRate = currentRate * SMOOTH + measuredTxRate * (1 - SMOOTH);
+            requestCount = 0;
+            lastTxRateBucket = timeBucket;
+        }
+    }
+
+    private void calculateTimeWindow() {
+        timeWindow = Math.cbrt(lastMaxRate * (1 - BETA) / SCALE_CONSTANT);
+    }
+
+    // seconds, monotonic
+    private static double now() {
+        return System.nanoTime() / 1_000_000_000.0;
+    }
+
+}
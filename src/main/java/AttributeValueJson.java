@@ -0,0 +1,343 @@
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import javax.json.JsonArray;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.json.spi.JsonProvider;
+import javax.json.stream.JsonGenerator;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+/**
+ * Read-only JsonObject and JsonArray views backed by DynamoDB AttributeValues. Unlike DynamoDBUtil.toJson nothing is converted up front: a value is converted when it is first read and then cached, nested maps and
+ * lists are views themselves, so projecting a few fields out of a large item only pays for those fields. B and BS values are exposed as Base64 strings, SS and NS as arrays of strings and numbers.
+ * <p>
+ * The views can be read concurrently, the backing map or list must not be modified.
+ */
+public final class AttributeValueJson {
+
+    // Json.createValue looks up the provider on every call
+    private static final JsonProvider PROVIDER = JsonProvider.provider();
+
+    private static final Function<Object, JsonValue> ATTRIBUTE = v -> toJsonValue((AttributeValue) v);
+    private static final Function<Object, JsonValue> STRING = v -> PROVIDER.createValue((String) v);
+    private static final Function<Object, JsonValue> NUMBER = v -> PROVIDER.createValue(new BigDecimal((String) v));
+    private static final Function<Object, JsonValue> BINARY = v -> PROVIDER.createValue(Base64.getEncoder().encodeToString(((SdkBytes) v).asByteArrayUnsafe()));
+
+    private AttributeValueJson() {
+
+    }
+
+    public static JsonObject of(Map<String, AttributeValue> attributeValues) {
+        return new ObjectView(attributeValues);
+    }
+
+    public static JsonArray of(List<AttributeValue> attributeValues) {
+        return new ArrayView(attributeValues, ATTRIBUTE);
+    }
+
+    public static JsonValue toJsonValue(AttributeValue attributeValue) {
+        if (attributeValue == null) {
+            return JsonValue.NULL;
+        } else if (attributeValue.s() != null) {
+            return PROVIDER.createValue(attributeValue.s());
+        } else if (attributeValue.n() != null) {
+            return PROVIDER.createValue(new BigDecimal(attributeValue.n()));
+        } else if (attributeValue.bool() != null) {
+            return attributeValue.bool() ? JsonValue.TRUE : JsonValue.FALSE;
+        } else if (attributeValue.b() != null) {
+            return BINARY.apply(attributeValue.b());
+        } else if (attributeValue.hasM()) {
+            return new ObjectView(attributeValue.m());
+        } else if (attributeValue.hasL()) {
+            return new ArrayView(attributeValue.l(), ATTRIBUTE);
+        } else if (attributeValue.hasSs()) {
+            return new ArrayView(attributeValue.ss(), STRING);
+        } else if (attributeValue.hasNs()) {
+            return new ArrayView(attributeValue.ns(), NUMBER);
+        } else if (attributeValue.hasBs()) {
+            return new ArrayView(attributeValue.bs(), BINARY);
+        }
+        return JsonValue.NULL;
+    }
+
+    private static String toString(JsonValue value) {
+        StringWriter writer = new StringWriter();
+        try (JsonGenerator generator = DynamoDBUtil.JSON_GENERATOR_FACTORY.createGenerator(writer)) {
+            generator.write(value);
+        }
+        return writer.toString();
+    }
+
+    private static final class ObjectView extends AbstractMap<String, JsonValue> implements JsonObject {
+        private final Map<String, AttributeValue> attributeValues;
+        private final Map<String, JsonValue> converted = new ConcurrentHashMap<>();
+        private Set<Map.Entry<String, JsonValue>> entrySet;
+
+        ObjectView(Map<String, AttributeValue> attributeValues) {
+            this.attributeValues = attributeValues;
+        }
+
+        @Override
+        public JsonValue get(Object key) {
+            JsonValue value = converted.get(key);
+            if (value == null) {
+                AttributeValue attributeValue = attributeValues.get(key);
+                if (attributeValue == null) {
+                    return null;
+                }
+                value = toJsonValue(attributeValue);
+                converted.put((String) key, value);
+            }
+            return value;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return attributeValues.containsKey(key);
+        }
+
+        @Override
+        public int size() {
+            return attributeValues.size();
+        }
+
+        @Override
+        public Set<Map.Entry<String, JsonValue>> entrySet() {
+            if (entrySet == null) {
+                entrySet = new AbstractSet<Map.Entry<String, JsonValue>>() {
+                    @Override
+                    public Iterator<Map.Entry<String, JsonValue>> iterator() {
+                        Iterator<String> keys = attributeValues.keySet().iterator();
+                        return new Iterator<Map.Entry<String, JsonValue>>() {
+                            @Override
+                            public boolean hasNext() {
+                                return keys.hasNext();
+                            }
+
+                            @Override
+                            public Map.Entry<String, JsonValue> next() {
+                                String key = keys.next();
+                                return new SimpleImmutableEntry<>(key, get(key));
+                            }
+                        };
+                    }
+
+                    @Override
+                    public int size() {
+                        return attributeValues.size();
+                    }
+                };
+            }
+            return entrySet;
+        }
+
+        @Override
+        public JsonArray getJsonArray(String name) {
+            return (JsonArray) get(name);
+        }
+
+        @Override
+        public JsonObject getJsonObject(String name) {
+            return (JsonObject) get(name);
+        }
+
+        @Override
+        public JsonNumber getJsonNumber(String name) {
+            return (JsonNumber) get(name);
+        }
+
+        @Override
+        public JsonString getJsonString(String name) {
+            return (JsonString) get(name);
+        }
+
+        @Override
+        public String getString(String name) {
+            return getJsonString(name).getString();
+        }
+
+        @Override
+        public String getString(String name, String defaultValue) {
+            JsonValue value = get(name);
+            return value instanceof JsonString ? ((JsonString) value).getString() : defaultValue;
+        }
+
+        @Override
+        public int getInt(String name) {
+            return getJsonNumber(name).intValue();
+        }
+
+        @Override
+        public int getInt(String name, int defaultValue) {
+            JsonValue value = get(name);
+            return value instanceof JsonNumber ? ((JsonNumber) value).intValue() : defaultValue;
+        }
+
+        @Override
+        public boolean getBoolean(String name) {
+            JsonValue value = get(name);
+            if (value == null) {
+                throw new NullPointerException(name);
+            } else if (value == JsonValue.TRUE) {
+                return true;
+            } else if (value == JsonValue.FALSE) {
+                return false;
+            }
+            throw new ClassCastException(name + " is not a boolean");
+        }
+
+        @Override
+        public boolean getBoolean(String name, boolean defaultValue) {
+            AttributeValue attributeValue = attributeValues.get(name);
+            return attributeValue != null && attributeValue.bool() != null ? attributeValue.bool() : defaultValue;
+        }
+
+        @Override
+        public boolean isNull(String name) {
+            return get(name) == JsonValue.NULL;
+        }
+
+        @Override
+        public ValueType getValueType() {
+            return ValueType.OBJECT;
+        }
+
+        @Override
+        public String toString() {
+            return AttributeValueJson.toString(this);
+        }
+    }
+
+    private static final class ArrayView extends AbstractList<JsonValue> implements JsonArray {
+        private final List<?> values;
+        private final Function<Object, JsonValue> converter;
+        // racing conversions store equal values
+        private final JsonValue[] converted;
+
+        ArrayView(List<?> values, Function<Object, JsonValue> converter) {
+            this.values = values;
+            this.converter = converter;
+            this.converted = new JsonValue[values.size()];
+        }
+
+        @Override
+        public JsonValue get(int index) {
+            JsonValue value = converted[index];
+            if (value == null) {
+                value = converter.apply(values.get(index));
+                converted[index] = value;
+            }
+            return value;
+        }
+
+        @Override
+        public int size() {
+            return converted.length;
+        }
+
+        @Override
+        public JsonObject getJsonObject(int index) {
+            return (JsonObject) get(index);
+        }
+
+        @Override
+        public JsonArray getJsonArray(int index) {
+            return (JsonArray) get(index);
+        }
+
+        @Override
+        public JsonNumber getJsonNumber(int index) {
+            return (JsonNumber) get(index);
+        }
+
+        @Override
+        public JsonString getJsonString(int index) {
+            return (JsonString) get(index);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public <T extends JsonValue> List<T> getValuesAs(Class<T> clazz) {
+            return (List<T>) this;
+        }
+
+        @Override
+        public String getString(int index) {
+            return getJsonString(index).getString();
+        }
+
+        @Override
+        public String getString(int index, String defaultValue) {
+            if (index < 0 || index >= size()) {
+                return defaultValue;
+            }
+            JsonValue value = get(index);
+            return value instanceof JsonString ? ((JsonString) value).getString() : defaultValue;
+        }
+
+        @Override
+        public int getInt(int index) {
+            return getJsonNumber(index).intValue();
+        }
+
+        @Override
+        public int getInt(int index, int defaultValue) {
+            if (index < 0 || index >= size()) {
+                return defaultValue;
+            }
+            JsonValue value = get(index);
+            return value instanceof JsonNumber ? ((JsonNumber) value).intValue() : defaultValue;
+        }
+
+        @Override
+        public boolean getBoolean(int index) {
+            JsonValue value = get(index);
+            if (value == JsonValue.TRUE) {
+                return true;
+            } else if (value == JsonValue.FALSE) {
+                return false;
+            }
+            throw new ClassCastException(index + " is not a boolean");
+        }
+
+        @Override
+        public boolean getBoolean(int index, boolean defaultValue) {
+            if (index < 0 || index >= size()) {
+                return defaultValue;
+            }
+            JsonValue value = get(index);
+            return value == JsonValue.TRUE ? true : value == JsonValue.FALSE ? false : defaultValue;
+        }
+
+        @Override
+        public boolean isNull(int index) {
+            return get(index) == JsonValue.NULL;
+        }
+
+        @Override
+        public ValueType getValueType() {
+            return ValueType.ARRAY;
+        }
+
+        @Override
+        public String toString() {
+            return AttributeValueJson.toString(this);
+        }
+    }
+
+}
@@ -0,0 +1,347 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.json.stream.JsonParser;
+
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.PutRequest;
+import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+import software.amazon.awssdk.utils.ThreadFactoryBuilder;
+
+/**
+ * Loads a JSON array or NDJSON stream, of plain JSON or DynamoDB JSON objects, into a table with BatchWriteItem. The input is read on the calling thread; NDJSON lines are converted to items on the writer threads, the elements of a JSON array are
+ * converted while they are parsed. Items are grouped into batches of up to 25 items and 16 MB, several batches are written concurrently and UnprocessedItems are retried with jittered exponential backoff.
+ * Items above the 400 KB item limit are compressed with the configured CapacityEncoder, or rejected.
+ *
+ * <pre>
+ * BatchImporter importer = BatchImporter.builder().client(dynamoDbClient).tableName("my-table").inFlightBatches(8).build();
+ * BatchImporter.Stats stats = importer.importJson(Files.newInputStream(Paths.get("my-table.ndjson")));
+ * </pre>
+ */
+public class BatchImporter {
+
+    public static final int MAX_BATCH_ITEMS = 25;
+    public static final long MAX_BATCH_BYTES = 16 * 1024 * 1024;
+    public static final long MAX_ITEM_BYTES = 400 * 1024;
+
+    private DynamoDbClient client;
+    private String tableName;
+    private int inFlightBatches = 8;
+    private int maxRetries = 10;
+    private Duration baseDelay = Duration.ofMillis(50);
+    private Duration maxDelay = Duration.ofSeconds(10);
+    private CapacityEncoder oversizedEncoder;
+    private ItemEncryptor itemEncryptor;
+    private boolean dynamoDbJson;
+
+    private BatchImporter() {
+
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Imports every item of the stream, a JSON array of objects or one object per line, and closes it.
+     *
+     * @throws SdkClientException when an item cannot be stored or UnprocessedItems remain after maxRetries, after the batches in flight completed
+     */
+    public Stats importJson(InputStream inputStream) throws IOException, InterruptedException {
+        Stats stats = new Stats();
+        ExecutorService executor = Executors.newFixedThreadPool(inFlightBatches, new ThreadFactoryBuilder().threadNamePrefix("batch-importer").daemonThreads(true).build());
+        // one batch in each writer and one queued for each
+        Semaphore permits = new Semaphore(inFlightBatches * 2);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        try (PushbackInputStream in = new PushbackInputStream(inputStream, 1)) {
+            // skips whitespace and a UTF-8 byte order mark to tell an array from NDJSON
+            int first;
+            do {
+                first = in.read();
+            } while (first == ' ' || first == '\t' || first == '\r' || first == '\n' || first == 0xEF || first == 0xBB || first == 0xBF);
+            if (first != -1) {
+                in.unread(first);
+            }
+            if (first == '[') {
+                readArray(in, executor, permits, failure, stats);
+            } else {
+                readLines(in, executor, permits, failure, stats);
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+        Throwable t = failure.get();
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t != null) {
+            throw SdkClientException.create("Import into " + tableName + " failed", t);
+        }
+        stats.end = System.nanoTime();
+        return stats;
+    }
+
+    private void readLines(InputStream in, ExecutorService executor, Semaphore permits, AtomicReference<Throwable> failure, Stats stats) throws IOException, InterruptedException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 64 * 1024);
+        List<String> lines = new ArrayList<>(MAX_BATCH_ITEMS);
+        String line;
+        while (failure.get() == null && (line = reader.readLine()) != null) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            lines.add(line);
+            if (lines.size() == MAX_BATCH_ITEMS) {
+                submit(lines, null, executor, permits, failure, stats);
+                lines = new ArrayList<>(MAX_BATCH_ITEMS);
+            }
+        }
+        if (!lines.isEmpty()) {
+            submit(lines, null, executor, permits, failure, stats);
+        }
+    }
+
+    private void readArray(InputStream in, ExecutorService executor, Semaphore permits, AtomicReference<Throwable> failure, Stats stats) throws InterruptedException {
+        try (JsonParser parser = DynamoDBUtil.JSON_PARSER_FACTORY.createParser(in)) {
+            parser.next();
+            List<Map<String, AttributeValue>> items = new ArrayList<>(MAX_BATCH_ITEMS);
+            JsonParser.Event event;
+            while (failure.get() == null && (event = parser.next()) != JsonParser.Event.END_ARRAY) {
+                if (event != JsonParser.Event.START_OBJECT) {
+                    throw SdkClientException.create("Expected an object at " + parser.getLocation());
+                }
+                items.add(dynamoDbJson ? DynamoDBUtil.readTypedObject(parser) : DynamoDBUtil.readObject(parser));
+                if (items.size() == MAX_BATCH_ITEMS) {
+                    submit(null, items, executor, permits, failure, stats);
+                    items = new ArrayList<>(MAX_BATCH_ITEMS);
+                }
+            }
+            if (!items.isEmpty()) {
+                submit(null, items, executor, permits, failure, stats);
+            }
+        }
+    }
+
+    private void submit(List<String> lines, List<Map<String, AttributeValue>> items, ExecutorService executor, Semaphore permits, AtomicReference<Throwable> failure, Stats stats) throws InterruptedException {
+        permits.acquire();
+        executor.execute(() -> {
+            try {
+                List<Map<String, AttributeValue>> converted = items;
+                if (lines != null) {
+                    converted = new ArrayList<>(lines.size());
+                    for (String line : lines) {
+                        InputStream is = new ByteArrayInputStream(line.getBytes(StandardCharsets.UTF_8));
+                        converted.add(dynamoDbJson ? DynamoDBUtil.toTypedAttribute(is) : DynamoDBUtil.toAttribute(is));
+                    }
+                }
+                write(converted, stats);
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            } finally {
+                permits.release();
+            }
+        });
+    }
+
+    // splits on the 16 MB request limit, the 25 item limit is applied by the reader
+    private void write(List<Map<String, AttributeValue>> items, Stats stats) throws InterruptedException {
+        List<WriteRequest> batch = new ArrayList<>(items.size());
+        long batchSize = 0;
+        for (Map<String, AttributeValue> plain : items) {
+            Map<String, AttributeValue> item = itemEncryptor != null ? itemEncryptor.encrypt(plain) : plain;
+            long size = CapacityEncoder.itemSize(item);
+            if (size > MAX_ITEM_BYTES && oversizedEncoder != null) {
+                // cipher text does not compress and a compressed attribute hides the encrypted paths below it, only the attributes without encrypted fields are compressed
+                item = itemEncryptor != null ? oversizedEncoder.encode(item, itemEncryptor.encryptedAttributes(plain)) : oversizedEncoder.encode(item);
+                size = CapacityEncoder.itemSize(item);
+                stats.compressedItems.increment();
+            }
+            if (size > MAX_ITEM_BYTES) {
+                throw SdkClientException.create("Item of " + size + " bytes exceeds the DynamoDB item size limit");
+            }
+            if (batchSize + size > MAX_BATCH_BYTES) {
+                writeBatch(batch, stats);
+                batch = new ArrayList<>(items.size());
+                batchSize = 0;
+            }
+            batch.add(WriteRequest.builder().putRequest(PutRequest.builder().item(item).build()).build());
+            batchSize += size;
+        }
+        if (!batch.isEmpty()) {
+            writeBatch(batch, stats);
+        }
+    }
+
+    private void writeBatch(List<WriteRequest> batch, Stats stats) throws InterruptedException {
+        Map<String, List<WriteRequest>> requestItems = Collections.singletonMap(tableName, batch);
+        for (int attempt = 0;; attempt++) {
+            BatchWriteItemResponse response = client.batchWriteItem(BatchWriteItemRequest.builder().requestItems(requestItems).returnConsumedCapacity(ReturnConsumedCapacity.TOTAL).build());
+            stats.batches.increment();
+            if (response.hasConsumedCapacity()) {
+                for (ConsumedCapacity capacity : response.consumedCapacity()) {
+                    if (capacity.capacityUnits() != null) {
+                        stats.consumedCapacity.add(capacity.capacityUnits());
+                    }
+                }
+            }
+            List<WriteRequest> unprocessed = response.hasUnprocessedItems() ? response.unprocessedItems().get(tableName) : null;
+            int pending = unprocessed != null ? unprocessed.size() : 0;
+            stats.items.add(requestItems.get(tableName).size() - pending);
+            if (pending == 0) {
+                return;
+            }
+            if (attempt == maxRetries) {
+                throw SdkClientException.create(pending + " items still unprocessed after " + maxRetries + " retries");
+            }
+            stats.retries.increment();
+            // full jitter
+            long delay = Math.min(maxDelay.toMillis(), baseDelay.toMillis() << Math.min(attempt, 20));
+            Thread.sleep(ThreadLocalRandom.current().nextLong(delay + 1));
+            requestItems = Collections.singletonMap(tableName, unprocessed);
+        }
+    }
+
+    /** Progress of an import, updated while it runs */
+    public static class Stats {
+        private final long start = System.nanoTime();
+        private volatile long end;
+        private final LongAdder items = new LongAdder();
+        private final LongAdder batches = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+        private final LongAdder compressedItems = new LongAdder();
+        private final DoubleAdder consumedCapacity = new DoubleAdder();
+
+        public long items() {
+            return items.sum();
+        }
+
+        /** BatchWriteItem calls, including retries */
+        public long batches() {
+            return batches.sum();
+        }
+
+        /** BatchWriteItem calls retrying UnprocessedItems */
+        public long retries() {
+            return retries.sum();
+        }
+
+        /** Oversized items stored with compressed attributes */
+        public long compressedItems() {
+            return compressedItems.sum();
+        }
+
+        /** Write capacity units reported by DynamoDB */
+        public double consumedCapacity() {
+            return consumedCapacity.sum();
+        }
+
+        public Duration elapsed() {
+            return Duration.ofNanos((end != 0 ? end : System.nanoTime()) - start);
+        }
+
+        public double itemsPerSecond() {
+            long nanos = elapsed().toNanos();
+            return nanos > 0 ? items() * 1_000_000_000.0 / nanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("items=%d batches=%d retries=%d compressed=%d consumedCapacity=%.1f elapsed=%s itemsPerSecond=%.1f", items(), batches(), retries(), compressedItems(), consumedCapacity(),
+                    elapsed(), itemsPerSecond());
+        }
+    }
+
+    public static class Builder {
+        BatchImporter importer = new BatchImporter();
+
+        public BatchImporter build() {
+            if (importer.client == null || importer.tableName == null) {
+                throw new IllegalArgumentException("client and tableName are required");
+            }
+            return importer;
+        }
+
+        public Builder client(DynamoDbClient client) {
+            importer.client = client;
+            return this;
+        }
+
+        public Builder tableName(String tableName) {
+            importer.tableName = tableName;
+            return this;
+        }
+
+        /**
+         * Concurrent BatchWriteItem calls, 8 by default.
+         */
+        public Builder inFlightBatches(int inFlightBatches) {
+            importer.inFlightBatches = inFlightBatches;
+            return this;
+        }
+
+        /**
+         * Retries of the UnprocessedItems of a batch, 10 by default.
+         */
+        public Builder maxRetries(int maxRetries) {
+            importer.maxRetries = maxRetries;
+            return this;
+        }
+
+        /**
+         * Backoff before retrying UnprocessedItems, doubled on each retry up to maxDelay, with full jitter. 50 ms and 10 seconds by default.
+         */
+        public Builder backoff(Duration baseDelay, Duration maxDelay) {
+            importer.baseDelay = baseDelay;
+            importer.maxDelay = maxDelay;
+            return this;
+        }
+
+        /**
+         * Encoder compressing the attributes of items above 400 KB, configure its keyAttributes with the table keys. Without it such items fail the import.
+         */
+        public Builder compressOversized(CapacityEncoder oversizedEncoder) {
+            importer.oversizedEncoder = oversizedEncoder;
+            return this;
+        }
+
+        /**
+         * Encrypts the configured attributes of each item on the writer threads before it is written. Oversized items are compressed after encryption, only in the attributes without encrypted fields.
+         */
+        public Builder itemEncryptor(ItemEncryptor itemEncryptor) {
+            importer.itemEncryptor = itemEncryptor;
+            return this;
+        }
+
+        /**
+         * Reads DynamoDB JSON objects, {"name":{"S":"value"}}, as written by ScanExporter.Builder.dynamoDbJson(true).
+         */
+        public Builder dynamoDbJson(boolean dynamoDbJson) {
+            importer.dynamoDbJson = dynamoDbJson;
+            return this;
+        }
+    }
+
+}
@@ -0,0 +1,492 @@
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonValue;
+import javax.json.stream.JsonParser;
+
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.core.http.HttpResponseHandler;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.http.SdkHttpFullRequest;
+import software.amazon.awssdk.http.SdkHttpFullResponse;
+import software.amazon.awssdk.http.SdkHttpMethod;
+import software.amazon.awssdk.utils.ThreadFactoryBuilder;
+
+/**
+ * Buffers index, update and delete actions and sends them as NDJSON _bulk requests through AWSSignerHttpClient.executeAsync. A bulk is sent once the buffered action count or byte size is reached or the flush
+ * interval elapses. At most maxInFlight bulks are outstanding, producers block until one completes. Items rejected with a retryable status (429, 502, 503, 504), and all items of a bulk request that failed with
+ * one of these statuses or without a response, are re-queued up to maxRetries times after a jittered exponential backoff starting at retryDelay.
+ *
+ * <pre>
+ * try (BulkIndexer indexer = BulkIndexer.builder().client(client).endpoint(URI.create("https://search-domain.us-west-1.es.amazonaws.com")).build()) {
+ *     indexer.index("my-index", "1", document);
+ * }
+ * </pre>
+ */
+public class BulkIndexer implements AutoCloseable {
+
+    private AWSSignerHttpClient client;
+    private URI endpoint;
+    private int maxActions = 1000;
+    private long maxBytes = 5 * 1024 * 1024;
+    private Duration flushInterval = Duration.ofSeconds(1);
+    private int maxInFlight = 2;
+    private int maxRetries = 3;
+    private Duration retryDelay = Duration.ofMillis(500);
+    private Duration maxRetryDelay = Duration.ofSeconds(30);
+    private Consumer<Failure> failureListener = f -> {
+    };
+
+    private Semaphore inFlight;
+    private String bulkPath;
+    private ScheduledExecutorService flushScheduler;
+    private List<Action> buffer = new ArrayList<>();
+    private long bufferBytes;
+    private volatile long lastFlush = System.nanoTime();
+    // actions waiting for their backoff before they are re-queued
+    private final AtomicInteger delayedRetries = new AtomicInteger();
+    // batches taken from the buffer whose bulk has not completed yet, counted under the same lock as the buffer
+    private int pendingBatches;
+
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong bulks = new AtomicLong();
+
+    private BulkIndexer() {
+
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public void index(String index, String id, JsonObject document) {
+        add(new Action("index", index, id, document));
+    }
+
+    public void create(String index, String id, JsonObject document) {
+        add(new Action("create", index, id, document));
+    }
+
+    /**
+     * @param body the update request body, for instance <code>{"doc": {...}}</code> or <code>{"script": {...}}</code>
+     */
+    public void update(String index, String id, JsonObject body) {
+        add(new Action("update", index, id, body));
+    }
+
+    public void delete(String index, String id) {
+        add(new Action("delete", index, id, null));
+    }
+
+    private void add(Action action) {
+        List<Action> batch = null;
+        synchronized (this) {
+            buffer.add(action);
+            bufferBytes += action.bytes.length;
+            if (buffer.size() >= maxActions || bufferBytes >= maxBytes) {
+                batch = drain();
+            }
+        }
+        if (batch != null) {
+            send(batch);
+        }
+    }
+
+    // removes the next bulk worth of actions from the buffer
+    private synchronized List<Action> drain() {
+        lastFlush = System.nanoTime();
+        if (buffer.isEmpty()) {
+            return Collections.emptyList();
+        }
+        pendingBatches++;
+        if (buffer.size() <= maxActions && bufferBytes <= maxBytes) {
+            List<Action> batch = buffer;
+            buffer = new ArrayList<>(Math.min(maxActions, 1024));
+            bufferBytes = 0;
+            return batch;
+        }
+        int count = 0;
+        long batchBytes = 0;
+        while (count < buffer.size() && count < maxActions) {
+            long actionBytes = buffer.get(count).bytes.length;
+            if (count > 0 && batchBytes + actionBytes > maxBytes) {
+                break;
+            }
+            batchBytes += actionBytes;
+            count++;
+        }
+        List<Action> head = buffer.subList(0, count);
+        List<Action> batch = new ArrayList<>(head);
+        head.clear();
+        bufferBytes -= batchBytes;
+        return batch;
+    }
+
+    private synchronized void requeue(List<Action> actions) {
+        buffer.addAll(actions);
+        for (Action action : actions) {
+            bufferBytes += action.bytes.length;
+        }
+    }
+
+    // full jitter over an exponential backoff, so throttled items do not hit the domain again right away
+    private void requeueDelayed(List<Action> actions) {
+        if (actions.isEmpty()) {
+            return;
+        }
+        int attempts = 0;
+        for (Action action : actions) {
+            attempts = Math.max(attempts, action.attempts);
+        }
+        long backoff = Math.min(maxRetryDelay.toMillis(), retryDelay.toMillis() << Math.min(attempts - 1, 20));
+        delayedRetries.addAndGet(actions.size());
+        try {
+            flushScheduler.schedule(() -> {
+                requeue(actions);
+                delayedRetries.addAndGet(-actions.size());
+            }, ThreadLocalRandom.current().nextLong(backoff + 1), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // closed
+            requeue(actions);
+            delayedRetries.addAndGet(-actions.size());
+        }
+    }
+
+    private synchronized boolean isIdle() {
+        return buffer.isEmpty() && pendingBatches == 0 && delayedRetries.get() == 0;
+    }
+
+    private synchronized void batchDone() {
+        pendingBatches--;
+    }
+
+    private synchronized boolean isBufferEmpty() {
+        return buffer.isEmpty();
+    }
+
+    private void send(List<Action> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        inFlight.acquireUninterruptibly();
+        try {
+            int size = 0;
+            for (Action action : batch) {
+                size += action.bytes.length;
+            }
+            byte[] body = new byte[size];
+            int offset = 0;
+            for (Action action : batch) {
+                System.arraycopy(action.bytes, 0, body, offset, action.bytes.length);
+                offset += action.bytes.length;
+            }
+            SdkHttpFullRequest request = SdkHttpFullRequest.builder().method(SdkHttpMethod.POST).uri(endpoint).encodedPath(bulkPath).contentStreamProvider(() -> new ByteArrayInputStream(body)).putHeader("Content-Type", "application/x-ndjson")
+                    .putHeader("Content-Length", String.valueOf(body.length)).build();
+            bulks.incrementAndGet();
+            client.executeAsync(request, new BulkResponseHandler(batch)).whenComplete((retry, error) -> {
+                try {
+                    if (error != null) {
+                        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                        // no response at all is transient, an error response only when its status is
+                        int status = cause instanceof SdkServiceException ? ((SdkServiceException) cause).statusCode() : -1;
+                        retry = new ArrayList<>();
+                        for (Action action : batch) {
+                            retryOrFail(action, -1, status < 0 || isRetryable(status), null, cause, retry);
+                        }
+                    }
+                    requeueDelayed(retry);
+                } finally {
+                    batchDone();
+                    inFlight.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            batchDone();
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    private static boolean isRetryable(int status) {
+        return status == 429 || status == 502 || status == 503 || status == 504;
+    }
+
+    private void retryOrFail(Action action, int status, boolean retryable, JsonObject error, Throwable cause, List<Action> retry) {
+        if (action.attempts < maxRetries && retryable) {
+            action.attempts++;
+            retried.incrementAndGet();
+            retry.add(action);
+        } else {
+            failed.incrementAndGet();
+            failureListener.accept(new Failure(action.type, action.index, action.id, status, error, cause));
+        }
+    }
+
+    private void flushIfIdle() {
+        try {
+            if (System.nanoTime() - lastFlush >= flushInterval.toNanos()) {
+                send(drain());
+            }
+        } catch (RuntimeException e) {
+            // keep the schedule alive, the actions are reported through the failure listener once retries are exhausted
+        }
+    }
+
+    /**
+     * Sends all buffered actions and waits until every in-flight bulk, including retries of failed items, has completed.
+     */
+    public void flush() throws InterruptedException {
+        while (true) {
+            while (!isBufferEmpty()) {
+                send(drain());
+            }
+            inFlight.acquire(maxInFlight);
+            inFlight.release(maxInFlight);
+            if (isIdle()) {
+                return;
+            }
+            if (isBufferEmpty()) {
+                Thread.sleep(Math.max(1, Math.min(retryDelay.toMillis(), 100)));
+            }
+        }
+    }
+
+    /**
+     * Flushes and stops the flush schedule. When interrupted while flushing the remaining actions are dropped and the interrupt status is kept.
+     */
+    @Override
+    public void close() {
+        try {
+            flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            flushScheduler.shutdownNow();
+        }
+    }
+
+    public long succeeded() {
+        return succeeded.get();
+    }
+
+    public long failed() {
+        return failed.get();
+    }
+
+    public long retried() {
+        return retried.get();
+    }
+
+    public long bulks() {
+        return bulks.get();
+    }
+
+    private class BulkResponseHandler implements HttpResponseHandler<List<Action>> {
+        private final List<Action> batch;
+
+        BulkResponseHandler(List<Action> batch) {
+            this.batch = batch;
+        }
+
+        // returns the actions to retry
+        @Override
+        public List<Action> handle(SdkHttpFullResponse response, ExecutionAttributes executionAttributes) throws Exception {
+            List<Action> retry = new ArrayList<>();
+            Optional<InputStream> content = AWSSignerHttpClient.content(response);
+            InputStream is = content.isPresent() ? content.get() : new ByteArrayInputStream(new byte[0]);
+            try (JsonParser parser = JsonStreamHandler.JSON_PARSER_FACTORY.createParser(is)) {
+                Iterator<JsonValue> items = JsonStreamHandler.iterator(parser, "items[*]");
+                int i = 0;
+                while (items.hasNext() && i < batch.size()) {
+                    JsonObject result = items.next().asJsonObject().values().iterator().next().asJsonObject();
+                    Action action = batch.get(i++);
+                    int status = result.getInt("status", 200);
+                    if (status < 300 || (status == 404 && "delete".equals(action.type))) {
+                        succeeded.incrementAndGet();
+                    } else {
+                        retryOrFail(action, status, isRetryable(status), result.getJsonObject("error"), null, retry);
+                    }
+                }
+            }
+            return retry;
+        }
+
+    }
+
+    private static class Action {
+        final String type;
+        final String index;
+        final String id;
+        final byte[] bytes;
+        int attempts;
+
+        Action(String type, String index, String id, JsonObject source) {
+            this.type = type;
+            this.index = index;
+            this.id = id;
+            JsonObjectBuilder metadata = Json.createObjectBuilder();
+            if (index != null) {
+                metadata.add("_index", index);
+            }
+            if (id != null) {
+                metadata.add("_id", id);
+            }
+            StringBuilder line = new StringBuilder();
+            line.append(Json.createObjectBuilder().add(type, metadata).build().toString()).append('\n');
+            if (source != null) {
+                line.append(source.toString()).append('\n');
+            }
+            this.bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /** An action that could not be indexed, either rejected by Elasticsearch or out of retries */
+    public static class Failure {
+        private final String type;
+        private final String index;
+        private final String id;
+        private final int status;
+        private final JsonObject error;
+        private final Throwable cause;
+
+        Failure(String type, String index, String id, int status, JsonObject error, Throwable cause) {
+            this.type = type;
+            this.index = index;
+            this.id = id;
+            this.status = status;
+            this.error = error;
+            this.cause = cause;
+        }
+
+        public String type() {
+            return type;
+        }
+
+        public String index() {
+            return index;
+        }
+
+        public String id() {
+            return id;
+        }
+
+        /** The item status or -1 if the whole bulk request failed, the cause then carries the response status if there was one */
+        public int status() {
+            return status;
+        }
+
+        public JsonObject error() {
+            return error;
+        }
+
+        public Throwable cause() {
+            return cause;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %s/%s %d: %s", type, index, id, status, error != null ? error : cause);
+        }
+    }
+
+    public static class Builder {
+        BulkIndexer indexer = new BulkIndexer();
+
+        public BulkIndexer build() {
+            if (indexer.client == null || indexer.endpoint == null) {
+                throw new IllegalArgumentException("client and endpoint are required");
+            }
+            indexer.inFlight = new Semaphore(indexer.maxInFlight);
+            // keeps a path prefix of the endpoint, for instance a proxy path
+            String path = indexer.endpoint.getRawPath() != null ? indexer.endpoint.getRawPath() : "";
+            indexer.bulkPath = (path.endsWith("/") ? path.substring(0, path.length() - 1) : path) + "/_bulk";
+            indexer.flushScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().threadNamePrefix("bulk-indexer-flush").daemonThreads(true).build());
+            long interval = indexer.flushInterval.toMillis();
+            indexer.flushScheduler.scheduleWithFixedDelay(indexer::flushIfIdle, interval, interval, TimeUnit.MILLISECONDS);
+            return indexer;
+        }
+
+        public Builder client(AWSSignerHttpClient client) {
+            indexer.client = client;
+            return this;
+        }
+
+        /**
+         * The domain endpoint, for instance https://search-some-domain.us-west-1.es.amazonaws.com. _bulk is appended to its path.
+         */
+        public Builder endpoint(URI endpoint) {
+            indexer.endpoint = endpoint;
+            return this;
+        }
+
+        public Builder maxActions(int maxActions) {
+            indexer.maxActions = maxActions;
+            return this;
+        }
+
+        public Builder maxBytes(long maxBytes) {
+            indexer.maxBytes = maxBytes;
+            return this;
+        }
+
+        public Builder flushInterval(Duration flushInterval) {
+            indexer.flushInterval = flushInterval;
+            return this;
+        }
+
+        public Builder maxInFlight(int maxInFlight) {
+            indexer.maxInFlight = maxInFlight;
+            return this;
+        }
+
+        public Builder maxRetries(int maxRetries) {
+            indexer.maxRetries = maxRetries;
+            return this;
+        }
+
+        /**
+         * Base delay of the jittered exponential backoff before a retry, 500 ms by default.
+         */
+        public Builder retryDelay(Duration retryDelay) {
+            indexer.retryDelay = retryDelay;
+            return this;
+        }
+
+        /**
+         * Upper bound of the backoff, 30 seconds by default.
+         */
+        public Builder maxRetryDelay(Duration maxRetryDelay) {
+            indexer.maxRetryDelay = maxRetryDelay;
+            return this;
+        }
+
+        public Builder onFailure(Consumer<Failure> failureListener) {
+            indexer.failureListener = failureListener;
+            return this;
+        }
+    }
+
+}
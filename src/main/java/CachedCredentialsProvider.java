@@ -0,0 +1,181 @@
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import software.amazon.awssdk.auth.credentials.AwsCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+import software.amazon.awssdk.utils.SdkAutoCloseable;
+import software.amazon.awssdk.utils.ThreadFactoryBuilder;
+
+/**
+ * Credentials holder that resolves the delegate provider once and then refreshes it on a background thread, so request threads only perform a volatile read instead of contending on the credentials chain.
+ * Session credentials are refreshed at least 5 minutes before they expire. When refreshing fails the last credentials are served until they expire, after that resolveCredentials resolves the delegate again and
+ * throws its failure.
+ */
+public class CachedCredentialsProvider implements AwsCredentialsProvider, SdkAutoCloseable {
+
+    public static final Duration DEFAULT_REFRESH_INTERVAL = Duration.ofMinutes(1);
+    /** Assumed lifetime of session credentials that do not carry their expiration, the shortest an STS session can be */
+    public static final Duration DEFAULT_SESSION_LIFETIME = Duration.ofMinutes(15);
+
+    private static final long EXPIRY_MARGIN_MILLIS = Duration.ofMinutes(5).toMillis();
+    private static final long MIN_REFRESH_DELAY_MILLIS = 1000;
+    // AwsSessionCredentials.expirationTime() only exists in later SDK versions
+    private static final Method EXPIRATION_TIME = expirationTimeMethod();
+
+    private final AwsCredentialsProvider delegate;
+    private final Duration refreshInterval;
+    private final Function<AwsCredentials, Optional<Instant>> expiration;
+    private final boolean closeDelegate;
+    private volatile Resolved resolved;
+    private ScheduledExecutorService refreshExecutor;
+
+    private CachedCredentialsProvider(AwsCredentialsProvider delegate, Duration refreshInterval, Function<AwsCredentials, Optional<Instant>> expiration, boolean closeDelegate) {
+        this.delegate = delegate;
+        this.refreshInterval = refreshInterval;
+        this.expiration = expiration;
+        this.closeDelegate = closeDelegate;
+    }
+
+    public static CachedCredentialsProvider create(AwsCredentialsProvider delegate) {
+        return create(delegate, DEFAULT_REFRESH_INTERVAL);
+    }
+
+    /**
+     * @param refreshInterval how often the delegate is resolved again, session credentials are also resolved again 5 minutes before they expire.
+     */
+    public static CachedCredentialsProvider create(AwsCredentialsProvider delegate, Duration refreshInterval) {
+        return create(delegate, refreshInterval, CachedCredentialsProvider::expirationTime);
+    }
+
+    /**
+     * @param expiration expiration time of resolved credentials, empty for credentials that do not expire.
+     */
+    public static CachedCredentialsProvider create(AwsCredentialsProvider delegate, Duration refreshInterval, Function<AwsCredentials, Optional<Instant>> expiration) {
+        return new CachedCredentialsProvider(delegate, refreshInterval, expiration, false);
+    }
+
+    /** Closes the delegate on close, for a delegate created by the caller for this provider only */
+    static CachedCredentialsProvider createOwning(AwsCredentialsProvider delegate, Duration refreshInterval) {
+        return new CachedCredentialsProvider(delegate, refreshInterval, CachedCredentialsProvider::expirationTime, true);
+    }
+
+    /**
+     * The expiration carried by the credentials when the SDK provides it, otherwise DEFAULT_SESSION_LIFETIME from now for session credentials. Basic credentials do not expire.
+     */
+    public static Optional<Instant> expirationTime(AwsCredentials credentials) {
+        if (!(credentials instanceof AwsSessionCredentials)) {
+            return Optional.empty();
+        }
+        if (EXPIRATION_TIME != null) {
+            try {
+                Optional<?> expirationTime = (Optional<?>) EXPIRATION_TIME.invoke(credentials);
+                if (expirationTime.isPresent()) {
+                    return Optional.of((Instant) expirationTime.get());
+                }
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                // fall back to the assumed lifetime
+            }
+        }
+        return Optional.of(Instant.now().plus(DEFAULT_SESSION_LIFETIME));
+    }
+
+    private static Method expirationTimeMethod() {
+        try {
+            return AwsSessionCredentials.class.getMethod("expirationTime");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public AwsCredentials resolveCredentials() {
+        Resolved current = resolved;
+        if (current == null || System.currentTimeMillis() >= current.expiresAt) {
+            current = resolveExpired(current);
+        }
+        return current.credentials;
+    }
+
+    // first use, or refreshing failed until the credentials expired: resolve on the calling thread so the failure reaches the caller
+    private synchronized Resolved resolveExpired(Resolved expired) {
+        if (resolved != expired) {
+            return resolved;
+        }
+        Resolved current = resolve();
+        if (refreshExecutor == null) {
+            refreshExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().threadNamePrefix("aws-credentials-refresh").daemonThreads(true).build());
+            scheduleRefresh(current);
+        }
+        return current;
+    }
+
+    private Resolved resolve() {
+        AwsCredentials credentials = delegate.resolveCredentials();
+        Resolved current = new Resolved(credentials, expiration.apply(credentials).map(Instant::toEpochMilli).orElse(Long.MAX_VALUE));
+        resolved = current;
+        return current;
+    }
+
+    private void scheduleRefresh(Resolved current) {
+        long delay = refreshInterval.toMillis();
+        if (current.expiresAt != Long.MAX_VALUE) {
+            delay = Math.min(delay, current.expiresAt - EXPIRY_MARGIN_MILLIS - System.currentTimeMillis());
+        }
+        refreshExecutor.schedule(this::refresh, Math.max(delay, MIN_REFRESH_DELAY_MILLIS), TimeUnit.MILLISECONDS);
+    }
+
+    private void refresh() {
+        Resolved current;
+        try {
+            synchronized (this) {
+                current = resolve();
+            }
+        } catch (RuntimeException e) {
+            // keep serving the last resolved credentials until they expire, the next refresh will try again
+            current = resolved;
+        }
+        synchronized (this) {
+            if (!refreshExecutor.isShutdown()) {
+                scheduleRefresh(current);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (refreshExecutor != null) {
+            refreshExecutor.shutdownNow();
+        }
+        // a caller supplied delegate may be shared, like the DefaultCredentialsProvider.create() singleton
+        if (closeDelegate && delegate instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) delegate).close();
+            } catch (Exception e) {
+                // ignore
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CachedCredentialsProvider(" + delegate + ")";
+    }
+
+    private static final class Resolved {
+        private final AwsCredentials credentials;
+        private final long expiresAt;
+
+        Resolved(AwsCredentials credentials, long expiresAt) {
+            this.credentials = credentials;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+}
@@ -0,0 +1,321 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonParser;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+/**
+ * Stores the attributes of an item compressed only where it lowers the capacity units the item is billed for. Item sizes are computed the way DynamoDB bills them: UTF-8 attribute names and strings, one byte
+ * per two significant digits plus one for numbers, binary length, one byte for booleans and nulls, and three bytes plus one per element for lists and maps. Each top level attribute that is not a key is a
+ * candidate; candidates are compressed largest saving first until the item reaches the fewest units that compression can achieve, so attributes that do not change the bill stay plain and queryable.
+ * <p>
+ * Compressed attributes are stored as B holding the deflated attribute in DynamoDB JSON, which keeps its type, and their names are listed in the SS marker attribute (_compressed by default). decode restores only
+ * the attributes listed by the marker and removes it, B values of items without the marker are returned as they are.
+ *
+ * <pre>
+ * CapacityEncoder encoder = CapacityEncoder.builder().keyAttributes("pk", "sk").build();
+ * client.putItem(PutItemRequest.builder().tableName(table).item(encoder.encode(item)).build());
+ * Map&lt;String, AttributeValue&gt; item = encoder.decode(client.getItem(request).item());
+ * </pre>
+ */
+public class CapacityEncoder {
+
+    public static final int WRITE_UNIT_SIZE = 1024;
+    public static final int READ_UNIT_SIZE = 4096;
+    public static final String DEFAULT_MARKER_ATTRIBUTE = "_compressed";
+
+    private CompressionCodec codec = CompressionCodec.DEFAULT;
+    private int unitSize = WRITE_UNIT_SIZE;
+    private int minAttributeSize = 128;
+    private Set<String> keyAttributes = Collections.emptySet();
+    private String markerAttribute = DEFAULT_MARKER_ATTRIBUTE;
+
+    private CapacityEncoder() {
+
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /** Size of the item as billed by DynamoDB */
+    public static long itemSize(Map<String, AttributeValue> item) {
+        long size = 0;
+        for (Map.Entry<String, AttributeValue> attribute : item.entrySet()) {
+            size += utf8Length(attribute.getKey()) + attributeSize(attribute.getValue());
+        }
+        return size;
+    }
+
+    /** Size of the value, without the attribute name */
+    public static long attributeSize(AttributeValue value) {
+        if (value.s() != null) {
+            return utf8Length(value.s());
+        } else if (value.n() != null) {
+            return numberSize(value.n());
+        } else if (value.b() != null) {
+            return value.b().asByteArrayUnsafe().length;
+        } else if (value.bool() != null || value.nul() != null) {
+            return 1;
+        } else if (value.hasM()) {
+            long size = 3;
+            for (Map.Entry<String, AttributeValue> entry : value.m().entrySet()) {
+                size += 1 + utf8Length(entry.getKey()) + attributeSize(entry.getValue());
+            }
+            return size;
+        } else if (value.hasL()) {
+            long size = 3;
+            for (AttributeValue element : value.l()) {
+                size += 1 + attributeSize(element);
+            }
+            return size;
+        } else if (value.hasSs()) {
+            long size = 0;
+            for (String s : value.ss()) {
+                size += utf8Length(s);
+            }
+            return size;
+        } else if (value.hasNs()) {
+            long size = 0;
+            for (String n : value.ns()) {
+                size += numberSize(n);
+            }
+            return size;
+        } else if (value.hasBs()) {
+            long size = 0;
+            for (SdkBytes b : value.bs()) {
+                size += b.asByteArrayUnsafe().length;
+            }
+            return size;
+        }
+        return 0;
+    }
+
+    /** Write capacity units of a standard write of the item */
+    public static long writeUnits(Map<String, AttributeValue> item) {
+        return units(itemSize(item), WRITE_UNIT_SIZE);
+    }
+
+    /** Read capacity units of a strongly consistent read of the item, half for an eventually consistent read */
+    public static long readUnits(Map<String, AttributeValue> item) {
+        return units(itemSize(item), READ_UNIT_SIZE);
+    }
+
+    private static long units(long size, int unitSize) {
+        return Math.max(1, (size + unitSize - 1) / unitSize);
+    }
+
+    // leading and trailing zeros are not stored
+    static int numberSize(String number) {
+        int first = -1;
+        int last = -1;
+        for (int i = 0; i < number.length(); i++) {
+            char c = number.charAt(i);
+            if (c == 'e' || c == 'E') {
+                break;
+            }
+            if (c >= '1' && c <= '9') {
+                if (first < 0) {
+                    first = i;
+                }
+                last = i;
+            }
+        }
+        int digits = 0;
+        for (int i = first; first >= 0 && i <= last; i++) {
+            if (number.charAt(i) != '.') {
+                digits++;
+            }
+        }
+        return (Math.max(1, digits) + 1) / 2 + 1;
+    }
+
+    static int utf8Length(String s) {
+        int length = s.length();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (Character.isSurrogate(c)) {
+                // a surrogate pair is 4 bytes
+                length++;
+            } else if (c >= 0x800) {
+                length += 2;
+            } else if (c >= 0x80) {
+                length++;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Returns the item with the attributes whose compression reduces the billed units replaced by compressed B values and listed in the marker attribute. The item is returned as is when compression does not
+     * save a unit.
+     */
+    public Map<String, AttributeValue> encode(Map<String, AttributeValue> item) {
+        return encode(item, Collections.emptySet());
+    }
+
+    /** Like encode, also leaving the excluded attributes plain */
+    Map<String, AttributeValue> encode(Map<String, AttributeValue> item, Set<String> excludedAttributes) {
+        if (item.containsKey(markerAttribute)) {
+            throw new IllegalArgumentException("Item already has the marker attribute " + markerAttribute);
+        }
+        long size = itemSize(item);
+        List<Candidate> candidates = new ArrayList<>();
+        for (Map.Entry<String, AttributeValue> attribute : item.entrySet()) {
+            if (keyAttributes.contains(attribute.getKey()) || excludedAttributes.contains(attribute.getKey())) {
+                continue;
+            }
+            long plainSize = attributeSize(attribute.getValue());
+            if (plainSize < minAttributeSize) {
+                continue;
+            }
+            byte[] compressed = compress(attribute.getValue());
+            // the name is stored again in the marker
+            long saving = plainSize - compressed.length - utf8Length(attribute.getKey());
+            if (saving > 0) {
+                candidates.add(new Candidate(attribute.getKey(), compressed, saving));
+            }
+        }
+        if (candidates.isEmpty()) {
+            return item;
+        }
+        long markerSize = utf8Length(markerAttribute);
+        long minimumSize = size + markerSize;
+        for (Candidate candidate : candidates) {
+            minimumSize -= candidate.saving;
+        }
+        long minimumUnits = units(minimumSize, unitSize);
+        if (minimumUnits >= units(size, unitSize)) {
+            return item;
+        }
+        candidates.sort((a, b) -> Long.compare(b.saving, a.saving));
+        Map<String, AttributeValue> encoded = new LinkedHashMap<>(item);
+        List<String> compressed = new ArrayList<>();
+        size += markerSize;
+        for (Candidate candidate : candidates) {
+            encoded.put(candidate.name, AttributeValue.builder().b(SdkBytes.fromByteArrayUnsafe(candidate.compressed)).build());
+            compressed.add(candidate.name);
+            size -= candidate.saving;
+            if (units(size, unitSize) == minimumUnits) {
+                break;
+            }
+        }
+        encoded.put(markerAttribute, AttributeValue.builder().ss(compressed).build());
+        return encoded;
+    }
+
+    /**
+     * Restores the attributes listed in the marker attribute and removes the marker, returns the item as is when it has no marker.
+     */
+    public Map<String, AttributeValue> decode(Map<String, AttributeValue> item) {
+        AttributeValue marker = item.get(markerAttribute);
+        if (marker == null) {
+            return item;
+        }
+        if (!marker.hasSs()) {
+            throw new IllegalArgumentException("Marker attribute " + markerAttribute + " is not a string set");
+        }
+        Map<String, AttributeValue> decoded = new HashMap<>(item);
+        decoded.remove(markerAttribute);
+        for (String name : marker.ss()) {
+            AttributeValue value = item.get(name);
+            if (value == null || value.b() == null) {
+                throw new IllegalArgumentException("Compressed attribute " + name + " is not binary");
+            }
+            decoded.put(name, decompress(value.b().asByteArrayUnsafe()));
+        }
+        return decoded;
+    }
+
+    private byte[] compress(AttributeValue value) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(256);
+        try (JsonGenerator generator = DynamoDBUtil.JSON_GENERATOR_FACTORY.createGenerator(codec.compressingStream(outputStream))) {
+            DynamoDBUtil.writeTyped(value, generator);
+        }
+        return outputStream.toByteArray();
+    }
+
+    private AttributeValue decompress(byte[] compressed) {
+        try (InputStream is = codec.decompressingStream(compressed); JsonParser parser = DynamoDBUtil.JSON_PARSER_FACTORY.createParser(is)) {
+            parser.next();
+            return DynamoDBUtil.readTyped(parser);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static class Candidate {
+        final String name;
+        final byte[] compressed;
+        final long saving;
+
+        Candidate(String name, byte[] compressed, long saving) {
+            this.name = name;
+            this.compressed = compressed;
+            this.saving = saving;
+        }
+    }
+
+    public static class Builder {
+        CapacityEncoder encoder = new CapacityEncoder();
+
+        public CapacityEncoder build() {
+            return encoder;
+        }
+
+        /**
+         * Codec used for the compressed attributes, it may have a dictionary.
+         */
+        public Builder codec(CompressionCodec codec) {
+            encoder.codec = codec;
+            return this;
+        }
+
+        /**
+         * Attributes that are never compressed: the table and index keys and attributes used in condition or filter expressions.
+         */
+        public Builder keyAttributes(String... keyAttributes) {
+            encoder.keyAttributes = new HashSet<>(Arrays.asList(keyAttributes));
+            return this;
+        }
+
+        /**
+         * String set attribute listing the compressed attributes, _compressed by default. It must not be used by the items.
+         */
+        public Builder markerAttribute(String markerAttribute) {
+            encoder.markerAttribute = markerAttribute;
+            return this;
+        }
+
+        /**
+         * Optimizes for WRITE_UNIT_SIZE (1 KB, the default) or READ_UNIT_SIZE (4 KB) units.
+         */
+        public Builder unitSize(int unitSize) {
+            encoder.unitSize = unitSize;
+            return this;
+        }
+
+        /**
+         * Attributes smaller than this are not compressed, 128 bytes by default.
+         */
+        public Builder minAttributeSize(int minAttributeSize) {
+            encoder.minAttributeSize = minAttributeSize;
+            return this;
+        }
+    }
+
+}
@@ -0,0 +1,44 @@
+/**
+ * Token bucket limiting the DynamoDB capacity units consumed per second by the threads sharing it. The cost of a request is only known from its ConsumedCapacity, so callers pay after each request and the
+ * debt delays their next request. The bucket holds at most one second of capacity.
+ */
+public class CapacityRateLimiter {
+
+    private final double unitsPerSecond;
+    private double available;
+    private long lastRefill = System.nanoTime();
+
+    private CapacityRateLimiter(double unitsPerSecond) {
+        this.unitsPerSecond = unitsPerSecond;
+        this.available = unitsPerSecond;
+    }
+
+    public static CapacityRateLimiter create(double unitsPerSecond) {
+        if (unitsPerSecond <= 0) {
+            throw new IllegalArgumentException("unitsPerSecond must be positive");
+        }
+        return new CapacityRateLimiter(unitsPerSecond);
+    }
+
+    /**
+     * Records consumed units and blocks while the bucket is in debt.
+     */
+    public void consume(double units) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            available = Math.min(unitsPerSecond, available + (now - lastRefill) / 1_000_000_000.0 * unitsPerSecond);
+            lastRefill = now;
+            available -= units;
+            waitNanos = available < 0 ? (long) (-available / unitsPerSecond * 1_000_000_000L) : 0;
+        }
+        if (waitNanos > 0) {
+            Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+        }
+    }
+
+    public double unitsPerSecond() {
+        return unitsPerSecond;
+    }
+
+}
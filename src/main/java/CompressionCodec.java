@@ -0,0 +1,263 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * zlib codec used by DynamoDBUtil.compress and decompress. Deflaters and Inflaters hold native memory until end() is called, so they are kept in a bounded pool, reset between uses and ended when the pool is
+ * full instead of being left to finalization.
+ * <p>
+ * With a CompressionDictionary the output starts with a 6 byte header: a magic byte (never a valid zlib first byte), the codec id and the 4 byte dictionary id, followed by the zlib stream. Values without the
+ * header are plain zlib streams, as written by earlier versions and by codecs without a dictionary, and always decode.
+ */
+public class CompressionCodec {
+
+    public static final CompressionCodec DEFAULT = builder().build();
+
+    private static final int MAX_BUFFER_SIZE = 64 * 1024;
+
+    static final int HEADER_MAGIC = 0xDD;
+    static final int HEADER_SIZE = 6;
+    /** zlib stream with a preset dictionary */
+    static final int CODEC_DEFLATE_DICTIONARY = 1;
+
+    private int level = Deflater.DEFAULT_COMPRESSION;
+    private int poolSize = Runtime.getRuntime().availableProcessors() * 2;
+    private CompressionDictionary dictionary;
+    private final Map<Integer, CompressionDictionary> dictionaries = new HashMap<>();
+    private BlockingQueue<Deflater> deflaters;
+    private BlockingQueue<Inflater> inflaters;
+
+    private CompressionCodec() {
+
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns a stream compressing everything written to it into out. Closing it finishes the zlib stream, closes out and returns the Deflater to the pool.
+     */
+    public OutputStream compressingStream(OutputStream out) {
+        Deflater deflater = acquireDeflater();
+        if (dictionary != null) {
+            try {
+                int id = dictionary.id();
+                out.write(new byte[] { (byte) HEADER_MAGIC, CODEC_DEFLATE_DICTIONARY, (byte) (id >>> 24), (byte) (id >>> 16), (byte) (id >>> 8), (byte) id });
+            } catch (IOException e) {
+                release(deflater);
+                throw new UncheckedIOException(e);
+            }
+            deflater.setDictionary(dictionary.bytesUnsafe());
+        }
+        return new PooledDeflaterOutputStream(out, deflater);
+    }
+
+    /**
+     * Returns a stream decompressing in. Closing it closes in and returns the Inflater to the pool.
+     *
+     * @param compressedLength size of the compressed data if known, used to size the read buffer
+     */
+    public InputStream decompressingStream(InputStream in, int compressedLength) {
+        return new PooledInflaterInputStream(new PushbackInputStream(in, HEADER_SIZE), acquireInflater(), bufferSize(compressedLength));
+    }
+
+    public InputStream decompressingStream(byte[] compressed) {
+        return decompressingStream(new ByteArrayInputStream(compressed), compressed.length);
+    }
+
+    public byte[] compress(byte[] input) {
+        // zlib compressBound, an incompressible input fits in a single deflate call
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(input.length + (input.length >> 12) + (input.length >> 14) + (input.length >> 25) + 13);
+        try (OutputStream os = compressingStream(outputStream)) {
+            os.write(input);
+        } catch (IOException e) {
+            // not thrown by ByteArrayOutputStream
+            throw new IllegalStateException(e);
+        }
+        return outputStream.toByteArray();
+    }
+
+    public byte[] decompress(byte[] compressed) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(compressed.length * 4);
+        try (InputStream is = decompressingStream(compressed)) {
+            byte[] buffer = new byte[bufferSize(compressed.length * 4)];
+            int count;
+            while ((count = is.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, count);
+            }
+        }
+        return outputStream.toByteArray();
+    }
+
+    private static int bufferSize(int length) {
+        return Math.max(512, Math.min(length, MAX_BUFFER_SIZE));
+    }
+
+    private Deflater acquireDeflater() {
+        Deflater deflater = deflaters.poll();
+        return deflater != null ? deflater : new Deflater(level);
+    }
+
+    private void release(Deflater deflater) {
+        deflater.reset();
+        if (!deflaters.offer(deflater)) {
+            deflater.end();
+        }
+    }
+
+    private Inflater acquireInflater() {
+        Inflater inflater = inflaters.poll();
+        return inflater != null ? inflater : new Inflater();
+    }
+
+    private void release(Inflater inflater) {
+        inflater.reset();
+        if (!inflaters.offer(inflater)) {
+            inflater.end();
+        }
+    }
+
+    // a Deflater passed to the constructor is not ended by DeflaterOutputStream.close
+    private class PooledDeflaterOutputStream extends DeflaterOutputStream {
+        private boolean closed;
+
+        PooledDeflaterOutputStream(OutputStream out, Deflater deflater) {
+            super(out, deflater, 8192);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                super.close();
+            } finally {
+                release(def);
+            }
+        }
+    }
+
+    private class PooledInflaterInputStream extends InflaterInputStream {
+        private boolean closed;
+        private boolean headerRead;
+        private byte[] presetDictionary;
+
+        PooledInflaterInputStream(PushbackInputStream in, Inflater inflater, int size) {
+            super(in, inflater, size);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (!headerRead) {
+                readHeader();
+            }
+            int count = super.read(b, off, len);
+            // InflaterInputStream reports end of stream when the Inflater asks for the dictionary
+            if (count == -1 && presetDictionary != null && inf.needsDictionary()) {
+                inf.setDictionary(presetDictionary);
+                presetDictionary = null;
+                count = super.read(b, off, len);
+            }
+            return count;
+        }
+
+        private void readHeader() throws IOException {
+            headerRead = true;
+            byte[] header = new byte[HEADER_SIZE];
+            int length = 0;
+            int count;
+            while (length < HEADER_SIZE && (count = in.read(header, length, HEADER_SIZE - length)) != -1) {
+                length += count;
+            }
+            if (length < HEADER_SIZE || (header[0] & 0xFF) != HEADER_MAGIC) {
+                // plain zlib stream
+                ((PushbackInputStream) in).unread(header, 0, length);
+                return;
+            }
+            if (header[1] != CODEC_DEFLATE_DICTIONARY) {
+                throw new ZipException("Unsupported compression codec " + header[1]);
+            }
+            int id = ((header[2] & 0xFF) << 24) | ((header[3] & 0xFF) << 16) | ((header[4] & 0xFF) << 8) | (header[5] & 0xFF);
+            CompressionDictionary dictionary = dictionaries.get(id);
+            if (dictionary == null) {
+                throw new ZipException("Unknown compression dictionary " + id);
+            }
+            presetDictionary = dictionary.bytesUnsafe();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                super.close();
+            } finally {
+                release(inf);
+            }
+        }
+    }
+
+    public static class Builder {
+        CompressionCodec codec = new CompressionCodec();
+
+        public CompressionCodec build() {
+            codec.deflaters = new ArrayBlockingQueue<>(Math.max(1, codec.poolSize));
+            codec.inflaters = new ArrayBlockingQueue<>(Math.max(1, codec.poolSize));
+            return codec;
+        }
+
+        /**
+         * zlib level from 1 (fastest) to 9 (smallest), Deflater.DEFAULT_COMPRESSION (6) by default.
+         */
+        public Builder level(int level) {
+            codec.level = level;
+            return this;
+        }
+
+        /**
+         * Preset dictionary used to compress, and to decompress the values written with it.
+         */
+        public Builder dictionary(CompressionDictionary dictionary) {
+            codec.dictionary = dictionary;
+            codec.dictionaries.put(dictionary.id(), dictionary);
+            return this;
+        }
+
+        /**
+         * Dictionaries that are no longer used to compress but still needed to decompress older values.
+         */
+        public Builder previousDictionaries(CompressionDictionary... dictionaries) {
+            for (CompressionDictionary dictionary : dictionaries) {
+                codec.dictionaries.putIfAbsent(dictionary.id(), dictionary);
+            }
+            return this;
+        }
+
+        /**
+         * Maximum number of idle Deflaters and Inflaters kept for reuse, twice the number of processors by default.
+         */
+        public Builder poolSize(int poolSize) {
+            codec.poolSize = poolSize;
+            return this;
+        }
+    }
+
+}
@@ -0,0 +1,130 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+/**
+ * Preset dictionary for CompressionCodec. Small JSON items sharing the same keys and common values barely compress on their own, with a dictionary of those shared strings the deflater can reference them from
+ * the first byte. The id is written in the header of every value compressed with the dictionary so older values still decode after the dictionary is rotated, keep the bytes of every id in use.
+ */
+public class CompressionDictionary {
+
+    // deflate can only reference the last 32 KiB
+    public static final int MAX_SIZE = 32 * 1024;
+
+    private static final int GRAM = 8;
+
+    private final int id;
+    private final byte[] bytes;
+
+    private CompressionDictionary(int id, byte[] bytes) {
+        this.id = id;
+        this.bytes = bytes;
+    }
+
+    public static CompressionDictionary of(int id, byte[] bytes) {
+        if (id <= 0) {
+            throw new IllegalArgumentException("dictionary id must be positive");
+        }
+        return new CompressionDictionary(id, bytes);
+    }
+
+    /**
+     * Trains a dictionary from representative items serialized as DynamoDBUtil.compress does.
+     */
+    public static CompressionDictionary trainFromItems(int id, Collection<Map<String, AttributeValue>> items, int maxSize) {
+        List<byte[]> samples = new ArrayList<>(items.size());
+        for (Map<String, AttributeValue> item : items) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            DynamoDBUtil.toJson(item, outputStream);
+            samples.add(outputStream.toByteArray());
+        }
+        return train(id, samples, maxSize);
+    }
+
+    /**
+     * Builds a dictionary from the byte sequences that occur in the most samples. Every 8 byte sequence is counted once per sample, runs of sequences shared by at least two samples (or every sample when there is
+     * only one) become candidate segments, and the segments with the highest total count are kept, the most frequent at the end of the dictionary where deflate references are the cheapest.
+     */
+    public static CompressionDictionary train(int id, Collection<byte[]> samples, int maxSize) {
+        maxSize = Math.min(maxSize, MAX_SIZE);
+        // sample frequency of every gram, Latin-1 maps each byte to one char
+        Map<String, Integer> frequency = new HashMap<>();
+        List<String> texts = new ArrayList<>(samples.size());
+        for (byte[] sample : samples) {
+            String text = new String(sample, StandardCharsets.ISO_8859_1);
+            texts.add(text);
+            Set<String> seen = new HashSet<>();
+            for (int i = 0; i + GRAM <= text.length(); i++) {
+                String gram = text.substring(i, i + GRAM);
+                if (seen.add(gram)) {
+                    frequency.merge(gram, 1, Integer::sum);
+                }
+            }
+        }
+        int threshold = Math.min(2, samples.size());
+        Map<String, Long> segments = new HashMap<>();
+        for (String text : texts) {
+            int start = -1;
+            long score = 0;
+            for (int i = 0; i + GRAM <= text.length() + 1; i++) {
+                int count = i + GRAM <= text.length() ? frequency.get(text.substring(i, i + GRAM)) : 0;
+                if (count >= threshold) {
+                    if (start < 0) {
+                        start = i;
+                        score = 0;
+                    }
+                    score += count;
+                } else if (start >= 0) {
+                    // the run covers the grams starting at start..i-1
+                    segments.merge(text.substring(start, i - 1 + GRAM), score, Math::max);
+                    start = -1;
+                }
+            }
+        }
+        List<Map.Entry<String, Long>> ranked = new ArrayList<>(segments.entrySet());
+        ranked.sort(Map.Entry.<String, Long> comparingByValue().reversed());
+        List<String> selected = new ArrayList<>();
+        StringBuilder all = new StringBuilder();
+        int size = 0;
+        for (Map.Entry<String, Long> segment : ranked) {
+            String value = segment.getKey();
+            if (size + value.length() > maxSize) {
+                continue;
+            }
+            // skip segments already contained in a better one
+            if (all.indexOf(value) >= 0) {
+                continue;
+            }
+            selected.add(value);
+            all.append(value).append('\u0000');
+            size += value.length();
+        }
+        Collections.reverse(selected);
+        StringBuilder dictionary = new StringBuilder(size);
+        selected.forEach(dictionary::append);
+        return new CompressionDictionary(id, dictionary.toString().getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    public int id() {
+        return id;
+    }
+
+    /** The dictionary content, to be stored alongside its id */
+    public byte[] bytes() {
+        return bytes.clone();
+    }
+
+    byte[] bytesUnsafe() {
+        return bytes;
+    }
+
+}
@@ -0,0 +1,342 @@
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.DataKeySpec;
+import software.amazon.awssdk.services.kms.model.DecryptRequest;
+import software.amazon.awssdk.services.kms.model.DecryptResponse;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyRequest;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyResponse;
+import software.amazon.awssdk.utils.ThreadFactoryBuilder;
+
+/**
+ * Data key cache for KMSUtil, modeled on the caching cryptographic materials manager of the AWS Encryption SDK. The key of one GenerateDataKey call encrypts messages until it is older than the TTL or has been
+ * used maxUses times, a replacement is generated in the background shortly before either limit so encrypting threads do not wait on KMS. Every ciphertext carries the encrypted data key; decryption keys are
+ * cached by it, so KMS Decrypt is only called once per key and TTL and concurrent misses for the same key share one call. At most maxEntries decryption keys are kept, the oldest is evicted first.
+ *
+ * <pre>
+ * KMSUtil.initialize(DataKeyCache.builder().kmsClient(kmsClient).keyId("alias/app").ttl(Duration.ofMinutes(5)).build());
+ * </pre>
+ */
+public class DataKeyCache implements AutoCloseable {
+
+    private KmsClient kmsClient;
+    private String keyId;
+    private Map<String, String> encryptionContext = Collections.emptyMap();
+    private int maxEntries = 100;
+    private long ttlNanos = Duration.ofMinutes(5).toNanos();
+    private long maxUses = 1L << 32;
+    private long refreshAheadNanos = Duration.ofSeconds(30).toNanos();
+    private Executor executor;
+    private ExecutorService ownedExecutor;
+
+    private volatile DataKey encryptionKey;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private final Map<ByteBuffer, DataKey> keys = new ConcurrentHashMap<>();
+    private final Map<ByteBuffer, CompletableFuture<DataKey>> loading = new ConcurrentHashMap<>();
+
+    private final LongAdder generateCalls = new LongAdder();
+    private final LongAdder decryptCalls = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+
+    private DataKeyCache() {
+
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Current key for encrypting a message, generated with KMS when none is usable.
+     */
+    public DataKey encryptionKey() {
+        DataKey key = encryptionKey;
+        if (key != null) {
+            long uses = key.uses.incrementAndGet();
+            long now = System.nanoTime();
+            if (uses <= maxUses && now - key.expires < 0) {
+                if ((now - key.refreshAt >= 0 || uses >= key.refreshUses) && refreshing.compareAndSet(false, true)) {
+                    executor.execute(this::refresh);
+                }
+                return key;
+            }
+        }
+        return replace(key);
+    }
+
+    private synchronized DataKey replace(DataKey exhausted) {
+        if (encryptionKey != exhausted) {
+            // replaced by another thread or the background refresh
+            return encryptionKey();
+        }
+        DataKey key = generate();
+        key.uses.set(1);
+        encryptionKey = key;
+        return key;
+    }
+
+    private void refresh() {
+        try {
+            DataKey key = generate();
+            synchronized (this) {
+                encryptionKey = key;
+            }
+        } catch (RuntimeException e) {
+            // the encrypting threads generate the key themselves once the current one is exhausted
+        } finally {
+            refreshing.set(false);
+        }
+    }
+
+    private DataKey generate() {
+        generateCalls.increment();
+        GenerateDataKeyResponse response = kmsClient.generateDataKey(GenerateDataKeyRequest.builder().keyId(keyId).keySpec(DataKeySpec.AES_256).encryptionContext(encryptionContext).build());
+        DataKey key = new DataKey(new SecretKeySpec(response.plaintext().asByteArrayUnsafe(), "AES"), response.ciphertextBlob().asByteArray());
+        // messages encrypted by this process are decrypted without KMS
+        put(key);
+        return key;
+    }
+
+    /**
+     * Key for decrypting a message, the encrypted data key is the range of the array.
+     */
+    public DataKey decryptionKey(byte[] encryptedKey, int offset, int length) {
+        DataKey key = keys.get(ByteBuffer.wrap(encryptedKey, offset, length));
+        if (key != null) {
+            long now = System.nanoTime();
+            if (now - key.expires < 0) {
+                hits.increment();
+                if (now - key.refreshAt >= 0 && key.refreshing.compareAndSet(false, true)) {
+                    executor.execute(() -> {
+                        try {
+                            load(key.encryptedKey);
+                        } catch (RuntimeException e) {
+                            // loaded again on use once expired
+                        }
+                    });
+                }
+                return key;
+            }
+        }
+        return load(Arrays.copyOfRange(encryptedKey, offset, offset + length));
+    }
+
+    public DataKey decryptionKey(byte[] encryptedKey) {
+        return decryptionKey(encryptedKey, 0, encryptedKey.length);
+    }
+
+    private DataKey load(byte[] encryptedKey) {
+        ByteBuffer reference = ByteBuffer.wrap(encryptedKey);
+        CompletableFuture<DataKey> load = new CompletableFuture<>();
+        CompletableFuture<DataKey> existing = loading.putIfAbsent(reference, load);
+        if (existing != null) {
+            // another caller is already decrypting this key
+            hits.increment();
+            return join(existing);
+        }
+        try {
+            decryptCalls.increment();
+            DecryptResponse response = kmsClient.decrypt(DecryptRequest.builder().ciphertextBlob(SdkBytes.fromByteArrayUnsafe(encryptedKey)).encryptionContext(encryptionContext).build());
+            DataKey key = new DataKey(new SecretKeySpec(response.plaintext().asByteArrayUnsafe(), "AES"), encryptedKey);
+            put(key);
+            load.complete(key);
+            return key;
+        } catch (RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(reference, load);
+        }
+    }
+
+    private static DataKey join(CompletableFuture<DataKey> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private void put(DataKey key) {
+        keys.put(ByteBuffer.wrap(key.encryptedKey), key);
+        if (keys.size() > maxEntries) {
+            long now = System.nanoTime();
+            Map.Entry<ByteBuffer, DataKey> oldest = null;
+            Iterator<Map.Entry<ByteBuffer, DataKey>> entries = keys.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<ByteBuffer, DataKey> entry = entries.next();
+                if (now - entry.getValue().expires >= 0) {
+                    entries.remove();
+                } else if (oldest == null || entry.getValue().expires - oldest.getValue().expires < 0) {
+                    oldest = entry;
+                }
+            }
+            if (keys.size() > maxEntries && oldest != null) {
+                keys.remove(oldest.getKey(), oldest.getValue());
+            }
+        }
+    }
+
+    /** Drops all keys, the next message is encrypted with a new data key */
+    public synchronized void clear() {
+        encryptionKey = null;
+        keys.clear();
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    /** GenerateDataKey calls, including background refreshes */
+    public long generateCalls() {
+        return generateCalls.sum();
+    }
+
+    /** KMS Decrypt calls for keys that were not cached */
+    public long decryptCalls() {
+        return decryptCalls.sum();
+    }
+
+    /** Decryption keys served from the cache, including callers that waited for a concurrent Decrypt of the same key */
+    public long hits() {
+        return hits.sum();
+    }
+
+    @Override
+    public void close() {
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdownNow();
+        }
+    }
+
+    /** Plaintext data key with the encrypted copy that is stored in each ciphertext */
+    public final class DataKey {
+        private final SecretKey key;
+        private final byte[] encryptedKey;
+        private final long expires;
+        private final long refreshAt;
+        private final long refreshUses;
+        private final AtomicLong uses = new AtomicLong();
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        private DataKey(SecretKey key, byte[] encryptedKey) {
+            this.key = key;
+            this.encryptedKey = encryptedKey;
+            long now = System.nanoTime();
+            this.expires = now + ttlNanos;
+            this.refreshAt = expires - Math.min(refreshAheadNanos, ttlNanos / 2);
+            this.refreshUses = maxUses - maxUses / 10;
+        }
+
+        public SecretKey key() {
+            return key;
+        }
+
+        public byte[] encryptedKey() {
+            return encryptedKey.clone();
+        }
+
+        /** Not copied, must not be modified */
+        byte[] encryptedKeyUnsafe() {
+            return encryptedKey;
+        }
+    }
+
+    public static class Builder {
+        DataKeyCache cache = new DataKeyCache();
+
+        public DataKeyCache build() {
+            if (cache.kmsClient == null) {
+                throw new IllegalStateException("kmsClient is required");
+            }
+            if (cache.executor == null) {
+                cache.ownedExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().threadNamePrefix("data-key-refresh").daemonThreads(true).build());
+                cache.executor = cache.ownedExecutor;
+            }
+            return cache;
+        }
+
+        public Builder kmsClient(KmsClient kmsClient) {
+            cache.kmsClient = kmsClient;
+            return this;
+        }
+
+        /**
+         * KMS key used to generate data keys, required for encryption.
+         */
+        public Builder keyId(String keyId) {
+            cache.keyId = keyId;
+            return this;
+        }
+
+        /**
+         * Encryption context passed to GenerateDataKey and Decrypt.
+         */
+        public Builder encryptionContext(Map<String, String> encryptionContext) {
+            cache.encryptionContext = encryptionContext;
+            return this;
+        }
+
+        /**
+         * Maximum number of cached decryption keys, 100 by default.
+         */
+        public Builder maxEntries(int maxEntries) {
+            cache.maxEntries = maxEntries;
+            return this;
+        }
+
+        /**
+         * How long a data key is used, 5 minutes by default.
+         */
+        public Builder ttl(Duration ttl) {
+            cache.ttlNanos = ttl.toNanos();
+            return this;
+        }
+
+        /**
+         * Number of messages encrypted with one data key, 2^32 by default.
+         */
+        public Builder maxUses(long maxUses) {
+            cache.maxUses = maxUses;
+            return this;
+        }
+
+        /**
+         * How long before the TTL a key is replaced in the background, 30 seconds by default and at most half the TTL. Keys are also replaced after 90% of maxUses.
+         */
+        public Builder refreshAhead(Duration refreshAhead) {
+            cache.refreshAheadNanos = refreshAhead.toNanos();
+            return this;
+        }
+
+        /**
+         * Executor for background refreshes, a single daemon thread owned by the cache by default.
+         */
+        public Builder executor(Executor executor) {
+            cache.executor = executor;
+            return this;
+        }
+    }
+
+}
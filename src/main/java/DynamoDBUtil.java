@@ -1,14 +1,18 @@
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.zip.DataFormatException;
-import java.util.zip.Deflater;
-import java.util.zip.Inflater;
 
 import javax.json.Json;
 import javax.json.JsonArray;
@@ -16,9 +20,18 @@ import javax.json.JsonArrayBuilder;
 import javax.json.JsonNumber;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
+import javax.json.JsonReader;
+import javax.json.JsonReaderFactory;
 import javax.json.JsonString;
 import javax.json.JsonStructure;
 import javax.json.JsonValue;
+import javax.json.JsonWriter;
+import javax.json.JsonWriterFactory;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonGeneratorFactory;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParserFactory;
+import javax.json.stream.JsonParsingException;
 
 import software.amazon.awssdk.core.SdkBytes;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
@@ -26,6 +39,12 @@ import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
 /** This is a utility for converting DynamoDB AttributeValues to and from Java JSON-P objects */
 public class DynamoDBUtil {
 
+    // the Json.create* methods look up the provider on every call
+    static final JsonGeneratorFactory JSON_GENERATOR_FACTORY = Json.createGeneratorFactory(Collections.emptyMap());
+    static final JsonParserFactory JSON_PARSER_FACTORY = Json.createParserFactory(Collections.emptyMap());
+    static final JsonReaderFactory JSON_READER_FACTORY = Json.createReaderFactory(Collections.emptyMap());
+    static final JsonWriterFactory JSON_WRITER_FACTORY = Json.createWriterFactory(Collections.emptyMap());
+
     public static void addList(String key, JsonObjectBuilder objectBuilder, List<JsonObject> items) {
         if (!items.isEmpty()) {
             JsonArrayBuilder builder = Json.createArrayBuilder();
@@ -46,6 +65,20 @@ public class DynamoDBUtil {
         return valueBuilder.build();
     }
 
+    /**
+     * Returns a JsonObject view converting each attribute only when it is read, see AttributeValueJson.
+     */
+    public static JsonObject asJson(Map<String, AttributeValue> attributeValues) {
+        return attributeValues != null ? AttributeValueJson.of(attributeValues) : null;
+    }
+
+    public static JsonArray asJson(List<AttributeValue> attributeValues) {
+        return attributeValues != null ? AttributeValueJson.of(attributeValues) : null;
+    }
+
+    /**
+     * Builds a JsonObject of the item. String and number sets are left out, empty maps and lists and B, BS and NULL values become null. toJson(Map, JsonGenerator) streams the same JSON.
+     */
     public static JsonObject toJson(Map<String, AttributeValue> attributeValues) {
         if (attributeValues == null) {
             return null;
@@ -176,49 +209,400 @@ public class DynamoDBUtil {
         return null;
     }
 
+    /**
+     * Writes the item as a JSON object straight to the generator, without building a JsonObject first. The JSON is the one of toJson(Map): string and number sets are left out, empty maps and lists and B,
+     * BS and NULL values are written as null. See toJsonWithSets to keep the sets.
+     */
+    public static void toJson(Map<String, AttributeValue> attributeValues, JsonGenerator generator) {
+        writeObject(attributeValues, generator, false);
+    }
+
+    public static void toJson(List<AttributeValue> attributeValues, JsonGenerator generator) {
+        writeArray(attributeValues, generator, false);
+    }
+
+    /**
+     * Writes the item as UTF-8 JSON to the stream, which is left open.
+     */
+    public static void toJson(Map<String, AttributeValue> attributeValues, OutputStream outputStream) {
+        JsonGenerator generator = JSON_GENERATOR_FACTORY.createGenerator(new NonClosingOutputStream(outputStream));
+        writeObject(attributeValues, generator, false);
+        generator.close();
+    }
+
+    /**
+     * Like toJson(Map, JsonGenerator), but string and number sets are written as arrays and empty maps and lists as {} and []. B, BS and NULL values are still written as null.
+     */
+    public static void toJsonWithSets(Map<String, AttributeValue> attributeValues, JsonGenerator generator) {
+        writeObject(attributeValues, generator, true);
+    }
+
+    /**
+     * Writes the item as UTF-8 JSON with its sets to the stream, which is left open, see toJsonWithSets(Map, JsonGenerator).
+     */
+    public static void toJsonWithSets(Map<String, AttributeValue> attributeValues, OutputStream outputStream) {
+        JsonGenerator generator = JSON_GENERATOR_FACTORY.createGenerator(new NonClosingOutputStream(outputStream));
+        writeObject(attributeValues, generator, true);
+        generator.close();
+    }
+
+    private static void writeObject(Map<String, AttributeValue> attributeValues, JsonGenerator generator, boolean sets) {
+        generator.writeStartObject();
+        for (Map.Entry<String, AttributeValue> a : attributeValues.entrySet()) {
+            if (sets || !isSet(a.getValue())) {
+                generator.writeKey(a.getKey());
+                write(a.getValue(), generator, sets);
+            }
+        }
+        generator.writeEnd();
+    }
+
+    private static void writeArray(List<AttributeValue> attributeValues, JsonGenerator generator, boolean sets) {
+        generator.writeStartArray();
+        for (AttributeValue a : attributeValues) {
+            if (sets || !isSet(a)) {
+                write(a, generator, sets);
+            }
+        }
+        generator.writeEnd();
+    }
+
+    // the values toJson(AttributeValue) returns as a java.util.List, which add() leaves out
+    private static boolean isSet(AttributeValue attributeValue) {
+        return attributeValue != null && attributeValue.s() == null && attributeValue.n() == null && attributeValue.bool() == null && attributeValue.b() == null && !Boolean.TRUE.equals(attributeValue.nul())
+                && attributeValue.m().isEmpty() && attributeValue.l().isEmpty() && (!attributeValue.ss().isEmpty() || !attributeValue.ns().isEmpty());
+    }
+
+    private static void write(AttributeValue attributeValue, JsonGenerator generator, boolean sets) {
+        if (attributeValue == null) {
+            generator.writeNull();
+        } else if (attributeValue.s() != null) {
+            generator.write(attributeValue.s());
+        } else if (attributeValue.n() != null) {
+            generator.write(new BigDecimal(attributeValue.n()));
+        } else if (attributeValue.bool() != null) {
+            generator.write(attributeValue.bool());
+        } else if (attributeValue.b() != null || Boolean.TRUE.equals(attributeValue.nul())) {
+            generator.writeNull();
+        } else if (sets ? attributeValue.hasM() : !attributeValue.m().isEmpty()) {
+            writeObject(attributeValue.m(), generator, sets);
+        } else if (sets ? attributeValue.hasL() : !attributeValue.l().isEmpty()) {
+            writeArray(attributeValue.l(), generator, sets);
+        } else if (sets && attributeValue.hasSs()) {
+            generator.writeStartArray();
+            attributeValue.ss().forEach(generator::write);
+            generator.writeEnd();
+        } else if (sets && attributeValue.hasNs()) {
+            generator.writeStartArray();
+            attributeValue.ns().forEach(n -> generator.write(new BigDecimal(n)));
+            generator.writeEnd();
+        } else {
+            // BS and empty maps and lists
+            generator.writeNull();
+        }
+    }
+
+    /**
+     * Reads the next JSON object of the parser straight into an item, without building a JsonObject first. Numbers keep their text representation.
+     */
+    public static Map<String, AttributeValue> toAttribute(JsonParser parser) {
+        if (!parser.hasNext() || parser.next() != JsonParser.Event.START_OBJECT) {
+            throw new JsonParsingException("Expected a JSON object", parser.getLocation());
+        }
+        return readObject(parser);
+    }
+
+    /**
+     * Reads a UTF-8 JSON object from the stream into an item. The stream is not closed.
+     */
+    public static Map<String, AttributeValue> toAttribute(InputStream inputStream) {
+        try (JsonParser parser = JSON_PARSER_FACTORY.createParser(new NonClosingInputStream(inputStream))) {
+            return toAttribute(parser);
+        }
+    }
+
+    static Map<String, AttributeValue> readObject(JsonParser parser) {
+        Map<String, AttributeValue> attribute = new HashMap<>();
+        while (parser.next() == JsonParser.Event.KEY_NAME) {
+            String key = parser.getString();
+            attribute.put(key, read(parser.next(), parser));
+        }
+        return attribute;
+    }
+
+    private static List<AttributeValue> readArray(JsonParser parser) {
+        List<AttributeValue> attributes = new ArrayList<>();
+        JsonParser.Event event;
+        while ((event = parser.next()) != JsonParser.Event.END_ARRAY) {
+            attributes.add(read(event, parser));
+        }
+        return attributes;
+    }
+
+    private static AttributeValue read(JsonParser.Event event, JsonParser parser) {
+        switch (event) {
+        case VALUE_STRING:
+            return AttributeValue.builder().s(parser.getString()).build();
+        case VALUE_NUMBER:
+            return AttributeValue.builder().n(parser.getString()).build();
+        case START_OBJECT:
+            return AttributeValue.builder().m(readObject(parser)).build();
+        case START_ARRAY:
+            return AttributeValue.builder().l(readArray(parser)).build();
+        case VALUE_TRUE:
+            return AttributeValue.builder().bool(true).build();
+        case VALUE_FALSE:
+            return AttributeValue.builder().bool(false).build();
+        case VALUE_NULL:
+            return AttributeValue.builder().nul(true).build();
+        default:
+            throw new JsonParsingException("Unexpected " + event, parser.getLocation());
+        }
+    }
+
+    /**
+     * Writes the item as UTF-8 DynamoDB JSON, {"name":{"S":"value"}}, to the stream, which is left open. Unlike toJson every type is kept, binary values are Base64 encoded.
+     */
+    public static void toTypedJson(Map<String, AttributeValue> attributeValues, OutputStream outputStream) {
+        JsonGenerator generator = JSON_GENERATOR_FACTORY.createGenerator(new NonClosingOutputStream(outputStream));
+        generator.writeStartObject();
+        for (Map.Entry<String, AttributeValue> a : attributeValues.entrySet()) {
+            generator.writeKey(a.getKey());
+            writeTyped(a.getValue(), generator);
+        }
+        generator.writeEnd();
+        generator.close();
+    }
+
+    /**
+     * Reads a UTF-8 DynamoDB JSON object from the stream into an item, see toTypedJson. The stream is not closed.
+     */
+    public static Map<String, AttributeValue> toTypedAttribute(InputStream inputStream) {
+        try (JsonParser parser = JSON_PARSER_FACTORY.createParser(new NonClosingInputStream(inputStream))) {
+            if (!parser.hasNext() || parser.next() != JsonParser.Event.START_OBJECT) {
+                throw new JsonParsingException("Expected a JSON object", parser.getLocation());
+            }
+            return readTypedObject(parser);
+        }
+    }
+
+    // the parser is positioned on the START_OBJECT of the item
+    static Map<String, AttributeValue> readTypedObject(JsonParser parser) {
+        Map<String, AttributeValue> attribute = new HashMap<>();
+        while (parser.next() == JsonParser.Event.KEY_NAME) {
+            String key = parser.getString();
+            if (parser.next() != JsonParser.Event.START_OBJECT) {
+                throw new JsonParsingException("Expected a typed value for " + key, parser.getLocation());
+            }
+            attribute.put(key, readTyped(parser));
+        }
+        return attribute;
+    }
+
+    // DynamoDB JSON, {"S":"value"}, {"M":{"key":{"N":"1"}}}, ...
+    static void writeTyped(AttributeValue value, JsonGenerator generator) {
+        generator.writeStartObject();
+        if (value.s() != null) {
+            generator.write("S", value.s());
+        } else if (value.n() != null) {
+            generator.write("N", value.n());
+        } else if (value.b() != null) {
+            generator.write("B", Base64.getEncoder().encodeToString(value.b().asByteArrayUnsafe()));
+        } else if (value.bool() != null) {
+            generator.write("BOOL", value.bool());
+        } else if (value.hasM()) {
+            generator.writeStartObject("M");
+            for (Map.Entry<String, AttributeValue> entry : value.m().entrySet()) {
+                generator.writeKey(entry.getKey());
+                writeTyped(entry.getValue(), generator);
+            }
+            generator.writeEnd();
+        } else if (value.hasL()) {
+            generator.writeStartArray("L");
+            value.l().forEach(element -> writeTyped(element, generator));
+            generator.writeEnd();
+        } else if (value.hasSs()) {
+            generator.writeStartArray("SS");
+            value.ss().forEach(generator::write);
+            generator.writeEnd();
+        } else if (value.hasNs()) {
+            generator.writeStartArray("NS");
+            value.ns().forEach(generator::write);
+            generator.writeEnd();
+        } else if (value.hasBs()) {
+            generator.writeStartArray("BS");
+            value.bs().forEach(b -> generator.write(Base64.getEncoder().encodeToString(b.asByteArrayUnsafe())));
+            generator.writeEnd();
+        } else {
+            generator.write("NULL", true);
+        }
+        generator.writeEnd();
+    }
+
+    // the parser is positioned on the START_OBJECT of the value
+    static AttributeValue readTyped(JsonParser parser) {
+        if (parser.next() != JsonParser.Event.KEY_NAME) {
+            throw new JsonParsingException("Expected a type", parser.getLocation());
+        }
+        String type = parser.getString();
+        JsonParser.Event event = parser.next();
+        AttributeValue value;
+        switch (type) {
+        case "S":
+            value = AttributeValue.builder().s(parser.getString()).build();
+            break;
+        case "N":
+            value = AttributeValue.builder().n(parser.getString()).build();
+            break;
+        case "B":
+            value = AttributeValue.builder().b(SdkBytes.fromByteArrayUnsafe(Base64.getDecoder().decode(parser.getString()))).build();
+            break;
+        case "BOOL":
+            value = AttributeValue.builder().bool(event == JsonParser.Event.VALUE_TRUE).build();
+            break;
+        case "NULL":
+            value = AttributeValue.builder().nul(true).build();
+            break;
+        case "M":
+            Map<String, AttributeValue> m = new HashMap<>();
+            while (parser.next() == JsonParser.Event.KEY_NAME) {
+                String key = parser.getString();
+                parser.next();
+                m.put(key, readTyped(parser));
+            }
+            value = AttributeValue.builder().m(m).build();
+            break;
+        case "L":
+            List<AttributeValue> l = new ArrayList<>();
+            while (parser.next() == JsonParser.Event.START_OBJECT) {
+                l.add(readTyped(parser));
+            }
+            value = AttributeValue.builder().l(l).build();
+            break;
+        case "SS":
+        case "NS":
+        case "BS":
+            List<String> elements = new ArrayList<>();
+            while (parser.next() != JsonParser.Event.END_ARRAY) {
+                elements.add(parser.getString());
+            }
+            if (type.equals("SS")) {
+                value = AttributeValue.builder().ss(elements).build();
+            } else if (type.equals("NS")) {
+                value = AttributeValue.builder().ns(elements).build();
+            } else {
+                List<SdkBytes> bs = new ArrayList<>(elements.size());
+                elements.forEach(e -> bs.add(SdkBytes.fromByteArrayUnsafe(Base64.getDecoder().decode(e))));
+                value = AttributeValue.builder().bs(bs).build();
+            }
+            break;
+        default:
+            throw new JsonParsingException("Unknown type " + type, parser.getLocation());
+        }
+        if (parser.next() != JsonParser.Event.END_OBJECT) {
+            throw new JsonParsingException("Expected the end of " + type, parser.getLocation());
+        }
+        return value;
+    }
+
     public static AttributeValue compress(Map<String, AttributeValue> attributeValues) throws IOException {
-        return compress(toJson(attributeValues));
+        return compress(attributeValues, CompressionCodec.DEFAULT);
+    }
+
+    /**
+     * Streams the item as JSON through the codec, without an intermediate JSON document. The JSON is the one of toJson(Map), so sets are left out.
+     */
+    public static AttributeValue compress(Map<String, AttributeValue> attributeValues, CompressionCodec codec) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(4096);
+        try (JsonGenerator generator = JSON_GENERATOR_FACTORY.createGenerator(codec.compressingStream(outputStream))) {
+            toJson(attributeValues, generator);
+        }
+        return AttributeValue.builder().b(SdkBytes.fromByteArrayUnsafe(outputStream.toByteArray())).build();
     }
 
     public static AttributeValue compress(List<AttributeValue> attributeValues) throws IOException {
-        return compress(toJson(attributeValues));
+        return compress(attributeValues, CompressionCodec.DEFAULT);
+    }
+
+    public static AttributeValue compress(List<AttributeValue> attributeValues, CompressionCodec codec) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(4096);
+        try (JsonGenerator generator = JSON_GENERATOR_FACTORY.createGenerator(codec.compressingStream(outputStream))) {
+            toJson(attributeValues, generator);
+        }
+        return AttributeValue.builder().b(SdkBytes.fromByteArrayUnsafe(outputStream.toByteArray())).build();
     }
 
     public static AttributeValue compress(JsonStructure jsonStructure) throws IOException {
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        Json.createWriter(outputStream).write(jsonStructure);
-        outputStream.close();
-        byte[] jsonBinary = outputStream.toByteArray();
+        return compress(jsonStructure, CompressionCodec.DEFAULT);
+    }
 
-        outputStream = new ByteArrayOutputStream();
-        Deflater deflater = new Deflater();
-        deflater.setInput(jsonBinary);
-        deflater.finish();
-        byte[] buffer = new byte[1024];
-        while (!deflater.finished()) {
-            int count = deflater.deflate(buffer); // returns the generated code... index
-            outputStream.write(buffer, 0, count);
+    public static AttributeValue compress(JsonStructure jsonStructure, CompressionCodec codec) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(4096);
+        try (JsonWriter writer = JSON_WRITER_FACTORY.createWriter(codec.compressingStream(outputStream))) {
+            writer.write(jsonStructure);
         }
-        outputStream.close();
-        jsonBinary = outputStream.toByteArray();
-
-        return AttributeValue.builder().b(SdkBytes.fromByteArray(jsonBinary)).build();
+        return AttributeValue.builder().b(SdkBytes.fromByteArrayUnsafe(outputStream.toByteArray())).build();
     }
 
     public static JsonStructure decompress(AttributeValue attributeValue) throws IOException, DataFormatException {
-        Inflater inflater = new Inflater();
-        byte[] jsonBinary = attributeValue.b().asByteArray();
-        inflater.setInput(jsonBinary);
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(jsonBinary.length);
-        byte[] buffer = new byte[1024];
-        while (!inflater.finished()) {
-            int count = inflater.inflate(buffer);
-            outputStream.write(buffer, 0, count);
-        }
-        outputStream.close();
-        byte[] output = outputStream.toByteArray();
-        ByteArrayInputStream bis = new ByteArrayInputStream(output);
-        return Json.createReader(bis).read();
+        return decompress(attributeValue, CompressionCodec.DEFAULT);
+    }
+
+    public static JsonStructure decompress(AttributeValue attributeValue, CompressionCodec codec) throws IOException {
+        try (JsonReader reader = JSON_READER_FACTORY.createReader(decompressingStream(attributeValue, codec))) {
+            return reader.read();
+        }
+    }
+
+    /**
+     * Returns a parser reading the compressed JSON as it is inflated. Close the parser to return the Inflater to the codec pool.
+     */
+    public static JsonParser decompressParser(AttributeValue attributeValue, CompressionCodec codec) {
+        return JSON_PARSER_FACTORY.createParser(decompressingStream(attributeValue, codec));
+    }
+
+    /**
+     * Inflates a compressed item straight into AttributeValues.
+     */
+    public static Map<String, AttributeValue> decompressItem(AttributeValue attributeValue) {
+        try (JsonParser parser = decompressParser(attributeValue, CompressionCodec.DEFAULT)) {
+            return toAttribute(parser);
+        }
+    }
+
+    // the SdkBytes array is read in place, asByteArray would copy it
+    private static InputStream decompressingStream(AttributeValue attributeValue, CompressionCodec codec) {
+        return codec.decompressingStream(attributeValue.b().asByteArrayUnsafe());
+    }
+
+    // the generator and parser release their buffers on close, the caller owns the stream
+    private static class NonClosingOutputStream extends FilterOutputStream {
+
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    private static class NonClosingInputStream extends FilterInputStream {
+
+        NonClosingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() {
+
+        }
     }
 
 }
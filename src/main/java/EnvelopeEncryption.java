@@ -0,0 +1,675 @@
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Versioned AES-GCM envelope with the encrypted data key of a DataKeyCache in the header, so any key the cache has seen or can decrypt with KMS opens the message. Two formats are written:
+ * <ul>
+ * <li>version 2, a single message: <code>[2][key length:2][encrypted data key][IV:12][cipher text + tag]</code></li>
+ * <li>version 3, segmented: <code>[3][key length:2][encrypted data key][segment size:4][nonce prefix:8]</code> followed by segments of segment size plain text bytes, the last one shorter or empty, each
+ * encrypted separately with a 16 byte tag. The nonce of a segment is the prefix followed by its index, and the header and a last segment flag are authenticated, so reordered, dropped or truncated segments
+ * fail to decrypt.</li>
+ * </ul>
+ * Segments are encrypted and decrypted on the executor, up to parallelism at a time, so large payloads use all cores with memory bounded by the segment size. Segments of a file can be decrypted individually
+ * for random access.
+ *
+ * <pre>
+ * EnvelopeEncryption envelope = EnvelopeEncryption.builder().dataKeyCache(cache).build();
+ * try (OutputStream out = envelope.encryptingStream(Files.newOutputStream(path))) {
+ *     Files.copy(source, out);
+ * }
+ * </pre>
+ */
+public class EnvelopeEncryption {
+
+    static final byte MESSAGE_VERSION = 2;
+    static final byte SEGMENTED_VERSION = 3;
+    static final int IV_LENGTH = 12;
+    static final int TAG_LENGTH = 16;
+    static final int NONCE_PREFIX_LENGTH = 8;
+
+    static final SecureRandom RANDOM = new SecureRandom();
+    // also used by ItemEncryptor
+    static final ThreadLocal<Cipher> CIPHER = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance("AES/GCM/NoPadding");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private DataKeyCache dataKeyCache;
+    private int segmentSize = 256 * 1024;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private Executor executor = ForkJoinPool.commonPool();
+
+    private EnvelopeEncryption() {
+
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    DataKeyCache dataKeyCache() {
+        return dataKeyCache;
+    }
+
+    /** Encrypts the value as a single version 2 message */
+    public byte[] encrypt(byte[] value) throws GeneralSecurityException {
+        DataKeyCache.DataKey dataKey = dataKeyCache.encryptionKey();
+        byte[] encryptedKey = dataKey.encryptedKeyUnsafe();
+        int headerLength = 3 + encryptedKey.length + IV_LENGTH;
+        byte[] encrypted = new byte[headerLength + value.length + TAG_LENGTH];
+        writeKeyReference(MESSAGE_VERSION, encryptedKey, encrypted);
+        byte[] iv = new byte[IV_LENGTH];
+        RANDOM.nextBytes(iv);
+        System.arraycopy(iv, 0, encrypted, 3 + encryptedKey.length, IV_LENGTH);
+        Cipher cipher = CIPHER.get();
+        cipher.init(Cipher.ENCRYPT_MODE, dataKey.key(), new GCMParameterSpec(TAG_LENGTH * 8, iv));
+        cipher.updateAAD(encrypted, 0, headerLength);
+        cipher.doFinal(value, 0, value.length, encrypted, headerLength);
+        return encrypted;
+    }
+
+    /** Decrypts a version 2 message or a complete version 3 segmented payload */
+    public byte[] decrypt(byte[] value) throws GeneralSecurityException {
+        if (value.length < 3) {
+            throw new GeneralSecurityException("Encrypted value is too short");
+        }
+        if (value[0] == SEGMENTED_VERSION) {
+            Header header = readHeader(value, value.length);
+            long segments = header.segments(value.length);
+            if (segments < 0) {
+                throw new GeneralSecurityException("Truncated envelope");
+            }
+            long plainLength = value.length - header.length - segments * TAG_LENGTH;
+            byte[] decrypted = new byte[(int) plainLength];
+            int inputOffset = header.length;
+            int outputOffset = 0;
+            for (int i = 0; i < segments; i++) {
+                boolean last = i == segments - 1;
+                int length = last ? value.length - inputOffset : header.segmentSize + TAG_LENGTH;
+                try {
+                    outputOffset += header.decrypt(i, last, value, inputOffset, length, decrypted, outputOffset);
+                } catch (SegmentException e) {
+                    throw (GeneralSecurityException) e.getCause();
+                }
+                inputOffset += length;
+            }
+            return decrypted;
+        }
+        if (value[0] != MESSAGE_VERSION) {
+            throw new GeneralSecurityException("Unsupported envelope version " + value[0]);
+        }
+        int keyLength = (value[1] & 0xFF) << 8 | (value[2] & 0xFF);
+        int headerLength = 3 + keyLength + IV_LENGTH;
+        if (value.length < headerLength + TAG_LENGTH) {
+            throw new GeneralSecurityException("Encrypted value is too short");
+        }
+        SecretKey key = dataKeyCache.decryptionKey(value, 3, keyLength).key();
+        Cipher cipher = CIPHER.get();
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, value, 3 + keyLength, IV_LENGTH));
+        cipher.updateAAD(value, 0, headerLength);
+        return cipher.doFinal(value, headerLength, value.length - headerLength);
+    }
+
+    /**
+     * Stream writing the version 3 format to the output stream. Full segments are encrypted in parallel, at most parallelism segments are buffered. Closing the stream writes the last segment and closes the
+     * output stream.
+     */
+    public OutputStream encryptingStream(OutputStream out) {
+        return new EncryptingOutputStream(out, newHeader());
+    }
+
+    /**
+     * Stream reading a version 3 payload, decrypting up to parallelism segments ahead. A segment that fails authentication, or a truncated payload, fails the read with an IOException.
+     */
+    public InputStream decryptingStream(InputStream in) {
+        return new DecryptingInputStream(in);
+    }
+
+    /**
+     * Encrypts the whole input channel to the output channel from position 0 in the version 3 format, splitting the segments into parallelism contiguous ranges processed concurrently. The output is
+     * truncated to the bytes written.
+     *
+     * @return the number of bytes written
+     */
+    public long encrypt(FileChannel in, FileChannel out) throws IOException {
+        Header header = newHeader();
+        long size = in.size();
+        long segments = Math.max(1, (size + segmentSize - 1) / segmentSize);
+        checkSegments(segments);
+        writeFully(out, ByteBuffer.wrap(header.bytes), 0);
+        forEachRange(segments, (first, end) -> {
+            ByteBuffer plain = ByteBuffer.allocate(segmentSize);
+            byte[] encrypted = new byte[segmentSize + TAG_LENGTH];
+            for (long i = first; i < end; i++) {
+                long position = i * segmentSize;
+                plain.clear();
+                plain.limit((int) Math.min(segmentSize, size - position));
+                readFully(in, plain, position);
+                int length = header.encrypt(i, i == segments - 1, plain.array(), plain.limit(), encrypted);
+                writeFully(out, ByteBuffer.wrap(encrypted, 0, length), header.length + i * (segmentSize + TAG_LENGTH));
+            }
+        });
+        long written = header.length + size + segments * TAG_LENGTH;
+        out.truncate(written);
+        return written;
+    }
+
+    /**
+     * Decrypts a version 3 channel to the output channel from position 0, in parallel like encrypt. The output is truncated to the bytes written.
+     *
+     * @return the number of plain text bytes written
+     */
+    public long decrypt(FileChannel in, FileChannel out) throws IOException {
+        Header header = readHeader(in);
+        long size = in.size();
+        long segments = header.segments(in);
+        forEachRange(segments, (first, end) -> {
+            ByteBuffer encrypted = ByteBuffer.allocate(header.segmentSize + TAG_LENGTH);
+            byte[] plain = new byte[header.segmentSize];
+            for (long i = first; i < end; i++) {
+                int length = readSegment(in, header, i, segments, size, encrypted);
+                int plainLength = header.decrypt(i, i == segments - 1, encrypted.array(), 0, length, plain, 0);
+                writeFully(out, ByteBuffer.wrap(plain, 0, plainLength), i * header.segmentSize);
+            }
+        });
+        long written = size - header.length - segments * TAG_LENGTH;
+        out.truncate(written);
+        return written;
+    }
+
+    /** Decrypts a single segment of a version 3 channel, the plain text starts at index * segmentSize */
+    public byte[] decryptSegment(FileChannel in, long index) throws IOException {
+        Header header = readHeader(in);
+        long size = in.size();
+        long segments = header.segments(in);
+        if (index < 0 || index >= segments) {
+            throw new IndexOutOfBoundsException("Segment " + index + " of " + segments);
+        }
+        ByteBuffer encrypted = ByteBuffer.allocate(header.segmentSize + TAG_LENGTH);
+        int length = readSegment(in, header, index, segments, size, encrypted);
+        byte[] plain = new byte[length - TAG_LENGTH];
+        header.decrypt(index, index == segments - 1, encrypted.array(), 0, length, plain, 0);
+        return plain;
+    }
+
+    private static int readSegment(FileChannel in, Header header, long index, long segments, long size, ByteBuffer encrypted) throws IOException {
+        long position = header.length + index * (header.segmentSize + TAG_LENGTH);
+        encrypted.clear();
+        encrypted.limit((int) Math.min(header.segmentSize + TAG_LENGTH, size - position));
+        readFully(in, encrypted, position);
+        return encrypted.limit();
+    }
+
+    private interface RangeTask {
+        void run(long first, long end) throws IOException;
+    }
+
+    private void forEachRange(long segments, RangeTask task) throws IOException {
+        int ranges = (int) Math.min(parallelism, segments);
+        long perRange = (segments + ranges - 1) / ranges;
+        List<CompletableFuture<Void>> futures = new ArrayList<>(ranges);
+        for (long first = 0; first < segments; first += perRange) {
+            long start = first;
+            long end = Math.min(segments, first + perRange);
+            futures.add(CompletableFuture.runAsync(() -> {
+                try {
+                    task.run(start, end);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor));
+        }
+        for (CompletableFuture<Void> future : futures) {
+            join(future);
+        }
+    }
+
+    private static <T> T join(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of file at " + position);
+            }
+            position += read;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void checkSegments(long segments) {
+        if (segments > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Payload exceeds 2^31 segments, use a larger segment size");
+        }
+    }
+
+    private static void writeKeyReference(byte version, byte[] encryptedKey, byte[] out) {
+        out[0] = version;
+        out[1] = (byte) (encryptedKey.length >>> 8);
+        out[2] = (byte) encryptedKey.length;
+        System.arraycopy(encryptedKey, 0, out, 3, encryptedKey.length);
+    }
+
+    private Header newHeader() {
+        DataKeyCache.DataKey dataKey = dataKeyCache.encryptionKey();
+        byte[] encryptedKey = dataKey.encryptedKeyUnsafe();
+        byte[] bytes = new byte[3 + encryptedKey.length + 4 + NONCE_PREFIX_LENGTH];
+        writeKeyReference(SEGMENTED_VERSION, encryptedKey, bytes);
+        ByteBuffer.wrap(bytes, 3 + encryptedKey.length, 4).putInt(segmentSize);
+        byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+        RANDOM.nextBytes(noncePrefix);
+        System.arraycopy(noncePrefix, 0, bytes, bytes.length - NONCE_PREFIX_LENGTH, NONCE_PREFIX_LENGTH);
+        return new Header(bytes, dataKey.key(), segmentSize);
+    }
+
+    private Header readHeader(byte[] value, int available) throws GeneralSecurityException {
+        if (available < 3 || value[0] != SEGMENTED_VERSION) {
+            throw new GeneralSecurityException("Not a segmented envelope");
+        }
+        int keyLength = (value[1] & 0xFF) << 8 | (value[2] & 0xFF);
+        int length = 3 + keyLength + 4 + NONCE_PREFIX_LENGTH;
+        if (available < length) {
+            throw new GeneralSecurityException("Truncated envelope header");
+        }
+        int segmentSize = ByteBuffer.wrap(value, 3 + keyLength, 4).getInt();
+        if (segmentSize <= 0) {
+            throw new GeneralSecurityException("Invalid segment size " + segmentSize);
+        }
+        SecretKey key = dataKeyCache.decryptionKey(value, 3, keyLength).key();
+        return new Header(Arrays.copyOf(value, length), key, segmentSize);
+    }
+
+    private Header readHeader(FileChannel in) throws IOException {
+        ByteBuffer prefix = ByteBuffer.allocate(3);
+        readFully(in, prefix, 0);
+        int keyLength = (prefix.get(1) & 0xFF) << 8 | (prefix.get(2) & 0xFF);
+        ByteBuffer bytes = ByteBuffer.allocate(3 + keyLength + 4 + NONCE_PREFIX_LENGTH);
+        readFully(in, bytes, 0);
+        try {
+            return readHeader(bytes.array(), bytes.capacity());
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /** Parsed version 3 header, authenticated with each segment */
+    private static final class Header {
+        final byte[] bytes;
+        final int length;
+        final SecretKey key;
+        final int segmentSize;
+
+        Header(byte[] bytes, SecretKey key, int segmentSize) {
+            this.bytes = bytes;
+            this.length = bytes.length;
+            this.key = key;
+            this.segmentSize = segmentSize;
+        }
+
+        /** Number of segments of a payload of the size, -1 when it is truncated */
+        long segments(long size) {
+            long body = size - length;
+            if (body < TAG_LENGTH) {
+                return -1;
+            }
+            long segments = (body + segmentSize + TAG_LENGTH - 1) / (segmentSize + TAG_LENGTH);
+            return body - (segments - 1) * (segmentSize + TAG_LENGTH) < TAG_LENGTH ? -1 : segments;
+        }
+
+        long segments(FileChannel in) throws IOException {
+            long segments = segments(in.size());
+            if (segments < 0) {
+                throw new EOFException("Truncated envelope");
+            }
+            return segments;
+        }
+
+        private void init(Cipher cipher, int mode, long index, boolean last) throws GeneralSecurityException {
+            byte[] nonce = new byte[IV_LENGTH];
+            System.arraycopy(bytes, length - NONCE_PREFIX_LENGTH, nonce, 0, NONCE_PREFIX_LENGTH);
+            nonce[8] = (byte) (index >>> 24);
+            nonce[9] = (byte) (index >>> 16);
+            nonce[10] = (byte) (index >>> 8);
+            nonce[11] = (byte) index;
+            cipher.init(mode, key, new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+            cipher.updateAAD(bytes);
+            cipher.updateAAD(new byte[] { (byte) (last ? 1 : 0) });
+        }
+
+        int encrypt(long index, boolean last, byte[] plain, int plainLength, byte[] encrypted) {
+            try {
+                Cipher cipher = CIPHER.get();
+                init(cipher, Cipher.ENCRYPT_MODE, index, last);
+                return cipher.doFinal(plain, 0, plainLength, encrypted, 0);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        int decrypt(long index, boolean last, byte[] encrypted, int offset, int length, byte[] plain, int plainOffset) throws SegmentException {
+            try {
+                Cipher cipher = CIPHER.get();
+                init(cipher, Cipher.DECRYPT_MODE, index, last);
+                return cipher.doFinal(encrypted, offset, length, plain, plainOffset);
+            } catch (GeneralSecurityException e) {
+                throw new SegmentException(index, e);
+            }
+        }
+    }
+
+    /** A segment failed authentication, the payload was modified, reordered or truncated */
+    public static class SegmentException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        SegmentException(long index, GeneralSecurityException cause) {
+            super("Segment " + index + " failed authentication", cause);
+        }
+    }
+
+    private final class EncryptingOutputStream extends FilterOutputStream {
+        private final Header header;
+        private final Deque<CompletableFuture<byte[]>> pending = new ArrayDeque<>();
+        private byte[] buffer = new byte[segmentSize];
+        private int position;
+        private long index;
+        private boolean headerWritten;
+        private boolean closed;
+
+        EncryptingOutputStream(OutputStream out, Header header) {
+            super(out);
+            this.header = header;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (position == buffer.length) {
+                    // only encrypted once more data shows it is not the last segment
+                    submit(false);
+                }
+                int n = Math.min(len, buffer.length - position);
+                System.arraycopy(b, off, buffer, position, n);
+                position += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void submit(boolean last) throws IOException {
+            checkSegments(index + 1);
+            byte[] plain = buffer;
+            int length = position;
+            long segment = index++;
+            pending.add(CompletableFuture.supplyAsync(() -> {
+                byte[] encrypted = new byte[length + TAG_LENGTH];
+                header.encrypt(segment, last, plain, length, encrypted);
+                return encrypted;
+            }, executor));
+            buffer = new byte[segmentSize];
+            position = 0;
+            while (pending.size() >= parallelism) {
+                writeNext();
+            }
+        }
+
+        private void writeNext() throws IOException {
+            if (!headerWritten) {
+                out.write(header.bytes);
+                headerWritten = true;
+            }
+            out.write(join(pending.poll()));
+        }
+
+        @Override
+        public void flush() throws IOException {
+            while (!pending.isEmpty()) {
+                writeNext();
+            }
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                submit(true);
+                while (!pending.isEmpty()) {
+                    writeNext();
+                }
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    private final class DecryptingInputStream extends FilterInputStream {
+        private final Deque<CompletableFuture<byte[]>> pending = new ArrayDeque<>();
+        private Header header;
+        private byte[] held;
+        private int heldLength;
+        private long index;
+        private boolean eof;
+        private byte[] current = new byte[0];
+        private int position;
+
+        DecryptingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = read(b, 0, 1);
+            return n < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (position == current.length) {
+                if (!next()) {
+                    return -1;
+                }
+            }
+            int n = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return current.length - position;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = 0;
+            while (skipped < n && read() >= 0) {
+                skipped++;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private boolean next() throws IOException {
+            if (header == null) {
+                readHeader();
+            }
+            while (!eof && pending.size() < parallelism) {
+                readSegment();
+            }
+            if (pending.isEmpty()) {
+                return false;
+            }
+            current = join(pending.poll());
+            position = 0;
+            return true;
+        }
+
+        private void readHeader() throws IOException {
+            byte[] prefix = new byte[3];
+            readFully(prefix, 0, 3);
+            int keyLength = (prefix[1] & 0xFF) << 8 | (prefix[2] & 0xFF);
+            byte[] bytes = Arrays.copyOf(prefix, 3 + keyLength + 4 + NONCE_PREFIX_LENGTH);
+            readFully(bytes, 3, bytes.length - 3);
+            try {
+                header = EnvelopeEncryption.this.readHeader(bytes, bytes.length);
+            } catch (GeneralSecurityException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            held = new byte[header.segmentSize + TAG_LENGTH];
+            heldLength = readSegmentBytes(held);
+            if (heldLength < TAG_LENGTH) {
+                throw new EOFException("Truncated envelope, no last segment");
+            }
+        }
+
+        // a segment is submitted once the following read shows whether it is the last one
+        private void readSegment() throws IOException {
+            byte[] next = new byte[header.segmentSize + TAG_LENGTH];
+            int nextLength = heldLength == held.length ? readSegmentBytes(next) : 0;
+            boolean last = nextLength == 0;
+            if (!last && nextLength < TAG_LENGTH) {
+                throw new EOFException("Truncated envelope segment");
+            }
+            checkSegments(index + 1);
+            byte[] encrypted = held;
+            int length = heldLength;
+            long segment = index++;
+            pending.add(CompletableFuture.supplyAsync(() -> {
+                byte[] plain = new byte[length - TAG_LENGTH];
+                try {
+                    header.decrypt(segment, last, encrypted, 0, length, plain, 0);
+                } catch (SegmentException e) {
+                    throw new CompletionException(e);
+                }
+                return plain;
+            }, executor));
+            held = next;
+            heldLength = nextLength;
+            eof = last;
+        }
+
+        private int readSegmentBytes(byte[] b) throws IOException {
+            int total = 0;
+            while (total < b.length) {
+                int n = in.read(b, total, b.length - total);
+                if (n < 0) {
+                    break;
+                }
+                total += n;
+            }
+            return total;
+        }
+
+        private void readFully(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = in.read(b, off, len);
+                if (n < 0) {
+                    throw new EOFException("Truncated envelope header");
+                }
+                off += n;
+                len -= n;
+            }
+        }
+    }
+
+    public static class Builder {
+        EnvelopeEncryption envelope = new EnvelopeEncryption();
+
+        public EnvelopeEncryption build() {
+            if (envelope.dataKeyCache == null) {
+                throw new IllegalStateException("dataKeyCache is required");
+            }
+            return envelope;
+        }
+
+        public Builder dataKeyCache(DataKeyCache dataKeyCache) {
+            envelope.dataKeyCache = dataKeyCache;
+            return this;
+        }
+
+        /**
+         * Plain text bytes per segment of the segmented format, 256 KiB by default.
+         */
+        public Builder segmentSize(int segmentSize) {
+            if (segmentSize <= 0) {
+                throw new IllegalArgumentException("segmentSize must be positive");
+            }
+            envelope.segmentSize = segmentSize;
+            return this;
+        }
+
+        /**
+         * Segments encrypted or decrypted concurrently, the number of processors by default.
+         */
+        public Builder parallelism(int parallelism) {
+            envelope.parallelism = Math.max(1, parallelism);
+            return this;
+        }
+
+        /**
+         * Executor for segment encryption, the common fork join pool by default.
+         */
+        public Builder executor(Executor executor) {
+            envelope.executor = executor;
+            return this;
+        }
+    }
+
+}
@@ -0,0 +1,513 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+import java.util.function.UnaryOperator;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonParser;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+/**
+ * Encrypts selected attributes of DynamoDB items into raw B values with AES-GCM, using the data keys of a DataKeyCache. Paths address top level attributes, nested map entries and list elements, e.g.
+ * <code>ssn</code>, <code>address.street</code>, <code>cards[0].number</code> or <code>cards[*].number</code>; <code>*</code> matches every entry of a map, except the key attributes, the key attribute and
+ * the excluded attributes at the top level. All fields of an item share one data key, stored
+ * once in the key attribute, and each field is <code>[2][IV:12][cipher text + tag]</code> authenticated with its concrete location, e.g. <code>cards[1].number</code> for <code>cards[*].number</code>, and
+ * the values of the configured table key attributes, so a field cannot be moved to another path, list element or item. The per field overhead is 30 bytes instead of the Base64 expansion of an encrypted S
+ * value. Scalar values are encrypted as their raw bytes, maps, lists and sets as DynamoDB JSON.
+ * <p>
+ * Items without the key attribute are returned as is by decrypt, so unencrypted items can be read through the same code. In items with the key attribute, a value at an encrypted path that is not an
+ * encrypted field is rejected, as is a value on the way to an encrypted path that is not the map or list the path expects; encrypt rejects such items too. Lists of items are processed in parallel on the executor.
+ *
+ * <pre>
+ * ItemEncryptor encryptor = ItemEncryptor.builder().dataKeyCache(cache).paths("ssn", "address.street", "cards[*].number").build();
+ * dynamoDbClient.putItem(PutItemRequest.builder().tableName("customers").item(encryptor.encrypt(item)).build());
+ * Map&lt;String, AttributeValue&gt; customer = encryptor.decrypt(dynamoDbClient.getItem(request).item());
+ * </pre>
+ */
+public class ItemEncryptor {
+
+    // version 1 fields were bound to the path pattern only
+    static final byte FIELD_VERSION = 2;
+
+    private static final Object WILDCARD = new Object();
+    private static final byte STRING = 'S';
+    private static final byte NUMBER = 'N';
+    private static final byte BINARY = 'B';
+    private static final byte TRUE = 'T';
+    private static final byte FALSE = 'F';
+    private static final byte NULL = '0';
+    private static final byte TYPED_JSON = 'J';
+
+    private DataKeyCache dataKeyCache;
+    private List<Path> paths = new ArrayList<>();
+    private List<String> keyAttributes = new ArrayList<>();
+    private String keyAttribute = "_ek";
+    private Set<String> excludedAttributes = new HashSet<>(Collections.singleton(CapacityEncoder.DEFAULT_MARKER_ATTRIBUTE));
+    // never matched by a top level *, set by build
+    private Set<String> unmatchedAttributes;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private Executor executor = ForkJoinPool.commonPool();
+
+    private ItemEncryptor() {
+
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns a copy of the item with the values at the configured paths encrypted and the key attribute added. Missing paths are skipped.
+     */
+    public Map<String, AttributeValue> encrypt(Map<String, AttributeValue> item) {
+        DataKeyCache.DataKey dataKey = dataKeyCache.encryptionKey();
+        byte[] itemKey = itemKey(item);
+        Map<String, AttributeValue> encrypted = item;
+        for (Path path : paths) {
+            encrypted = transform(encrypted, path, 0, new Location(itemKey), (value, location) -> encryptValue(value, dataKey.key(), location));
+        }
+        Map<String, AttributeValue> result = new LinkedHashMap<>(encrypted);
+        result.put(keyAttribute, AttributeValue.builder().b(SdkBytes.fromByteArrayUnsafe(dataKey.encryptedKeyUnsafe())).build());
+        return result;
+    }
+
+    /**
+     * Returns a copy of the item with the encrypted paths restored and the key attribute removed, or the item itself when it has no key attribute.
+     */
+    public Map<String, AttributeValue> decrypt(Map<String, AttributeValue> item) {
+        AttributeValue keyReference = item.get(keyAttribute);
+        if (keyReference == null || keyReference.b() == null) {
+            return item;
+        }
+        SecretKey key = dataKeyCache.decryptionKey(keyReference.b().asByteArrayUnsafe()).key();
+        byte[] itemKey = itemKey(item);
+        Map<String, AttributeValue> decrypted = new LinkedHashMap<>(item);
+        decrypted.remove(keyAttribute);
+        for (int i = paths.size() - 1; i >= 0; i--) {
+            decrypted = transform(decrypted, paths.get(i), 0, new Location(itemKey), (value, location) -> decryptValue(value, key, location));
+        }
+        return decrypted;
+    }
+
+    /** Top level attributes of the item that encrypt changes or adds */
+    Set<String> encryptedAttributes(Map<String, AttributeValue> item) {
+        Set<String> names = new HashSet<>();
+        for (Path path : paths) {
+            if (path.tokens.get(0) == Path.ANY_KEY) {
+                for (String name : item.keySet()) {
+                    if (!unmatchedAttributes.contains(name)) {
+                        names.add(name);
+                    }
+                }
+            } else {
+                names.add((String) path.tokens.get(0));
+            }
+        }
+        names.add(keyAttribute);
+        return names;
+    }
+
+    /** Encrypts the items in parallel, the result is in the same order */
+    public List<Map<String, AttributeValue>> encrypt(List<Map<String, AttributeValue>> items) {
+        return forEachItem(items, this::encrypt);
+    }
+
+    /** Decrypts the items in parallel, the result is in the same order */
+    public List<Map<String, AttributeValue>> decrypt(List<Map<String, AttributeValue>> items) {
+        return forEachItem(items, this::decrypt);
+    }
+
+    private List<Map<String, AttributeValue>> forEachItem(List<Map<String, AttributeValue>> items, UnaryOperator<Map<String, AttributeValue>> operation) {
+        // indexed by the ranges, the input may be a LinkedList
+        List<Map<String, AttributeValue>> input = new ArrayList<>(items);
+        List<Map<String, AttributeValue>> results = new ArrayList<>(Collections.nCopies(input.size(), null));
+        int ranges = Math.max(1, Math.min(parallelism, input.size()));
+        int perRange = (input.size() + ranges - 1) / ranges;
+        List<CompletableFuture<Void>> futures = new ArrayList<>(ranges);
+        for (int first = 0; first < input.size(); first += perRange) {
+            int start = first;
+            int end = Math.min(input.size(), first + perRange);
+            futures.add(CompletableFuture.runAsync(() -> {
+                for (int i = start; i < end; i++) {
+                    results.set(i, operation.apply(input.get(i)));
+                }
+            }, executor));
+        }
+        for (CompletableFuture<Void> future : futures) {
+            try {
+                future.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+        return results;
+    }
+
+    // the table key attribute names and values, serialized like the encrypted values
+    private byte[] itemKey(Map<String, AttributeValue> item) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        DataOutputStream data = new DataOutputStream(out);
+        try {
+            for (String name : keyAttributes) {
+                AttributeValue value = item.get(name);
+                if (value == null) {
+                    throw SdkClientException.create("Item has no key attribute " + name);
+                }
+                byte[] bytes = serialize(value);
+                data.writeUTF(name);
+                data.writeInt(bytes.length);
+                data.write(bytes);
+            }
+        } catch (IOException e) {
+            // not thrown by ByteArrayOutputStream
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private Map<String, AttributeValue> transform(Map<String, AttributeValue> map, Path path, int position, Location location, BiFunction<AttributeValue, Location, AttributeValue> operation) {
+        Object token = path.tokens.get(position);
+        if (!(token instanceof String)) {
+            return map;
+        }
+        Map<String, AttributeValue> copy = null;
+        for (String name : token == Path.ANY_KEY ? map.keySet() : Collections.singleton((String) token)) {
+            AttributeValue value = map.get(name);
+            if (value == null || position == 0 && token == Path.ANY_KEY && unmatchedAttributes.contains(name)) {
+                continue;
+            }
+            location.elements.add(name);
+            AttributeValue transformed = transform(value, path, position + 1, location, operation);
+            location.elements.remove(location.elements.size() - 1);
+            if (transformed != value) {
+                if (copy == null) {
+                    copy = new LinkedHashMap<>(map);
+                }
+                copy.put(name, transformed);
+            }
+        }
+        return copy != null ? copy : map;
+    }
+
+    private AttributeValue transform(AttributeValue value, Path path, int position, Location location, BiFunction<AttributeValue, Location, AttributeValue> operation) {
+        if (position == path.tokens.size()) {
+            return operation.apply(value, location);
+        }
+        Object token = path.tokens.get(position);
+        // a parent replaced by another type would hide the encrypted fields below it
+        if (token instanceof String) {
+            if (!value.hasM()) {
+                throw SdkClientException.create("Value of " + location + " is not a map");
+            }
+            Map<String, AttributeValue> transformed = transform(value.m(), path, position, location, operation);
+            return transformed != value.m() ? AttributeValue.builder().m(transformed).build() : value;
+        }
+        if (!value.hasL()) {
+            throw SdkClientException.create("Value of " + location + " is not a list");
+        }
+        List<AttributeValue> list = value.l();
+        List<AttributeValue> copy = null;
+        int first = token == WILDCARD ? 0 : (Integer) token;
+        int end = token == WILDCARD ? list.size() : Math.min(list.size(), first + 1);
+        for (int i = first; i < end; i++) {
+            AttributeValue element = list.get(i);
+            location.elements.add(i);
+            AttributeValue transformed = transform(element, path, position + 1, location, operation);
+            location.elements.remove(location.elements.size() - 1);
+            if (transformed != element) {
+                if (copy == null) {
+                    copy = new ArrayList<>(list);
+                }
+                copy.set(i, transformed);
+            }
+        }
+        return copy != null ? AttributeValue.builder().l(copy).build() : value;
+    }
+
+    private static AttributeValue encryptValue(AttributeValue value, SecretKey key, Location location) {
+        byte[] plain = serialize(value);
+        byte[] encrypted = new byte[1 + EnvelopeEncryption.IV_LENGTH + plain.length + EnvelopeEncryption.TAG_LENGTH];
+        encrypted[0] = FIELD_VERSION;
+        byte[] iv = new byte[EnvelopeEncryption.IV_LENGTH];
+        EnvelopeEncryption.RANDOM.nextBytes(iv);
+        System.arraycopy(iv, 0, encrypted, 1, iv.length);
+        try {
+            Cipher cipher = EnvelopeEncryption.CIPHER.get();
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(EnvelopeEncryption.TAG_LENGTH * 8, iv));
+            cipher.updateAAD(location.aad());
+            cipher.doFinal(plain, 0, plain.length, encrypted, 1 + iv.length);
+        } catch (GeneralSecurityException e) {
+            throw SdkClientException.create("Unable to encrypt " + location, e);
+        }
+        return AttributeValue.builder().b(SdkBytes.fromByteArrayUnsafe(encrypted)).build();
+    }
+
+    private static AttributeValue decryptValue(AttributeValue value, SecretKey key, Location location) {
+        // a plain value in an encrypted item would let a writer replace the field without the key
+        if (value.b() == null) {
+            throw SdkClientException.create("Value of " + location + " is not encrypted");
+        }
+        byte[] encrypted = value.b().asByteArrayUnsafe();
+        if (encrypted.length < 1 + EnvelopeEncryption.IV_LENGTH + EnvelopeEncryption.TAG_LENGTH || encrypted[0] != FIELD_VERSION) {
+            throw SdkClientException.create("Value of " + location + " is not an encrypted field");
+        }
+        try {
+            Cipher cipher = EnvelopeEncryption.CIPHER.get();
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(EnvelopeEncryption.TAG_LENGTH * 8, encrypted, 1, EnvelopeEncryption.IV_LENGTH));
+            cipher.updateAAD(location.aad());
+            int offset = 1 + EnvelopeEncryption.IV_LENGTH;
+            return deserialize(cipher.doFinal(encrypted, offset, encrypted.length - offset));
+        } catch (GeneralSecurityException e) {
+            throw SdkClientException.create("Unable to decrypt " + location, e);
+        }
+    }
+
+    static byte[] serialize(AttributeValue value) {
+        if (value.s() != null) {
+            return prefixed(STRING, value.s().getBytes(StandardCharsets.UTF_8));
+        } else if (value.n() != null) {
+            return prefixed(NUMBER, value.n().getBytes(StandardCharsets.US_ASCII));
+        } else if (value.b() != null) {
+            return prefixed(BINARY, value.b().asByteArrayUnsafe());
+        } else if (value.bool() != null) {
+            return new byte[] { value.bool() ? TRUE : FALSE };
+        } else if (value.nul() != null) {
+            return new byte[] { NULL };
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        out.write(TYPED_JSON);
+        try (JsonGenerator generator = DynamoDBUtil.JSON_GENERATOR_FACTORY.createGenerator(out)) {
+            DynamoDBUtil.writeTyped(value, generator);
+        }
+        return out.toByteArray();
+    }
+
+    static AttributeValue deserialize(byte[] plain) {
+        switch (plain[0]) {
+        case STRING:
+            return AttributeValue.builder().s(new String(plain, 1, plain.length - 1, StandardCharsets.UTF_8)).build();
+        case NUMBER:
+            return AttributeValue.builder().n(new String(plain, 1, plain.length - 1, StandardCharsets.US_ASCII)).build();
+        case BINARY:
+            return AttributeValue.builder().b(SdkBytes.fromByteArrayUnsafe(Arrays.copyOfRange(plain, 1, plain.length))).build();
+        case TRUE:
+            return AttributeValue.builder().bool(true).build();
+        case FALSE:
+            return AttributeValue.builder().bool(false).build();
+        case NULL:
+            return AttributeValue.builder().nul(true).build();
+        case TYPED_JSON:
+            try (JsonParser parser = DynamoDBUtil.JSON_PARSER_FACTORY.createParser(new ByteArrayInputStream(plain, 1, plain.length - 1), StandardCharsets.UTF_8)) {
+                parser.next();
+                return DynamoDBUtil.readTyped(parser);
+            }
+        default:
+            throw SdkClientException.create("Unknown encrypted value type " + plain[0]);
+        }
+    }
+
+    private static byte[] prefixed(byte type, byte[] bytes) {
+        byte[] prefixed = new byte[1 + bytes.length];
+        prefixed[0] = type;
+        System.arraycopy(bytes, 0, prefixed, 1, bytes.length);
+        return prefixed;
+    }
+
+    /** Concrete location of a value while a path is applied: the item key followed by the names and list indexes leading to the value */
+    private static final class Location {
+        final byte[] itemKey;
+        final List<Object> elements = new ArrayList<>();
+
+        Location(byte[] itemKey) {
+            this.itemKey = itemKey;
+        }
+
+        // names are length prefixed so names containing . or [ cannot collide with nested paths
+        byte[] aad() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(itemKey.length + 64);
+            out.write(itemKey, 0, itemKey.length);
+            DataOutputStream data = new DataOutputStream(out);
+            try {
+                for (Object element : elements) {
+                    if (element instanceof String) {
+                        data.writeByte('.');
+                        data.writeUTF((String) element);
+                    } else {
+                        data.writeByte('[');
+                        data.writeInt((Integer) element);
+                    }
+                }
+            } catch (IOException e) {
+                // not thrown by ByteArrayOutputStream
+                throw new IllegalStateException(e);
+            }
+            return out.toByteArray();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder path = new StringBuilder();
+            for (Object element : elements) {
+                if (element instanceof String) {
+                    if (path.length() > 0) {
+                        path.append('.');
+                    }
+                    path.append(element);
+                } else {
+                    path.append('[').append(element).append(']');
+                }
+            }
+            return path.toString();
+        }
+    }
+
+    /** Parsed attribute path: names, list indexes and wildcards */
+    static final class Path {
+        static final String ANY_KEY = "*";
+
+        final String path;
+        final List<Object> tokens = new ArrayList<>();
+
+        Path(String path) {
+            this.path = path;
+            int i = 0;
+            while (i < path.length()) {
+                char c = path.charAt(i);
+                if (c == '[') {
+                    int close = path.indexOf(']', i);
+                    if (close < 0 || tokens.isEmpty()) {
+                        throw new IllegalArgumentException("Invalid attribute path " + path);
+                    }
+                    String index = path.substring(i + 1, close);
+                    tokens.add(index.equals("*") ? WILDCARD : Integer.valueOf(index));
+                    i = close + 1;
+                } else {
+                    if (c == '.') {
+                        if (tokens.isEmpty()) {
+                            throw new IllegalArgumentException("Invalid attribute path " + path);
+                        }
+                        i++;
+                    }
+                    int end = i;
+                    while (end < path.length() && path.charAt(end) != '.' && path.charAt(end) != '[') {
+                        end++;
+                    }
+                    if (end == i) {
+                        throw new IllegalArgumentException("Invalid attribute path " + path);
+                    }
+                    String name = path.substring(i, end);
+                    tokens.add(name.equals(ANY_KEY) ? ANY_KEY : name);
+                    i = end;
+                }
+            }
+            if (tokens.isEmpty()) {
+                throw new IllegalArgumentException("Empty attribute path");
+            }
+        }
+
+        @Override
+        public String toString() {
+            return path;
+        }
+    }
+
+    public static class Builder {
+        ItemEncryptor encryptor = new ItemEncryptor();
+
+        public ItemEncryptor build() {
+            if (encryptor.dataKeyCache == null) {
+                throw new IllegalStateException("dataKeyCache is required");
+            }
+            encryptor.unmatchedAttributes = new HashSet<>(encryptor.keyAttributes);
+            encryptor.unmatchedAttributes.add(encryptor.keyAttribute);
+            encryptor.unmatchedAttributes.addAll(encryptor.excludedAttributes);
+            for (Path path : encryptor.paths) {
+                if (encryptor.unmatchedAttributes.contains(path.tokens.get(0))) {
+                    throw new IllegalArgumentException("Attribute " + path.tokens.get(0) + " cannot be encrypted");
+                }
+            }
+            return encryptor;
+        }
+
+        public Builder dataKeyCache(DataKeyCache dataKeyCache) {
+            encryptor.dataKeyCache = dataKeyCache;
+            return this;
+        }
+
+        /**
+         * Attribute paths to encrypt, key attributes of the table must not be included. Items encrypted before a path was added have to be encrypted again, decrypt rejects their plain value.
+         */
+        public Builder paths(String... paths) {
+            for (String path : paths) {
+                encryptor.paths.add(new Path(path));
+            }
+            return this;
+        }
+
+        /**
+         * Table key attributes whose values every encrypted field is bound to, so fields cannot be copied to another item. They must be present in every item and cannot be encrypted.
+         */
+        public Builder keyAttributes(String... keyAttributes) {
+            encryptor.keyAttributes = new ArrayList<>(Arrays.asList(keyAttributes));
+            return this;
+        }
+
+        /**
+         * Attribute holding the encrypted data key of the item, "_ek" by default.
+         */
+        public Builder keyAttribute(String keyAttribute) {
+            encryptor.keyAttribute = keyAttribute;
+            return this;
+        }
+
+        /**
+         * Top level attributes that are never encrypted and not matched by a top level *, the CapacityEncoder marker attribute by default.
+         */
+        public Builder excludedAttributes(String... excludedAttributes) {
+            encryptor.excludedAttributes = new HashSet<>(Arrays.asList(excludedAttributes));
+            return this;
+        }
+
+        /**
+         * Items processed concurrently by the list methods, the number of processors by default.
+         */
+        public Builder parallelism(int parallelism) {
+            encryptor.parallelism = Math.max(1, parallelism);
+            return this;
+        }
+
+        /**
+         * Executor for the list methods, the common fork join pool by default.
+         */
+        public Builder executor(Executor executor) {
+            encryptor.executor = executor;
+            return this;
+        }
+    }
+
+}
@@ -0,0 +1,241 @@
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.json.Json;
+import javax.json.JsonValue;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+import javax.json.stream.JsonParserFactory;
+
+import software.amazon.awssdk.core.http.HttpResponseHandler;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.http.SdkHttpFullResponse;
+
+/**
+ * Streaming alternatives to AWSSignerHttpClient.JsonHandler. The response is read with a JSON-P JsonParser and only the values addressed by a path such as <code>hits.hits[*]</code> are materialized, one at a time,
+ * so peak heap depends on the size of a single hit instead of the whole response.
+ * <p>
+ * Path syntax: field names separated by dots, <code>[*]</code> selects every element of an array, for example <code>hits.hits[*]</code>, <code>docs[*]</code> or <code>responses[*].hits.hits[*]</code>.
+ */
+public class JsonStreamHandler {
+
+    static final JsonParserFactory JSON_PARSER_FACTORY = Json.createParserFactory(Collections.emptyMap());
+
+    private JsonStreamHandler() {
+
+    }
+
+    /**
+     * Returns a handler passing each matched value to the consumer while the response is being read. The handler result is the number of matched values.
+     */
+    public static HttpResponseHandler<Long> forEach(String path, Consumer<JsonValue> consumer) {
+        return new ForEachHandler(path, consumer);
+    }
+
+    /**
+     * Returns a handler producing a lazy Stream over the matched values. The HTTP connection stays open until the stream is fully consumed or closed so the stream should be used in a try-with-resources block.
+     */
+    public static HttpResponseHandler<Stream<JsonValue>> stream(String path) {
+        return new StreamHandler(path);
+    }
+
+    public static Iterator<JsonValue> iterator(InputStream is, String path) {
+        return new PathIterator(JSON_PARSER_FACTORY.createParser(is), path);
+    }
+
+    public static Iterator<JsonValue> iterator(JsonParser parser, String path) {
+        return new PathIterator(parser, path);
+    }
+
+    public static class ForEachHandler implements HttpResponseHandler<Long> {
+        private final String path;
+        private final Consumer<JsonValue> consumer;
+
+        public ForEachHandler(String path, Consumer<JsonValue> consumer) {
+            this.path = path;
+            this.consumer = consumer;
+        }
+
+        @Override
+        public Long handle(SdkHttpFullResponse response, ExecutionAttributes executionAttributes) throws Exception {
+            long count = 0;
+            Optional<InputStream> content = AWSSignerHttpClient.content(response);
+            if (content.isPresent()) {
+                try (JsonParser parser = JSON_PARSER_FACTORY.createParser(content.get())) {
+                    Iterator<JsonValue> values = iterator(parser, path);
+                    while (values.hasNext()) {
+                        consumer.accept(values.next());
+                        count++;
+                    }
+                }
+            }
+            return count;
+        }
+
+    }
+
+    public static class StreamHandler implements HttpResponseHandler<Stream<JsonValue>> {
+        private final String path;
+
+        public StreamHandler(String path) {
+            this.path = path;
+        }
+
+        @Override
+        public Stream<JsonValue> handle(SdkHttpFullResponse response, ExecutionAttributes executionAttributes) throws Exception {
+            Optional<InputStream> content = AWSSignerHttpClient.content(response);
+            if (!content.isPresent()) {
+                return Stream.empty();
+            }
+            JsonParser parser = JSON_PARSER_FACTORY.createParser(content.get());
+            Iterator<JsonValue> values = iterator(parser, path);
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(values, Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(parser::close);
+        }
+
+        @Override
+        public boolean needsConnectionLeftOpen() {
+            return true;
+        }
+
+    }
+
+    private static class Frame {
+        final boolean array;
+        final int matched;
+
+        Frame(boolean array, int matched) {
+            this.array = array;
+            this.matched = matched;
+        }
+    }
+
+    private static class PathIterator implements Iterator<JsonValue> {
+        private static final String WILDCARD = "[*]";
+
+        private final JsonParser parser;
+        private final String[] segments;
+        private final Deque<Frame> frames = new ArrayDeque<>();
+        private String key;
+        private JsonValue next;
+        private boolean done;
+
+        PathIterator(JsonParser parser, String path) {
+            this.parser = parser;
+            this.segments = parse(path);
+        }
+
+        private static String[] parse(String path) {
+            List<String> segments = new ArrayList<>();
+            for (String part : path.split("\\.")) {
+                String field = part;
+                int wildcards = 0;
+                while (field.endsWith(WILDCARD)) {
+                    field = field.substring(0, field.length() - WILDCARD.length());
+                    wildcards++;
+                }
+                if (!field.isEmpty()) {
+                    segments.add(field);
+                }
+                for (int i = 0; i < wildcards; i++) {
+                    segments.add(WILDCARD);
+                }
+            }
+            return segments.toArray(new String[segments.size()]);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !done) {
+                next = advance();
+                if (next == null) {
+                    done = true;
+                    parser.close();
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public JsonValue next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            JsonValue value = next;
+            next = null;
+            return value;
+        }
+
+        private JsonValue advance() {
+            while (parser.hasNext()) {
+                Event event = parser.next();
+                switch (event) {
+                case KEY_NAME:
+                    key = parser.getString();
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    frames.pop();
+                    break;
+                default:
+                    int matched = matched();
+                    boolean container = event == Event.START_OBJECT || event == Event.START_ARRAY;
+                    if (matched == segments.length) {
+                        return parser.getValue();
+                    } else if (matched < 0) {
+                        if (container) {
+                            skip();
+                        }
+                    } else if (container) {
+                        frames.push(new Frame(event == Event.START_ARRAY, matched));
+                    }
+                }
+            }
+            return null;
+        }
+
+        // number of path segments matched by the value at the current parser position, -1 if the value is not on the path
+        private int matched() {
+            Frame parent = frames.peek();
+            if (parent == null) {
+                return 0;
+            }
+            if (parent.matched >= segments.length) {
+                return -1;
+            }
+            String segment = segments[parent.matched];
+            boolean matches = parent.array ? WILDCARD.equals(segment) : segment.equals(key);
+            return matches ? parent.matched + 1 : -1;
+        }
+
+        private void skip() {
+            int depth = 1;
+            while (depth > 0 && parser.hasNext()) {
+                switch (parser.next()) {
+                case START_OBJECT:
+                case START_ARRAY:
+                    depth++;
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    depth--;
+                    break;
+                default:
+                }
+            }
+        }
+
+    }
+
+}
@@ -1,10 +1,14 @@
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.HashMap;
 import java.util.Map;
 
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
 import software.amazon.awssdk.core.SdkBytes;
@@ -18,8 +22,24 @@ import software.amazon.awssdk.services.kms.model.DecryptResponse;
 
 //Utility class used to lazy load an AWS data key from some type of text file or optionally retrieved from DynamoDB
 //https://docs.aws.amazon.com/kms/latest/developerguide/concepts.html#data-keys
+//Once the key is loaded encrypt and decrypt only read a volatile field and reuse a per thread Cipher, the class lock is only taken while loading the key.
+//Every format starts with a version byte and decrypt dispatches on it whether or not a DataKeyCache is configured. Version 0 is the single loaded key: the 16 byte CBC IV followed by the cipher text.
+//With a DataKeyCache values are encrypted with AES-GCM in the EnvelopeEncryption format (versions 2 and 3), which carries the encrypted data key so any cached or rotated key can decrypt it.
 public class KMSUtil {
-	private static SecretKey secret;
+	private static final String TRANSFORMATION = "AES/CBC/PKCS5Padding";
+	private static final int IV_LENGTH = 16;
+	private static final byte SINGLE_KEY_VERSION = 0;
+	// Cipher.getInstance performs a provider lookup, a Cipher is not thread safe but can be initialized again for each call
+	private static final ThreadLocal<Cipher> CIPHER = ThreadLocal.withInitial(() -> {
+		try {
+			return Cipher.getInstance(TRANSFORMATION);
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+	});
+
+	private static volatile SecretKey secret;
+	private static volatile EnvelopeEncryption envelope;
 	private static KmsClient kmsClient;
 	private static DynamoDbClient dynamdDBClient;
 	private static String dynamoDBTable;
@@ -39,6 +59,11 @@ public class KMSUtil {
 		KMSUtil.dynamoDBAttr = dynamoDBAttr;
 	}
 
+	/** Encrypts with the data keys of the cache instead of the single loaded key, null to switch back */
+	public static void initialize(DataKeyCache dataKeyCache) {
+		KMSUtil.envelope = dataKeyCache != null ? EnvelopeEncryption.builder().dataKeyCache(dataKeyCache).build() : null;
+	}
+
 	private static synchronized void loadEncryptionKey() throws Exception {
 		if (secret == null) {
 			if (dynamdDBClient == null) {
@@ -78,21 +103,96 @@ public class KMSUtil {
 		// String encS3Key = Base64.getEncoder().encodeToString(encBytes);
 	}
 
+	private static SecretKey secret() throws Exception {
+		SecretKey key = secret;
+		if (key == null) {
+			loadEncryptionKey();
+			key = secret;
+		}
+		return key;
+	}
+
 	public static final String encrypt(String value) throws Exception {
-		loadEncryptionKey();
-		Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-		cipher.init(Cipher.ENCRYPT_MODE, secret);
-		byte[] secureReturnURL = cipher.doFinal(value.getBytes());
-		return Base64.getEncoder().encodeToString(secureReturnURL);
+		return Base64.getEncoder().encodeToString(encrypt(value.getBytes(StandardCharsets.UTF_8)));
 	}
 
 	public static final String decrypt(String value) throws Exception {
-		loadEncryptionKey();
-		byte[] secureReturnURL = Base64.getDecoder().decode(value);
-		Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-		cipher.init(Cipher.DECRYPT_MODE, secret);
-		secureReturnURL = cipher.doFinal(secureReturnURL);
-		return new String(secureReturnURL);
+		return new String(decrypt(Base64.getDecoder().decode(value)), StandardCharsets.UTF_8);
+	}
+
+	public static final byte[] encrypt(byte[] value) throws Exception {
+		EnvelopeEncryption envelope = KMSUtil.envelope;
+		if (envelope != null) {
+			return envelope.encrypt(value);
+		}
+		Cipher cipher = CIPHER.get();
+		cipher.init(Cipher.ENCRYPT_MODE, secret());
+		byte[] encrypted = new byte[1 + IV_LENGTH + cipher.getOutputSize(value.length)];
+		encrypted[0] = SINGLE_KEY_VERSION;
+		System.arraycopy(cipher.getIV(), 0, encrypted, 1, IV_LENGTH);
+		int length = 1 + IV_LENGTH + cipher.doFinal(value, 0, value.length, encrypted, 1 + IV_LENGTH);
+		return length == encrypted.length ? encrypted : Arrays.copyOf(encrypted, length);
+	}
+
+	public static final byte[] decrypt(byte[] value) throws Exception {
+		byte version = value.length > 0 ? value[0] : -1;
+		if (version == SINGLE_KEY_VERSION) {
+			return decryptCbc(secret(), value, 1);
+		}
+		if (version != EnvelopeEncryption.MESSAGE_VERSION && version != EnvelopeEncryption.SEGMENTED_VERSION) {
+			throw new IllegalArgumentException("Unknown encrypted value version " + version);
+		}
+		EnvelopeEncryption envelope = KMSUtil.envelope;
+		if (envelope == null) {
+			throw new IllegalStateException("Decrypting version " + version + " values requires a DataKeyCache");
+		}
+		return envelope.decrypt(value);
+	}
+
+	private static byte[] decryptCbc(SecretKey key, byte[] value, int offset) throws GeneralSecurityException {
+		if (value.length - offset < IV_LENGTH) {
+			throw new IllegalArgumentException("Encrypted value is shorter than the IV");
+		}
+		Cipher cipher = CIPHER.get();
+		cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(value, offset, IV_LENGTH));
+		offset += IV_LENGTH;
+		return cipher.doFinal(value, offset, value.length - offset);
+	}
+
+	/** Encrypts the remaining bytes of the buffer into a new buffer, ready to be read */
+	public static final ByteBuffer encrypt(ByteBuffer value) throws Exception {
+		if (envelope != null) {
+			byte[] bytes = new byte[value.remaining()];
+			value.get(bytes);
+			return ByteBuffer.wrap(encrypt(bytes));
+		}
+		Cipher cipher = CIPHER.get();
+		cipher.init(Cipher.ENCRYPT_MODE, secret());
+		ByteBuffer encrypted = ByteBuffer.allocate(1 + IV_LENGTH + cipher.getOutputSize(value.remaining()));
+		encrypted.put(SINGLE_KEY_VERSION);
+		encrypted.put(cipher.getIV());
+		cipher.doFinal(value, encrypted);
+		encrypted.flip();
+		return encrypted;
+	}
+
+	/** Decrypts the remaining bytes of the buffer into a new buffer, ready to be read */
+	public static final ByteBuffer decrypt(ByteBuffer value) throws Exception {
+		if (value.remaining() < 1 + IV_LENGTH || value.get(value.position()) != SINGLE_KEY_VERSION) {
+			// the envelope formats are parsed from an array
+			byte[] bytes = new byte[value.remaining()];
+			value.get(bytes);
+			return ByteBuffer.wrap(decrypt(bytes));
+		}
+		value.get();
+		byte[] iv = new byte[IV_LENGTH];
+		value.get(iv);
+		Cipher cipher = CIPHER.get();
+		cipher.init(Cipher.DECRYPT_MODE, secret(), new IvParameterSpec(iv));
+		ByteBuffer decrypted = ByteBuffer.allocate(cipher.getOutputSize(value.remaining()));
+		cipher.doFinal(value, decrypted);
+		decrypted.flip();
+		return decrypted;
 	}
 
 }
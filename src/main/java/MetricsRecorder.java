@@ -0,0 +1,228 @@
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import software.amazon.awssdk.core.metrics.CoreMetric;
+import software.amazon.awssdk.http.HttpMetric;
+import software.amazon.awssdk.metrics.MetricCollection;
+import software.amazon.awssdk.metrics.MetricPublisher;
+import software.amazon.awssdk.metrics.MetricRecord;
+import software.amazon.awssdk.metrics.SdkMetric;
+
+/**
+ * In-memory MetricPublisher keeping a histogram of every Duration metric, a counter of the retry count and the bytes sent and received, and the last value of every other numeric metric, for instance
+ * the LeasedConcurrency gauge of the connection pool, tagged by service and host. Status codes are counted per code, for instance <code>counter("es", host, "HttpStatusCode.429")</code>. Histograms use log-linear buckets (four per power of two, in microseconds) so recording is lock-free and allocation free and percentiles are accurate
+ * to about 20%.
+ *
+ * <pre>
+ * MetricsRecorder recorder = MetricsRecorder.create();
+ * AWSSignerHttpClient client = AWSSignerHttpClient.builder().serviceName("es").addMetricPublisher(recorder).build();
+ * ...
+ * recorder.histogram("es", host, CoreMetric.SIGNING_DURATION.name()).percentile(0.99);
+ * </pre>
+ */
+public class MetricsRecorder implements MetricPublisher {
+
+    private final Map<Key, Histogram> histograms = new ConcurrentHashMap<>();
+    private final Map<Key, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<Key, Number> gauges = new ConcurrentHashMap<>();
+
+    // the numeric metrics that add up, the others are point in time values
+    private static final Set<SdkMetric<?>> COUNTERS = new HashSet<>(Arrays.asList(CoreMetric.RETRY_COUNT, AWSSignerMetric.BYTES_SENT, AWSSignerMetric.BYTES_RECEIVED));
+
+    public static MetricsRecorder create() {
+        return new MetricsRecorder();
+    }
+
+    @Override
+    public void publish(MetricCollection metricCollection) {
+        String service = first(metricCollection, CoreMetric.SERVICE_ID.name());
+        String host = first(metricCollection, AWSSignerMetric.HOST.name());
+        record(metricCollection, service, host);
+    }
+
+    private static String first(MetricCollection metricCollection, String name) {
+        for (MetricRecord<?> record : metricCollection) {
+            if (record.metric().name().equals(name)) {
+                return String.valueOf(record.value());
+            }
+        }
+        return "";
+    }
+
+    private void record(MetricCollection metricCollection, String service, String host) {
+        for (MetricRecord<?> record : metricCollection) {
+            Object value = record.value();
+            String name = record.metric().name();
+            if (value instanceof Duration) {
+                histograms.computeIfAbsent(new Key(service, host, name), k -> new Histogram()).record((Duration) value);
+            } else if (record.metric().equals(HttpMetric.HTTP_STATUS_CODE)) {
+                counters.computeIfAbsent(new Key(service, host, name + "." + value), k -> new LongAdder()).increment();
+            } else if (COUNTERS.contains(record.metric())) {
+                counters.computeIfAbsent(new Key(service, host, name), k -> new LongAdder()).add(((Number) value).longValue());
+            } else if (value instanceof Number) {
+                gauges.put(new Key(service, host, name), (Number) value);
+            }
+        }
+        // attempts are recorded as child collections
+        metricCollection.children().forEach(c -> record(c, service, host));
+    }
+
+    /** Returns the histogram for a Duration metric, empty if nothing was recorded */
+    public Histogram histogram(String service, String host, String metric) {
+        Histogram histogram = histograms.get(new Key(service, host, metric));
+        return histogram != null ? histogram : new Histogram();
+    }
+
+    /** Returns the sum of a counter metric, or the number of responses for HttpStatusCode.&lt;code&gt; */
+    public long counter(String service, String host, String metric) {
+        LongAdder counter = counters.get(new Key(service, host, metric));
+        return counter != null ? counter.sum() : 0;
+    }
+
+    /** Returns the last recorded value of a numeric metric that is not a counter, NaN if nothing was recorded */
+    public double gauge(String service, String host, String metric) {
+        Number gauge = gauges.get(new Key(service, host, metric));
+        return gauge != null ? gauge.doubleValue() : Double.NaN;
+    }
+
+    public void reset() {
+        histograms.clear();
+        counters.clear();
+        gauges.clear();
+    }
+
+    @Override
+    public void close() {
+
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        new TreeMap<>(histograms).forEach((k, h) -> report.append(k).append(' ').append(h).append('\n'));
+        new TreeMap<>(counters).forEach((k, c) -> report.append(k).append(" total=").append(c.sum()).append('\n'));
+        new TreeMap<>(gauges).forEach((k, g) -> report.append(k).append(" last=").append(g).append('\n'));
+        return report.toString();
+    }
+
+    public static class Histogram {
+        private static final int SUB_BUCKETS = 4;
+        private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sumMicros = new LongAdder();
+        private final AtomicLong maxMicros = new AtomicLong();
+
+        void record(Duration duration) {
+            long micros = Math.max(0, duration.toNanos() / 1000);
+            buckets.incrementAndGet(bucket(micros));
+            count.increment();
+            sumMicros.add(micros);
+            maxMicros.accumulateAndGet(micros, Math::max);
+        }
+
+        // 0-3 map directly, above that 4 linear sub buckets per power of two
+        static int bucket(long micros) {
+            if (micros < SUB_BUCKETS) {
+                return (int) micros;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(micros);
+            int sub = (int) (micros >>> (exponent - 2)) & (SUB_BUCKETS - 1);
+            return (exponent - 1) * SUB_BUCKETS + sub;
+        }
+
+        // upper bound of a bucket in microseconds
+        static long upperBound(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int exponent = bucket / SUB_BUCKETS + 1;
+            int sub = bucket % SUB_BUCKETS;
+            return ((long) (SUB_BUCKETS + sub + 1) << (exponent - 2)) - 1;
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        public Duration mean() {
+            long n = count.sum();
+            return n == 0 ? Duration.ZERO : Duration.ofNanos(sumMicros.sum() * 1000 / n);
+        }
+
+        public Duration max() {
+            return Duration.ofNanos(maxMicros.get() * 1000);
+        }
+
+        /**
+         * @param quantile between 0 and 1, for instance 0.99
+         */
+        public Duration percentile(double quantile) {
+            long n = count.sum();
+            if (n == 0) {
+                return Duration.ZERO;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * n));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Duration.ofNanos(Math.min(upperBound(i), maxMicros.get()) * 1000);
+                }
+            }
+            return max();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d mean=%s p50=%s p99=%s max=%s", count(), mean(), percentile(0.5), percentile(0.99), max());
+        }
+    }
+
+    private static class Key implements Comparable<Key> {
+        final String service;
+        final String host;
+        final String metric;
+
+        Key(String service, String host, String metric) {
+            this.service = service;
+            this.host = host;
+            this.metric = metric;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return service.equals(other.service) && host.equals(other.host) && metric.equals(other.metric);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(service, host, metric);
+        }
+
+        @Override
+        public int compareTo(Key o) {
+            return toString().compareTo(o.toString());
+        }
+
+        @Override
+        public String toString() {
+            return service + " " + host + " " + metric;
+        }
+    }
+
+}
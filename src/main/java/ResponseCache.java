@@ -0,0 +1,395 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import software.amazon.awssdk.core.SdkRequest;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.core.http.HttpResponseHandler;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.http.SdkHttpFullRequest;
+import software.amazon.awssdk.http.SdkHttpFullResponse;
+import software.amazon.awssdk.http.SdkHttpMethod;
+
+/**
+ * Caches successful GET responses of AWSSignerHttpClient.execute so repeated reads of mappings, settings, aliases or hot documents skip signing and the round trip. Entries are keyed by host, path, query and
+ * the configured vary headers, evicted least recently used beyond maxEntries and fresh for the TTL, or the Cache-Control max-age of the response. Stale entries with an ETag or Last-Modified header are
+ * revalidated with a conditional request and reused on 304. Concurrent misses for the same key share a single upstream request. Any other method sent through the client invalidates the cached entries for the
+ * same path.
+ * <p>
+ * The raw response is cached and handed to the response handler of each call, so every caller gets its own parsed result. At most maxEntryBytes of a response are buffered, larger responses, known from
+ * Content-Length or once more was read, are streamed to the caller's response handler and not cached.
+ */
+public class ResponseCache {
+
+    private int maxEntries = 1000;
+    private long maxEntryBytes = 1024 * 1024;
+    private Duration ttl = Duration.ofSeconds(30);
+    private List<String> varyHeaders = Collections.emptyList();
+
+    private Map<String, Entry> entries;
+    private final Map<String, CompletableFuture<Entry>> loading = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder revalidations = new LongAdder();
+
+    private ResponseCache() {
+
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    static boolean isCacheable(SdkHttpFullRequest request) {
+        return request.method() == SdkHttpMethod.GET && !request.contentStreamProvider().isPresent();
+    }
+
+    <T> T execute(AWSSignerHttpClient client, SdkHttpFullRequest request, HttpResponseHandler<T> responseHandler, HttpResponseHandler<? extends SdkException> errorHandler, SdkRequest originalRequest) {
+        String key = key(request);
+        Entry entry = get(key);
+        if (entry != null && entry.isFresh()) {
+            hits.increment();
+            return entry.replay(responseHandler);
+        }
+        CompletableFuture<Entry> load = new CompletableFuture<>();
+        CompletableFuture<Entry> existing = loading.putIfAbsent(key, load);
+        if (existing != null) {
+            // another caller is already fetching this key
+            Entry shared = join(existing);
+            if (shared != null) {
+                hits.increment();
+                return shared.replay(responseHandler);
+            }
+            // too large to be buffered, every caller streams its own response
+            misses.increment();
+            return client.executeUncached(request, responseHandler, errorHandler, originalRequest);
+        }
+        Loaded<T> loaded;
+        try {
+            loaded = load(client, key, request, entry, responseHandler, errorHandler, originalRequest);
+            load.complete(loaded.entry);
+        } catch (RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, load);
+        }
+        return loaded.entry != null ? loaded.entry.replay(responseHandler) : loaded.result;
+    }
+
+    private <T> Loaded<T> load(AWSSignerHttpClient client, String key, SdkHttpFullRequest request, Entry stale, HttpResponseHandler<T> responseHandler, HttpResponseHandler<? extends SdkException> errorHandler,
+            SdkRequest originalRequest) {
+        SdkHttpFullRequest.Builder conditional = null;
+        if (stale != null && (stale.etag.isPresent() || stale.lastModified.isPresent())) {
+            conditional = request.toBuilder();
+            if (stale.etag.isPresent()) {
+                conditional.putHeader("If-None-Match", stale.etag.get());
+            }
+            if (stale.lastModified.isPresent()) {
+                conditional.putHeader("If-Modified-Since", stale.lastModified.get());
+            }
+        }
+        try {
+            Loaded<T> loaded = client.executeUncached(conditional != null ? conditional.build() : request, new CapturingHandler<>(responseHandler), new NotModifiedHandler(errorHandler), originalRequest);
+            misses.increment();
+            if (loaded.entry != null && loaded.entry.cacheable) {
+                put(key, loaded.entry);
+            }
+            return loaded;
+        } catch (SdkServiceException e) {
+            if (e.statusCode() == 304 && stale != null) {
+                revalidations.increment();
+                Entry refreshed = stale.refresh(ttl);
+                put(key, refreshed);
+                return new Loaded<>(refreshed, null);
+            }
+            throw e;
+        }
+    }
+
+    private static Entry join(CompletableFuture<Entry> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private String key(SdkHttpFullRequest request) {
+        StringBuilder key = new StringBuilder(128);
+        key.append(request.host()).append(':').append(request.port()).append(request.encodedPath());
+        if (!request.rawQueryParameters().isEmpty()) {
+            key.append('?').append(new TreeMap<>(request.rawQueryParameters()));
+        }
+        for (String header : varyHeaders) {
+            key.append('\n').append(header).append(':').append(request.firstMatchingHeader(header).orElse(""));
+        }
+        return key.toString();
+    }
+
+    private synchronized Entry get(String key) {
+        return entries.get(key);
+    }
+
+    private synchronized void put(String key, Entry entry) {
+        entries.put(key, entry);
+    }
+
+    /**
+     * Removes the entries for the request path, called by the client for every request that is not a GET.
+     */
+    synchronized void invalidate(SdkHttpFullRequest request) {
+        String prefix = request.host() + ":" + request.port() + request.encodedPath();
+        Iterator<String> keys = entries.keySet().iterator();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            if (key.startsWith(prefix) && (key.length() == prefix.length() || key.charAt(prefix.length()) == '?' || key.charAt(prefix.length()) == '\n')) {
+                keys.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** Calls answered from the cache, including callers that waited for a concurrent fetch of the same key */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /** Calls that fetched the response from the service */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /** Stale entries confirmed unchanged with a 304 response */
+    public long revalidations() {
+        return revalidations.sum();
+    }
+
+    // the buffered entry, or the result of the caller's response handler for a response larger than maxEntryBytes
+    private static class Loaded<T> {
+        final Entry entry;
+        final T result;
+
+        Loaded(Entry entry, T result) {
+            this.entry = entry;
+            this.result = result;
+        }
+    }
+
+    private class CapturingHandler<T> implements HttpResponseHandler<Loaded<T>> {
+        private final HttpResponseHandler<T> responseHandler;
+
+        CapturingHandler(HttpResponseHandler<T> responseHandler) {
+            this.responseHandler = responseHandler;
+        }
+
+        @Override
+        public Loaded<T> handle(SdkHttpFullResponse response, ExecutionAttributes executionAttributes) throws Exception {
+            byte[] body = new byte[0];
+            if (response.content().isPresent()) {
+                AbortableInputStream content = response.content().get();
+                Optional<String> contentLength = response.firstMatchingHeader("Content-Length");
+                if (contentLength.isPresent() && Long.parseLong(contentLength.get().trim()) > maxEntryBytes) {
+                    return new Loaded<>(null, responseHandler.handle(response, executionAttributes));
+                }
+                body = readAtMost(content, maxEntryBytes + 1);
+                if (body.length > maxEntryBytes) {
+                    // hand over what was read followed by the rest of the stream
+                    AbortableInputStream remaining = AbortableInputStream.create(new SequenceInputStream(new ByteArrayInputStream(body), content), content);
+                    return new Loaded<>(null, responseHandler.handle(response.toBuilder().content(remaining).build(), executionAttributes));
+                }
+                if (responseHandler.needsConnectionLeftOpen()) {
+                    // the SDK leaves the connection to the handler, the body has been read in full
+                    content.close();
+                }
+            }
+            Optional<String> cacheControl = response.firstMatchingHeader("Cache-Control");
+            Duration entryTtl = ttl;
+            boolean cacheable = true;
+            if (cacheControl.isPresent()) {
+                for (String directive : cacheControl.get().toLowerCase().split(",")) {
+                    directive = directive.trim();
+                    if (directive.equals("no-store") || directive.equals("no-cache") || directive.equals("private")) {
+                        cacheable = false;
+                    } else if (directive.startsWith("max-age=")) {
+                        try {
+                            entryTtl = Duration.ofSeconds(Long.parseLong(directive.substring("max-age=".length())));
+                        } catch (NumberFormatException e) {
+                            // keep the configured TTL
+                        }
+                    }
+                }
+            }
+            return new Loaded<>(new Entry(response.statusCode(), response.headers(), body, System.nanoTime() + entryTtl.toNanos(), entryTtl, cacheable), null);
+        }
+
+        // a streaming handler keeps its connection open when the response is passed through
+        @Override
+        public boolean needsConnectionLeftOpen() {
+            return responseHandler.needsConnectionLeftOpen();
+        }
+
+    }
+
+    private static byte[] readAtMost(InputStream is, long limit) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream((int) Math.min(limit, 8192));
+        byte[] buffer = new byte[8192];
+        int read;
+        while (bos.size() < limit && (read = is.read(buffer, 0, (int) Math.min(buffer.length, limit - bos.size()))) > -1) {
+            bos.write(buffer, 0, read);
+        }
+        return bos.toByteArray();
+    }
+
+    // a 304 is an error for the SDK response handling, it is surfaced as an SdkServiceException and turned back into the cached entry
+    private static class NotModifiedHandler implements HttpResponseHandler<SdkException> {
+        private final HttpResponseHandler<? extends SdkException> errorHandler;
+
+        NotModifiedHandler(HttpResponseHandler<? extends SdkException> errorHandler) {
+            this.errorHandler = errorHandler;
+        }
+
+        @Override
+        public SdkException handle(SdkHttpFullResponse response, ExecutionAttributes executionAttributes) throws Exception {
+            if (response.statusCode() == 304) {
+                return SdkServiceException.builder().statusCode(304).message("304: not modified").build();
+            }
+            return errorHandler.handle(response, executionAttributes);
+        }
+
+    }
+
+    private static class Entry {
+        final int statusCode;
+        final Map<String, List<String>> headers;
+        final byte[] body;
+        final long expires;
+        final Duration ttl;
+        final boolean cacheable;
+        final Optional<String> etag;
+        final Optional<String> lastModified;
+
+        Entry(int statusCode, Map<String, List<String>> headers, byte[] body, long expires, Duration ttl, boolean cacheable) {
+            this.statusCode = statusCode;
+            this.headers = headers;
+            this.body = body;
+            this.expires = expires;
+            this.ttl = ttl;
+            this.cacheable = cacheable;
+            this.etag = firstHeader(headers, "ETag");
+            this.lastModified = firstHeader(headers, "Last-Modified");
+        }
+
+        private static Optional<String> firstHeader(Map<String, List<String>> headers, String name) {
+            for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                if (header.getKey().equalsIgnoreCase(name) && !header.getValue().isEmpty()) {
+                    return Optional.of(header.getValue().get(0));
+                }
+            }
+            return Optional.empty();
+        }
+
+        boolean isFresh() {
+            return System.nanoTime() - expires < 0;
+        }
+
+        Entry refresh(Duration defaultTtl) {
+            Duration entryTtl = ttl != null ? ttl : defaultTtl;
+            return new Entry(statusCode, headers, body, System.nanoTime() + entryTtl.toNanos(), entryTtl, cacheable);
+        }
+
+        <T> T replay(HttpResponseHandler<T> responseHandler) {
+            InputStream content = new ByteArrayInputStream(body);
+            SdkHttpFullResponse response = SdkHttpFullResponse.builder().statusCode(statusCode).headers(headers).content(AbortableInputStream.create(content)).build();
+            try {
+                return responseHandler.handle(response, new ExecutionAttributes());
+            } catch (IOException e) {
+                throw SdkClientException.create("Unable to read the cached response", e);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw SdkClientException.create("Unable to unmarshall the cached response (" + e.getMessage() + ")", e);
+            }
+        }
+    }
+
+    public static class Builder {
+        ResponseCache cache = new ResponseCache();
+
+        public ResponseCache build() {
+            int maxEntries = cache.maxEntries;
+            cache.entries = new LinkedHashMap<String, Entry>(Math.min(maxEntries, 1024), 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    return size() > maxEntries;
+                }
+            };
+            return cache;
+        }
+
+        /**
+         * Maximum number of cached responses, 1000 by default. The least recently used entry is evicted first.
+         */
+        public Builder maxEntries(int maxEntries) {
+            cache.maxEntries = maxEntries;
+            return this;
+        }
+
+        /**
+         * Larger responses are not cached, 1 MiB by default.
+         */
+        public Builder maxEntryBytes(long maxEntryBytes) {
+            cache.maxEntryBytes = maxEntryBytes;
+            return this;
+        }
+
+        /**
+         * How long a response is served without contacting the service, 30 seconds by default. A Cache-Control max-age response header takes precedence.
+         */
+        public Builder ttl(Duration ttl) {
+            cache.ttl = ttl;
+            return this;
+        }
+
+        /**
+         * Request headers that are part of the cache key, for instance Accept or a tenant header.
+         */
+        public Builder varyHeaders(String... varyHeaders) {
+            cache.varyHeaders = new ArrayList<>(Arrays.asList(varyHeaders));
+            return this;
+        }
+    }
+
+}
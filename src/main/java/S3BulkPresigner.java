@@ -0,0 +1,271 @@
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import software.amazon.awssdk.auth.credentials.AwsCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+import software.amazon.awssdk.auth.credentials.CredentialUtils;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.regions.providers.DefaultAwsRegionProviderChain;
+import software.amazon.awssdk.services.s3.S3Utilities;
+import software.amazon.awssdk.services.s3.model.GetUrlRequest;
+import software.amazon.awssdk.utils.StringUtils;
+import software.amazon.awssdk.utils.http.SdkHttpUtils;
+
+/**
+ * Presigns S3 GET and PUT URLs in bulk, producing the same URLs as the SDK S3Presigner. Credentials, the signing key, the endpoint and everything in the canonical request except the object path are resolved
+ * once per batch, so each URL costs one SHA-256 and one HMAC. Large batches are split across the executor, the common ForkJoinPool by default.
+ *
+ * <pre>
+ * S3BulkPresigner presigner = S3BulkPresigner.builder().awsCredentials(credentials).region(Region.US_WEST_2).build();
+ * List&lt;URL&gt; urls = presigner.presignGetObjects("some-bucket", keys, Duration.ofMinutes(5));
+ * </pre>
+ */
+public class S3BulkPresigner {
+
+    private static final String SERVICE_NAME = "s3";
+    private static final long MAX_EXPIRES_SECONDS = Duration.ofDays(7).getSeconds();
+    // below this many keys per thread splitting the batch costs more than it saves
+    private static final int MIN_KEYS_PER_TASK = 256;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private AwsCredentialsProvider awsCredentialsProvider;
+    private Region region;
+    private Clock clock = Clock.systemUTC();
+    private Executor executor;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private SigV4Signer signer;
+    private S3Utilities s3Utilities;
+
+    private S3BulkPresigner() {
+
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public List<URL> presignGetObjects(String bucket, List<String> keys, Duration signatureDuration) {
+        return presign("GET", bucket, keys, signatureDuration);
+    }
+
+    public List<URL> presignPutObjects(String bucket, List<String> keys, Duration signatureDuration) {
+        return presign("PUT", bucket, keys, signatureDuration);
+    }
+
+    private List<URL> presign(String method, String bucket, List<String> keys, Duration signatureDuration) {
+        long expires = signatureDuration.getSeconds();
+        if (expires <= 0 || expires > MAX_EXPIRES_SECONDS) {
+            throw new IllegalArgumentException("Signature duration must be between 1 second and 7 days: " + signatureDuration);
+        }
+        if (keys.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Batch batch = new Batch(method, bucket, expires);
+        URL[] urls = new URL[keys.size()];
+        int tasks = Math.min(parallelism, keys.size() / MIN_KEYS_PER_TASK);
+        if (tasks <= 1) {
+            batch.sign(keys, urls, 0, urls.length);
+            return Arrays.asList(urls);
+        }
+        int size = (urls.length + tasks - 1) / tasks;
+        List<CompletableFuture<Void>> futures = new ArrayList<>(tasks - 1);
+        for (int from = size; from < urls.length; from += size) {
+            int start = from;
+            int end = Math.min(from + size, urls.length);
+            futures.add(CompletableFuture.runAsync(() -> batch.sign(keys, urls, start, end), executor));
+        }
+        // the calling thread signs the first range instead of waiting
+        batch.sign(keys, urls, 0, size);
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+        return Arrays.asList(urls);
+    }
+
+    /**
+     * The parts of the canonical request, string to sign and URL shared by every key of a batch.
+     */
+    private class Batch {
+        private final byte[] signingKey;
+        private final byte[] canonicalRequestPrefix;
+        private final byte[] canonicalRequestSuffix;
+        private final byte[] stringToSignPrefix;
+        private final String pathPrefix;
+        private final String urlPrefix;
+        private final String querySuffix;
+
+        Batch(String method, String bucket, long expires) {
+            AwsCredentials credentials = awsCredentialsProvider.resolveCredentials();
+            if (CredentialUtils.isAnonymous(credentials)) {
+                throw new IllegalStateException("Presigning requires credentials");
+            }
+            Instant signingTime = clock.instant();
+            String dateStamp = SigV4Signer.DATE_FORMATTER.format(signingTime);
+            String dateTime = SigV4Signer.TIME_FORMATTER.format(signingTime);
+            String scope = SigV4Signer.scope(dateStamp, region.id(), SERVICE_NAME);
+            String credential = SdkHttpUtils.urlEncode(StringUtils.trim(credentials.accessKeyId()) + "/" + scope);
+            String securityToken = credentials instanceof AwsSessionCredentials ? SdkHttpUtils.urlEncode(StringUtils.trim(((AwsSessionCredentials) credentials).sessionToken())) : null;
+            signingKey = signer.signingKey(credentials, dateStamp, region.id(), SERVICE_NAME);
+
+            // bucket addressing and endpoint as resolved by the SDK, the URL of a one character key ends with that key
+            URL endpoint = s3Utilities.getUrl(GetUrlRequest.builder().bucket(bucket).key("_").build());
+            String endpointPath = endpoint.getPath();
+            pathPrefix = endpointPath.substring(0, endpointPath.length() - 1);
+            String host = SigV4Signer.hostHeader(endpoint.getProtocol(), endpoint.getHost(), endpoint.getPort() == -1 ? null : endpoint.getPort());
+            urlPrefix = endpoint.getProtocol() + "://" + endpoint.getAuthority();
+
+            // canonical query parameters are sorted, the URL lists them in the order of the SDK presigner
+            StringBuilder canonicalQuery = new StringBuilder(256);
+            canonicalQuery.append("X-Amz-Algorithm=").append(SigV4Signer.ALGORITHM).append("&X-Amz-Credential=").append(credential).append("&X-Amz-Date=").append(dateTime).append("&X-Amz-Expires=")
+                    .append(expires);
+            if (securityToken != null) {
+                canonicalQuery.append("&X-Amz-Security-Token=").append(securityToken);
+            }
+            canonicalQuery.append("&X-Amz-SignedHeaders=host");
+            canonicalRequestPrefix = (method + "\n").getBytes(StandardCharsets.UTF_8);
+            canonicalRequestSuffix = ("\n" + canonicalQuery + "\nhost:" + host + "\n\nhost\n" + SigV4Signer.UNSIGNED_PAYLOAD).getBytes(StandardCharsets.UTF_8);
+            stringToSignPrefix = (SigV4Signer.ALGORITHM + "\n" + dateTime + "\n" + scope + "\n").getBytes(StandardCharsets.UTF_8);
+
+            StringBuilder query = new StringBuilder(256);
+            if (securityToken != null) {
+                query.append("X-Amz-Security-Token=").append(securityToken).append('&');
+            }
+            query.append("X-Amz-Algorithm=").append(SigV4Signer.ALGORITHM).append("&X-Amz-Date=").append(dateTime).append("&X-Amz-SignedHeaders=host&X-Amz-Expires=").append(expires)
+                    .append("&X-Amz-Credential=").append(credential).append("&X-Amz-Signature=");
+            querySuffix = query.toString();
+        }
+
+        void sign(List<String> keys, URL[] urls, int from, int to) {
+            MessageDigest digest;
+            Mac mac;
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+                mac = Mac.getInstance("HmacSHA256");
+                mac.init(new SecretKeySpec(signingKey, "HmacSHA256"));
+            } catch (Exception e) {
+                throw SdkClientException.builder().message("Unable to initialize presigning: " + e.getMessage()).cause(e).build();
+            }
+            byte[] hexHash = new byte[64];
+            char[] signature = new char[64];
+            StringBuilder url = new StringBuilder(512);
+            for (int i = from; i < to; i++) {
+                String key = keys.get(i);
+                if (StringUtils.isEmpty(key)) {
+                    throw new IllegalArgumentException("Key must not be empty");
+                }
+                String path = pathPrefix + SdkHttpUtils.urlEncodeIgnoreSlashes(key);
+                digest.update(canonicalRequestPrefix);
+                digest.update(path.getBytes(StandardCharsets.UTF_8));
+                digest.update(canonicalRequestSuffix);
+                byte[] hash = digest.digest();
+                for (int j = 0; j < hash.length; j++) {
+                    hexHash[j * 2] = (byte) HEX[(hash[j] >> 4) & 0xF];
+                    hexHash[j * 2 + 1] = (byte) HEX[hash[j] & 0xF];
+                }
+                mac.update(stringToSignPrefix);
+                byte[] hmac = mac.doFinal(hexHash);
+                for (int j = 0; j < hmac.length; j++) {
+                    signature[j * 2] = HEX[(hmac[j] >> 4) & 0xF];
+                    signature[j * 2 + 1] = HEX[hmac[j] & 0xF];
+                }
+                url.setLength(0);
+                url.append(urlPrefix).append(path).append('?').append(querySuffix).append(signature);
+                try {
+                    urls[i] = new URL(url.toString());
+                } catch (MalformedURLException e) {
+                    throw new IllegalArgumentException("Invalid presigned URL for key " + key, e);
+                }
+            }
+        }
+    }
+
+    public static class Builder {
+        S3BulkPresigner presigner = new S3BulkPresigner();
+
+        public S3BulkPresigner build() {
+            if (presigner.awsCredentialsProvider == null) {
+                presigner.awsCredentialsProvider = DefaultCredentialsProvider.create();
+            }
+            if (presigner.region == null) {
+                presigner.region = new DefaultAwsRegionProviderChain().getRegion();
+            }
+            if (presigner.executor == null) {
+                presigner.executor = ForkJoinPool.commonPool();
+            }
+            if (presigner.signer == null) {
+                presigner.signer = SigV4Signer.create();
+            }
+            presigner.s3Utilities = S3Utilities.builder().region(presigner.region).build();
+            return presigner;
+        }
+
+        /**
+         * Resolved once per batch, wrap a slow provider in a CachedCredentialsProvider.
+         */
+        public Builder awsCredentials(AwsCredentialsProvider awsCredentialsProvider) {
+            presigner.awsCredentialsProvider = awsCredentialsProvider;
+            return this;
+        }
+
+        public Builder region(Region region) {
+            presigner.region = region;
+            return this;
+        }
+
+        /**
+         * Source of the signing time, the system UTC clock by default.
+         */
+        public Builder clock(Clock clock) {
+            presigner.clock = clock;
+            return this;
+        }
+
+        /**
+         * Executor for the ranges of large batches, the common ForkJoinPool by default.
+         */
+        public Builder executor(Executor executor) {
+            presigner.executor = executor;
+            return this;
+        }
+
+        /**
+         * Maximum number of ranges a batch is split into, the number of processors by default. 1 signs on the calling thread.
+         */
+        public Builder parallelism(int parallelism) {
+            presigner.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Signer caching the derived signing keys, shared with an AWSSignerHttpClient to reuse its cache.
+         */
+        public Builder signer(SigV4Signer signer) {
+            presigner.signer = signer;
+            return this;
+        }
+    }
+
+}
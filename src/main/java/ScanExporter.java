@@ -0,0 +1,430 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonParser;
+
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
+import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
+import software.amazon.awssdk.utils.ThreadFactoryBuilder;
+
+/**
+ * Exports a whole table as NDJSON, one item per line converted with DynamoDBUtil.toJsonWithSets, or DynamoDBUtil.toTypedJson with dynamoDbJson(true), using a parallel Scan of totalSegments segments run by a bounded pool. Pages are serialized, and
+ * optionally gzip compressed, on the segment threads and appended to the output as whole pages. With gzip every page is a complete gzip member; concatenated members are read as one stream by gzip and
+ * GZIPInputStream.
+ * <p>
+ * With a checkpoint file, the LastEvaluatedKey of each segment and the length of the output file are saved after every page. When the export of a file fails, running it again with the same checkpoint truncates
+ * the file to the last checkpoint and resumes each segment where it stopped. The checkpoint is deleted when the export completes.
+ *
+ * <pre>
+ * ScanExporter exporter = ScanExporter.builder().client(dynamoDbClient).tableName("my-table").segments(16).readCapacityPerSecond(500).gzip(true).checkpoint(Paths.get("my-table.checkpoint")).build();
+ * long items = exporter.export(Paths.get("my-table.ndjson.gz"));
+ * </pre>
+ */
+public class ScanExporter {
+
+    private DynamoDbClient client;
+    private String tableName;
+    private int segments = Runtime.getRuntime().availableProcessors();
+    private int parallelism;
+    private Integer pageSize;
+    private boolean consistentRead;
+    private boolean gzip;
+    private boolean dynamoDbJson;
+    private Path checkpoint;
+    private CapacityRateLimiter rateLimiter;
+    private ItemEncryptor itemEncryptor;
+    private CapacityEncoder capacityEncoder;
+
+    private final LongAdder items = new LongAdder();
+    private final DoubleAdder consumedCapacity = new DoubleAdder();
+
+    private ScanExporter() {
+
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Exports the table to the file. The file is replaced, unless an unfinished checkpoint exists in which case the export resumes and appends to it.
+     *
+     * @return the number of items exported by this run
+     */
+    public long export(Path file) throws IOException, InterruptedException {
+        State state = checkpoint != null && Files.exists(checkpoint) ? State.load(checkpoint) : new State(segments);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // drops what was written after the last checkpoint
+            channel.truncate(state.outputLength);
+            channel.position(state.outputLength);
+            try (OutputStream out = new BufferedOutputStream(new NonClosingChannelOutputStream(channel), 64 * 1024)) {
+                return export(out, state);
+            }
+        }
+    }
+
+    /**
+     * Exports the table to the stream, which is flushed but not closed. A checkpoint resumes the segments but the stream has to be positioned by the caller.
+     *
+     * @return the number of items exported by this run
+     */
+    public long export(OutputStream out) throws IOException, InterruptedException {
+        State state = checkpoint != null && Files.exists(checkpoint) ? State.load(checkpoint) : new State(segments);
+        return export(out, state);
+    }
+
+    private long export(OutputStream out, State state) throws IOException, InterruptedException {
+        long start = items.sum();
+        int threads = Math.min(state.totalSegments, parallelism > 0 ? parallelism : segments);
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().threadNamePrefix("scan-exporter").daemonThreads(true).build());
+        List<Future<?>> futures = new ArrayList<>();
+        Throwable failure = null;
+        try {
+            for (int segment = 0; segment < state.totalSegments; segment++) {
+                if (!state.done[segment]) {
+                    int s = segment;
+                    futures.add(executor.submit(() -> {
+                        scanSegment(s, state, out);
+                        return null;
+                    }));
+                }
+            }
+            // on failure the other segments stop after their current page, so the checkpoint stays consistent
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    state.stopped = true;
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            state.stopped = true;
+            executor.shutdownNow();
+            throw e;
+        } finally {
+            executor.shutdown();
+        }
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure != null) {
+            throw SdkClientException.create("Export of " + tableName + " failed", failure);
+        }
+        out.flush();
+        if (checkpoint != null) {
+            Files.deleteIfExists(checkpoint);
+        }
+        return items.sum() - start;
+    }
+
+    private void scanSegment(int segment, State state, OutputStream out) throws IOException, InterruptedException {
+        Map<String, AttributeValue> startKey;
+        synchronized (state) {
+            startKey = state.lastEvaluatedKeys.get(segment);
+        }
+        do {
+            if (state.stopped) {
+                return;
+            }
+            ScanRequest.Builder request = ScanRequest.builder().tableName(tableName).segment(segment).totalSegments(state.totalSegments).consistentRead(consistentRead)
+                    .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL).limit(pageSize);
+            if (startKey != null) {
+                request.exclusiveStartKey(startKey);
+            }
+            ScanResponse response = client.scan(request.build());
+            byte[] page = page(response.items());
+            startKey = response.hasLastEvaluatedKey() && !response.lastEvaluatedKey().isEmpty() ? response.lastEvaluatedKey() : null;
+            synchronized (state) {
+                out.write(page);
+                items.add(response.items().size());
+                if (checkpoint != null) {
+                    out.flush();
+                    state.outputLength += page.length;
+                    state.lastEvaluatedKeys.put(segment, startKey);
+                    state.done[segment] = startKey == null;
+                    state.save(checkpoint);
+                }
+            }
+            if (response.consumedCapacity() != null && response.consumedCapacity().capacityUnits() != null) {
+                double units = response.consumedCapacity().capacityUnits();
+                consumedCapacity.add(units);
+                if (rateLimiter != null) {
+                    rateLimiter.consume(units);
+                }
+            }
+        } while (startKey != null);
+    }
+
+    private byte[] page(List<Map<String, AttributeValue>> items) throws IOException {
+        ByteArrayOutputStream page = new ByteArrayOutputStream(64 * 1024);
+        OutputStream out = gzip ? new GZIPOutputStream(page, 8192) : page;
+        for (Map<String, AttributeValue> item : items) {
+            Map<String, AttributeValue> plain = itemEncryptor != null ? itemEncryptor.decrypt(item) : item;
+            if (capacityEncoder != null) {
+                plain = capacityEncoder.decode(plain);
+            }
+            if (dynamoDbJson) {
+                DynamoDBUtil.toTypedJson(plain, out);
+            } else {
+                DynamoDBUtil.toJsonWithSets(plain, out);
+            }
+            out.write('\n');
+        }
+        out.close();
+        return page.toByteArray();
+    }
+
+    /** Items exported since the exporter was built */
+    public long items() {
+        return items.sum();
+    }
+
+    /** Read capacity units consumed since the exporter was built */
+    public double consumedCapacity() {
+        return consumedCapacity.sum();
+    }
+
+    // segment progress, guarded by its monitor
+    private static class State {
+        final int totalSegments;
+        final boolean[] done;
+        final Map<Integer, Map<String, AttributeValue>> lastEvaluatedKeys = new HashMap<>();
+        long outputLength;
+        volatile boolean stopped;
+
+        State(int totalSegments) {
+            this.totalSegments = totalSegments;
+            this.done = new boolean[totalSegments];
+        }
+
+        // {"totalSegments":4,"outputLength":123,"done":[0],"lastEvaluatedKeys":{"1":{"pk":{"S":"a"}}}}
+        void save(Path checkpoint) throws IOException {
+            Path temp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+            try (OutputStream os = Files.newOutputStream(temp); JsonGenerator generator = DynamoDBUtil.JSON_GENERATOR_FACTORY.createGenerator(os)) {
+                generator.writeStartObject();
+                generator.write("totalSegments", totalSegments);
+                generator.write("outputLength", outputLength);
+                generator.writeStartArray("done");
+                for (int i = 0; i < totalSegments; i++) {
+                    if (done[i]) {
+                        generator.write(i);
+                    }
+                }
+                generator.writeEnd();
+                generator.writeStartObject("lastEvaluatedKeys");
+                for (Map.Entry<Integer, Map<String, AttributeValue>> key : lastEvaluatedKeys.entrySet()) {
+                    if (key.getValue() != null) {
+                        generator.writeStartObject(String.valueOf(key.getKey()));
+                        for (Map.Entry<String, AttributeValue> attribute : key.getValue().entrySet()) {
+                            generator.writeKey(attribute.getKey());
+                            DynamoDBUtil.writeTyped(attribute.getValue(), generator);
+                        }
+                        generator.writeEnd();
+                    }
+                }
+                generator.writeEnd();
+                generator.writeEnd();
+            }
+            Files.move(temp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        static State load(Path checkpoint) throws IOException {
+            try (InputStream is = Files.newInputStream(checkpoint); JsonParser parser = DynamoDBUtil.JSON_PARSER_FACTORY.createParser(is)) {
+                parser.next();
+                State state = null;
+                long outputLength = 0;
+                List<Integer> done = new ArrayList<>();
+                Map<Integer, Map<String, AttributeValue>> keys = new HashMap<>();
+                while (parser.next() == JsonParser.Event.KEY_NAME) {
+                    String name = parser.getString();
+                    parser.next();
+                    switch (name) {
+                    case "totalSegments":
+                        state = new State(parser.getInt());
+                        break;
+                    case "outputLength":
+                        outputLength = parser.getLong();
+                        break;
+                    case "done":
+                        while (parser.next() != JsonParser.Event.END_ARRAY) {
+                            done.add(parser.getInt());
+                        }
+                        break;
+                    case "lastEvaluatedKeys":
+                        while (parser.next() == JsonParser.Event.KEY_NAME) {
+                            int segment = Integer.parseInt(parser.getString());
+                            parser.next();
+                            Map<String, AttributeValue> key = new HashMap<>();
+                            while (parser.next() == JsonParser.Event.KEY_NAME) {
+                                String attribute = parser.getString();
+                                parser.next();
+                                key.put(attribute, DynamoDBUtil.readTyped(parser));
+                            }
+                            keys.put(segment, key);
+                        }
+                        break;
+                    default:
+                        parser.skipObject();
+                    }
+                }
+                if (state == null) {
+                    throw new IOException("Invalid checkpoint " + checkpoint);
+                }
+                state.outputLength = outputLength;
+                for (int i : done) {
+                    state.done[i] = true;
+                }
+                state.lastEvaluatedKeys.putAll(keys);
+                return state;
+            } catch (RuntimeException e) {
+                throw new IOException("Invalid checkpoint " + checkpoint, e);
+            }
+        }
+    }
+
+    private static class NonClosingChannelOutputStream extends OutputStream {
+        private final FileChannel channel;
+
+        NonClosingChannelOutputStream(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    public static class Builder {
+        ScanExporter exporter = new ScanExporter();
+
+        public ScanExporter build() {
+            if (exporter.client == null || exporter.tableName == null) {
+                throw new IllegalArgumentException("client and tableName are required");
+            }
+            return exporter;
+        }
+
+        public Builder client(DynamoDbClient client) {
+            exporter.client = client;
+            return this;
+        }
+
+        public Builder tableName(String tableName) {
+            exporter.tableName = tableName;
+            return this;
+        }
+
+        /**
+         * TotalSegments of the parallel Scan, the number of processors by default. A resumed export keeps the number of segments of its checkpoint.
+         */
+        public Builder segments(int segments) {
+            exporter.segments = segments;
+            return this;
+        }
+
+        /**
+         * Segments scanned concurrently, all of them by default.
+         */
+        public Builder parallelism(int parallelism) {
+            exporter.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Scan Limit, by default a page is 1 MB of items.
+         */
+        public Builder pageSize(int pageSize) {
+            exporter.pageSize = pageSize;
+            return this;
+        }
+
+        public Builder consistentRead(boolean consistentRead) {
+            exporter.consistentRead = consistentRead;
+            return this;
+        }
+
+        public Builder gzip(boolean gzip) {
+            exporter.gzip = gzip;
+            return this;
+        }
+
+        /**
+         * Writes DynamoDB JSON, {"name":{"S":"value"}}, which keeps B, BS, SS, NS and NULL values that plain JSON loses or turns into arrays. Import it with BatchImporter.Builder.dynamoDbJson(true).
+         */
+        public Builder dynamoDbJson(boolean dynamoDbJson) {
+            exporter.dynamoDbJson = dynamoDbJson;
+            return this;
+        }
+
+        /**
+         * File recording the progress of each segment so a failed export can be resumed.
+         */
+        public Builder checkpoint(Path checkpoint) {
+            exporter.checkpoint = checkpoint;
+            return this;
+        }
+
+        /**
+         * Limits the read capacity units consumed per second by all segments together.
+         */
+        public Builder readCapacityPerSecond(double readCapacityPerSecond) {
+            exporter.rateLimiter = CapacityRateLimiter.create(readCapacityPerSecond);
+            return this;
+        }
+
+        /**
+         * Decrypts the encrypted attributes of each item before it is exported.
+         */
+        public Builder itemEncryptor(ItemEncryptor itemEncryptor) {
+            exporter.itemEncryptor = itemEncryptor;
+            return this;
+        }
+
+        /**
+         * Restores the attributes compressed by the encoder, such as the BatchImporter compressOversized encoder, after the item is decrypted.
+         */
+        public Builder capacityEncoder(CapacityEncoder capacityEncoder) {
+            exporter.capacityEncoder = capacityEncoder;
+            return this;
+        }
+    }
+
+}
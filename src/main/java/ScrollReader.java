@@ -0,0 +1,360 @@
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonValue;
+
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.http.SdkHttpFullRequest;
+import software.amazon.awssdk.http.SdkHttpMethod;
+import software.amazon.awssdk.utils.ThreadFactoryBuilder;
+import software.amazon.awssdk.utils.http.SdkHttpUtils;
+
+/**
+ * Reads every document of an index with N sliced scrolls running concurrently, one per thread, so a full read uses all shards of the domain instead of a single sequential scroll. Hits are returned as one
+ * merged Stream, in no particular order, or passed to a callback. Pages are handed over through a bounded queue so the slices pause when the consumer falls behind. Open scroll contexts are cleared when the
+ * stream is closed, including when it is closed early.
+ *
+ * <pre>
+ * try (ScrollReader reader = ScrollReader.builder().client(client).endpoint(URI.create("https://search-domain.us-west-1.es.amazonaws.com")).index("my-index").slices(8).build();
+ *         Stream&lt;JsonObject&gt; hits = reader.stream()) {
+ *     hits.forEach(hit -&gt; ...);
+ * }
+ * </pre>
+ */
+public class ScrollReader implements AutoCloseable {
+
+    // marks the end of one slice in the page queue
+    private static final List<JsonObject> SLICE_DONE = new ArrayList<>();
+
+    private AWSSignerHttpClient client;
+    private URI endpoint;
+    private String basePath;
+    private String index;
+    private JsonObject query = Json.createObjectBuilder().add("match_all", JsonValue.EMPTY_JSON_OBJECT).build();
+    private int slices = Runtime.getRuntime().availableProcessors();
+    private int pageSize = 1000;
+    private Duration keepAlive = Duration.ofMinutes(1);
+    private int queuedPages;
+    private ExecutorService executor;
+    private boolean shutdownExecutor;
+
+    private final Set<String> scrollIds = ConcurrentHashMap.newKeySet();
+    private final List<Future<?>> futures = new ArrayList<>();
+    private BlockingQueue<List<JsonObject>> pages;
+    private volatile Throwable failure;
+    private volatile boolean closed;
+    private boolean started;
+
+    private ScrollReader() {
+
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Starts the slices and returns their hits as a single lazy Stream. Closing the stream closes the reader.
+     */
+    public Stream<JsonObject> stream() {
+        start();
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new PageIterator(), Spliterator.NONNULL), false).onClose(this::close);
+    }
+
+    /**
+     * Reads all hits and passes them to the consumer on the calling thread. Returns the number of hits.
+     */
+    public long forEach(Consumer<JsonObject> consumer) {
+        try (Stream<JsonObject> hits = stream()) {
+            long[] count = new long[1];
+            hits.forEach(hit -> {
+                consumer.accept(hit);
+                count[0]++;
+            });
+            return count[0];
+        }
+    }
+
+    private synchronized void start() {
+        if (started) {
+            throw new IllegalStateException("ScrollReader can only be read once");
+        }
+        started = true;
+        for (int i = 0; i < slices; i++) {
+            int slice = i;
+            futures.add(executor.submit(() -> readSlice(slice)));
+        }
+    }
+
+    private void readSlice(int slice) {
+        String scrollId = null;
+        try {
+            if (closed) {
+                return;
+            }
+            JsonObjectBuilder search = Json.createObjectBuilder().add("size", pageSize).add("query", query).add("sort", Json.createArrayBuilder().add("_doc"));
+            if (slices > 1) {
+                search.add("slice", Json.createObjectBuilder().add("id", slice).add("max", slices));
+            }
+            SdkHttpFullRequest request = request(SdkHttpMethod.POST, "/" + index + "/_search", search.build()).toBuilder().putRawQueryParameter("scroll", keepAliveParameter()).build();
+            JsonObject page = client.execute(request);
+            while (!closed) {
+                String nextScrollId = page.getString("_scroll_id", null);
+                if (nextScrollId != null && !nextScrollId.equals(scrollId)) {
+                    if (scrollId != null) {
+                        scrollIds.remove(scrollId);
+                    }
+                    scrollId = nextScrollId;
+                    scrollIds.add(scrollId);
+                }
+                JsonArray hits = page.getJsonObject("hits").getJsonArray("hits");
+                if (hits.isEmpty() || scrollId == null) {
+                    break;
+                }
+                put(hits.getValuesAs(JsonObject.class));
+                if (closed) {
+                    break;
+                }
+                page = client.execute(request(SdkHttpMethod.POST, "/_search/scroll", Json.createObjectBuilder().add("scroll", keepAliveParameter()).add("scroll_id", scrollId).build()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            if (failure == null) {
+                failure = e;
+            }
+        } finally {
+            try {
+                if (scrollId != null && scrollIds.remove(scrollId)) {
+                    clearScrolls(Collections.singletonList(scrollId));
+                }
+            } catch (RuntimeException e) {
+                // the scroll expires after keepAlive
+            }
+            try {
+                put(SLICE_DONE);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // blocks while the consumer is behind, gives up once the reader is closed
+    private void put(List<JsonObject> page) throws InterruptedException {
+        while (!closed && !pages.offer(page, 100, TimeUnit.MILLISECONDS)) {
+        }
+    }
+
+    // whole seconds are sent as such, shorter or fractional keep alives in milliseconds
+    private String keepAliveParameter() {
+        return keepAlive.getNano() == 0 ? keepAlive.getSeconds() + "s" : keepAlive.toMillis() + "ms";
+    }
+
+    private SdkHttpFullRequest request(SdkHttpMethod method, String path, JsonObject body) {
+        byte[] json = body.toString().getBytes(StandardCharsets.UTF_8);
+        return SdkHttpFullRequest.builder().method(method).uri(endpoint).encodedPath(basePath + path).contentStreamProvider(() -> new ByteArrayInputStream(json)).putHeader("Content-Type", "application/json")
+                .putHeader("Content-Length", String.valueOf(json.length)).build();
+    }
+
+    // the ids go in the path, the SDK Apache client drops DELETE bodies
+    private void clearScrolls(Collection<String> ids) {
+        try {
+            String path = "/_search/scroll/" + ids.stream().map(SdkHttpUtils::urlEncode).collect(Collectors.joining(","));
+            client.execute(SdkHttpFullRequest.builder().method(SdkHttpMethod.DELETE).uri(endpoint).encodedPath(basePath + path).build());
+        } catch (SdkServiceException e) {
+            // 404 when the scroll already expired
+        }
+    }
+
+    /**
+     * Stops the slices and clears the scroll contexts that are still open. Waits for in-flight scroll requests to complete so every slice clears its own scroll.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        List<Future<?>> running;
+        synchronized (this) {
+            running = new ArrayList<>(futures);
+        }
+        for (Future<?> future : running) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                // reported through the stream
+            }
+        }
+        if (shutdownExecutor) {
+            executor.shutdown();
+        }
+        if (!scrollIds.isEmpty()) {
+            List<String> ids = new ArrayList<>(scrollIds);
+            scrollIds.clear();
+            clearScrolls(ids);
+        }
+    }
+
+    private class PageIterator implements Iterator<JsonObject> {
+        private Iterator<JsonObject> page = new ArrayList<JsonObject>().iterator();
+        private int remainingSlices = slices;
+
+        @Override
+        public boolean hasNext() {
+            while (!page.hasNext()) {
+                if (remainingSlices == 0) {
+                    checkFailure();
+                    return false;
+                }
+                List<JsonObject> next;
+                try {
+                    next = pages.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw SdkClientException.create("Interrupted while waiting for scroll results", e);
+                }
+                if (next == SLICE_DONE) {
+                    remainingSlices--;
+                    checkFailure();
+                } else {
+                    page = next.iterator();
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public JsonObject next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return page.next();
+        }
+
+        private void checkFailure() {
+            Throwable t = failure;
+            if (t instanceof RuntimeException) {
+                throw (RuntimeException) t;
+            } else if (t != null) {
+                throw SdkClientException.create("Scroll failed", t);
+            }
+        }
+    }
+
+    public static class Builder {
+        ScrollReader reader = new ScrollReader();
+
+        public ScrollReader build() {
+            if (reader.client == null || reader.endpoint == null || reader.index == null) {
+                throw new IllegalArgumentException("client, endpoint and index are required");
+            }
+            if (reader.keepAlive.toMillis() < 1) {
+                throw new IllegalArgumentException("keepAlive must be at least one millisecond");
+            }
+            String path = reader.endpoint.getRawPath() != null ? reader.endpoint.getRawPath() : "";
+            reader.basePath = path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+            if (reader.executor == null) {
+                reader.executor = Executors.newFixedThreadPool(reader.slices, new ThreadFactoryBuilder().threadNamePrefix("scroll-reader").daemonThreads(true).build());
+                reader.shutdownExecutor = true;
+            }
+            reader.pages = new ArrayBlockingQueue<>(reader.queuedPages > 0 ? reader.queuedPages : reader.slices * 2);
+            return reader;
+        }
+
+        public Builder client(AWSSignerHttpClient client) {
+            reader.client = client;
+            return this;
+        }
+
+        /**
+         * The domain endpoint, for instance https://search-some-domain.us-west-1.es.amazonaws.com. A path, for instance of a proxy, is kept as the prefix of the request paths.
+         */
+        public Builder endpoint(URI endpoint) {
+            reader.endpoint = endpoint;
+            return this;
+        }
+
+        /**
+         * Index name, alias or pattern
+         */
+        public Builder index(String index) {
+            reader.index = index;
+            return this;
+        }
+
+        /**
+         * The query clause, match_all by default.
+         */
+        public Builder query(JsonObject query) {
+            reader.query = query;
+            return this;
+        }
+
+        /**
+         * Number of concurrent slices, the number of processors by default. Up to the number of shards of the index is most efficient.
+         */
+        public Builder slices(int slices) {
+            reader.slices = slices;
+            return this;
+        }
+
+        public Builder pageSize(int pageSize) {
+            reader.pageSize = pageSize;
+            return this;
+        }
+
+        public Builder keepAlive(Duration keepAlive) {
+            reader.keepAlive = keepAlive;
+            return this;
+        }
+
+        /**
+         * Pages buffered ahead of the consumer, twice the number of slices by default.
+         */
+        public Builder queuedPages(int queuedPages) {
+            reader.queuedPages = queuedPages;
+            return this;
+        }
+
+        /**
+         * Executor running the slices, it needs a thread per slice. By default a pool owned by the reader is created.
+         */
+        public Builder executor(ExecutorService executor) {
+            reader.executor = executor;
+            return this;
+        }
+    }
+
+}
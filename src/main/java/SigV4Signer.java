@@ -0,0 +1,482 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import software.amazon.awssdk.auth.credentials.AwsCredentials;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+import software.amazon.awssdk.auth.credentials.CredentialUtils;
+import software.amazon.awssdk.auth.signer.AwsSignerExecutionAttribute;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.signer.Signer;
+import software.amazon.awssdk.http.ContentStreamProvider;
+import software.amazon.awssdk.http.SdkHttpFullRequest;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.utils.BinaryUtils;
+import software.amazon.awssdk.utils.StringUtils;
+import software.amazon.awssdk.utils.http.SdkHttpUtils;
+
+/**
+ * AWS Signature Version 4 signer producing the same output as the SDK Aws4Signer. Derived signing keys are cached per access key, date, region and service in a lock free map so the per request cost is a single
+ * HMAC over the string to sign.
+ */
+public class SigV4Signer implements Signer {
+
+    public static final String ALGORITHM = "AWS4-HMAC-SHA256";
+    public static final String EMPTY_SHA256_HEX = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+    public static final String UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD";
+    public static final String STREAMING_PAYLOAD = "STREAMING-AWS4-HMAC-SHA256-PAYLOAD";
+    /** Selects how the request body is covered by the signature, SIGNED when absent */
+    public static final ExecutionAttribute<PayloadSigning> PAYLOAD_SIGNING = new ExecutionAttribute<>("SigV4PayloadSigning");
+
+    /**
+     * SIGNED hashes the whole body before the request is sent, so the body is read twice. UNSIGNED sends UNSIGNED-PAYLOAD instead of the hash over HTTPS, plain HTTP requests are still signed. STREAMING sends the
+     * body aws-chunked in 128 KiB chunks each signed with the previous chunk signature (STREAMING-AWS4-HMAC-SHA256-PAYLOAD), so it is read once with constant memory. Both need service support, S3 accepts
+     * them.
+     */
+    public enum PayloadSigning {
+        SIGNED, UNSIGNED, STREAMING
+    }
+
+    static final int STREAMING_CHUNK_SIZE = 128 * 1024;
+
+    static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd").withZone(ZoneOffset.UTC);
+    static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+
+    private static final List<String> IGNORED_HEADERS = Arrays.asList("connection", "x-amzn-trace-id", "user-agent", "expect");
+    private static final int SIGNING_KEY_CACHE_MAX_SIZE = 300;
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw SdkClientException.builder().message("Unable to get SHA256 Function " + e.getMessage()).cause(e).build();
+        }
+    });
+
+    private static final ThreadLocal<Mac> HMAC_SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return Mac.getInstance("HmacSHA256");
+        } catch (NoSuchAlgorithmException e) {
+            throw SdkClientException.builder().message("Unable to get HmacSHA256 Function " + e.getMessage()).cause(e).build();
+        }
+    });
+
+    private final Clock clock;
+    private final Map<SigningKeyId, byte[]> signingKeys = new ConcurrentHashMap<>();
+
+    private SigV4Signer(Clock clock) {
+        this.clock = clock;
+    }
+
+    public static SigV4Signer create() {
+        return new SigV4Signer(Clock.systemUTC());
+    }
+
+    public static SigV4Signer create(Clock clock) {
+        return new SigV4Signer(clock);
+    }
+
+    @Override
+    public SdkHttpFullRequest sign(SdkHttpFullRequest request, ExecutionAttributes executionAttributes) {
+        AwsCredentials credentials = executionAttributes.getAttribute(AwsSignerExecutionAttribute.AWS_CREDENTIALS);
+        String serviceName = executionAttributes.getAttribute(AwsSignerExecutionAttribute.SERVICE_SIGNING_NAME);
+        Region region = executionAttributes.getAttribute(AwsSignerExecutionAttribute.SIGNING_REGION);
+        Integer timeOffset = executionAttributes.getAttribute(AwsSignerExecutionAttribute.TIME_OFFSET);
+        Boolean doubleUrlEncode = executionAttributes.getAttribute(AwsSignerExecutionAttribute.SIGNER_DOUBLE_URL_ENCODE);
+        PayloadSigning payloadSigning = executionAttributes.getAttribute(PAYLOAD_SIGNING);
+        Instant signingTime = timeOffset != null ? clock.instant().minus(Duration.ofSeconds(timeOffset)) : clock.instant();
+        return sign(request, credentials, region.id(), serviceName, signingTime, doubleUrlEncode == null || doubleUrlEncode, payloadSigning != null ? payloadSigning : PayloadSigning.SIGNED);
+    }
+
+    public SdkHttpFullRequest sign(SdkHttpFullRequest request, AwsCredentials credentials, String region, String serviceName) {
+        return sign(request, credentials, region, serviceName, clock.instant(), true);
+    }
+
+    public SdkHttpFullRequest sign(SdkHttpFullRequest request, AwsCredentials credentials, String region, String serviceName, Instant signingTime, boolean doubleUrlEncode) {
+        if (CredentialUtils.isAnonymous(credentials)) {
+            return request;
+        }
+        String contentSha256 = request.firstMatchingHeader("x-amz-content-sha256").filter(h -> !h.equals("required")).orElseGet(() -> payloadHash(request.contentStreamProvider().orElse(null)));
+        return sign(request, credentials, region, serviceName, signingTime, doubleUrlEncode, contentSha256);
+    }
+
+    /**
+     * Signs the request with the given payload signing mode, producing the same output as the SDK AwsS3V4Signer (STREAMING) and Aws4UnsignedPayloadSigner (UNSIGNED).
+     */
+    public SdkHttpFullRequest sign(SdkHttpFullRequest request, AwsCredentials credentials, String region, String serviceName, Instant signingTime, boolean doubleUrlEncode, PayloadSigning payloadSigning) {
+        if (payloadSigning == PayloadSigning.SIGNED || !request.contentStreamProvider().isPresent() || CredentialUtils.isAnonymous(credentials)) {
+            return sign(request, credentials, region, serviceName, signingTime, doubleUrlEncode);
+        }
+        if (payloadSigning == PayloadSigning.UNSIGNED) {
+            if (!"https".equals(request.protocol())) {
+                return sign(request, credentials, region, serviceName, signingTime, doubleUrlEncode);
+            }
+            return sign(request.toBuilder().putHeader("x-amz-content-sha256", "required").build(), credentials, region, serviceName, signingTime, doubleUrlEncode, UNSIGNED_PAYLOAD);
+        }
+        ContentStreamProvider contentStreamProvider = request.contentStreamProvider().get();
+        long contentLength = request.firstMatchingHeader("Content-Length").map(Long::parseLong).orElseGet(() -> contentLength(contentStreamProvider));
+        SdkHttpFullRequest.Builder mutableRequest = request.toBuilder();
+        mutableRequest.putHeader("x-amz-content-sha256", "required");
+        mutableRequest.putHeader("x-amz-decoded-content-length", Long.toString(contentLength));
+        mutableRequest.putHeader("Content-Length", Long.toString(streamingContentLength(contentLength)));
+        String signature = sign(mutableRequest, credentials, region, serviceName, signingTime, doubleUrlEncode, STREAMING_PAYLOAD);
+        byte[] signingKey = signingKey(credentials, DATE_FORMATTER.format(signingTime), region, serviceName);
+        String dateTime = TIME_FORMATTER.format(signingTime);
+        String scope = scope(DATE_FORMATTER.format(signingTime), region, serviceName);
+        // every attempt gets a new stream with a new chunk signature chain
+        mutableRequest.contentStreamProvider(() -> new ChunkSigningInputStream(contentStreamProvider.newStream(), signingKey, dateTime, scope, signature));
+        return mutableRequest.build();
+    }
+
+    /**
+     * Signs the request using a precomputed payload hash, for instance UNSIGNED-PAYLOAD or a streaming payload marker.
+     */
+    public SdkHttpFullRequest sign(SdkHttpFullRequest request, AwsCredentials credentials, String region, String serviceName, Instant signingTime, boolean doubleUrlEncode, String contentSha256) {
+        SdkHttpFullRequest.Builder mutableRequest = request.toBuilder();
+        sign(mutableRequest, credentials, region, serviceName, signingTime, doubleUrlEncode, contentSha256);
+        return mutableRequest.build();
+    }
+
+    // adds the signing headers and returns the hex signature
+    private String sign(SdkHttpFullRequest.Builder mutableRequest, AwsCredentials credentials, String region, String serviceName, Instant signingTime, boolean doubleUrlEncode, String contentSha256) {
+        String accessKeyId = StringUtils.trim(credentials.accessKeyId());
+        if (credentials instanceof AwsSessionCredentials) {
+            mutableRequest.putHeader("X-Amz-Security-Token", StringUtils.trim(((AwsSessionCredentials) credentials).sessionToken()));
+        }
+        mutableRequest.putHeader("Host", hostHeader(mutableRequest.protocol(), mutableRequest.host(), mutableRequest.port()));
+        String dateTime = TIME_FORMATTER.format(signingTime);
+        mutableRequest.putHeader("X-Amz-Date", dateTime);
+        mutableRequest.firstMatchingHeader("x-amz-content-sha256").filter(h -> h.equals("required")).ifPresent(h -> mutableRequest.putHeader("x-amz-content-sha256", contentSha256));
+
+        Map<String, List<String>> canonicalHeaders = canonicalHeaders(mutableRequest.headers());
+        String signedHeaders = String.join(";", canonicalHeaders.keySet());
+        StringBuilder canonicalRequest = new StringBuilder(512);
+        canonicalRequest.append(mutableRequest.method().name()).append('\n');
+        canonicalRequest.append(canonicalPath(mutableRequest.encodedPath(), doubleUrlEncode)).append('\n');
+        canonicalRequest.append(canonicalQueryString(mutableRequest.rawQueryParameters())).append('\n');
+        appendCanonicalHeaders(canonicalRequest, canonicalHeaders);
+        canonicalRequest.append('\n').append(signedHeaders).append('\n').append(contentSha256);
+
+        String dateStamp = DATE_FORMATTER.format(signingTime);
+        String scope = scope(dateStamp, region, serviceName);
+        String signature = BinaryUtils.toHex(hmacSha256(signingKey(credentials, dateStamp, region, serviceName), stringToSign(dateTime, scope, canonicalRequest.toString())));
+        mutableRequest.putHeader("Authorization", ALGORITHM + " Credential=" + accessKeyId + "/" + scope + ", SignedHeaders=" + signedHeaders + ", Signature=" + signature);
+        return signature;
+    }
+
+    /**
+     * Returns the derived kSigning key, computing the HMAC chain only on the first use for a given access key, date, region and service.
+     */
+    public byte[] signingKey(AwsCredentials credentials, String dateStamp, String region, String serviceName) {
+        SigningKeyId id = new SigningKeyId(StringUtils.trim(credentials.accessKeyId()), dateStamp, region, serviceName);
+        byte[] signingKey = signingKeys.get(id);
+        if (signingKey == null) {
+            if (signingKeys.size() >= SIGNING_KEY_CACHE_MAX_SIZE) {
+                signingKeys.clear();
+            }
+            byte[] kSecret = ("AWS4" + StringUtils.trim(credentials.secretAccessKey())).getBytes(StandardCharsets.UTF_8);
+            byte[] kDate = hmacSha256(kSecret, dateStamp);
+            byte[] kRegion = hmacSha256(kDate, region);
+            byte[] kService = hmacSha256(kRegion, serviceName);
+            signingKey = hmacSha256(kService, "aws4_request");
+            signingKeys.put(id, signingKey);
+        }
+        return signingKey;
+    }
+
+    static String scope(String dateStamp, String region, String serviceName) {
+        return dateStamp + "/" + region + "/" + serviceName + "/aws4_request";
+    }
+
+    static String stringToSign(String dateTime, String scope, String canonicalRequest) {
+        return ALGORITHM + "\n" + dateTime + "\n" + scope + "\n" + BinaryUtils.toHex(sha256(canonicalRequest.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    static String hostHeader(SdkHttpFullRequest request) {
+        return hostHeader(request.protocol(), request.host(), request.port());
+    }
+
+    static String hostHeader(String protocol, String host, Integer port) {
+        if (SdkHttpUtils.isUsingStandardPort(protocol, port)) {
+            return host;
+        }
+        return host + ":" + port;
+    }
+
+    /**
+     * Length of the aws-chunked encoding of a body of the given length: the data chunks, each framed as <code>hex-size;chunk-signature=sig\r\n data \r\n</code>, and the final empty chunk.
+     */
+    public static long streamingContentLength(long contentLength) {
+        long fullChunks = contentLength / STREAMING_CHUNK_SIZE;
+        long remaining = contentLength % STREAMING_CHUNK_SIZE;
+        return fullChunks * signedChunkLength(STREAMING_CHUNK_SIZE) + (remaining > 0 ? signedChunkLength(remaining) : 0) + signedChunkLength(0);
+    }
+
+    private static long signedChunkLength(long chunkSize) {
+        return Long.toHexString(chunkSize).length() + CHUNK_SIGNATURE_HEADER.length + 64 + 2 + chunkSize + 2;
+    }
+
+    private static long contentLength(ContentStreamProvider contentStreamProvider) {
+        long length = 0;
+        byte[] buffer = new byte[8192];
+        try (InputStream is = contentStreamProvider.newStream()) {
+            int read;
+            while ((read = is.read(buffer)) > -1) {
+                length += read;
+            }
+        } catch (IOException e) {
+            throw SdkClientException.builder().message("Unable to read request payload to determine its length: " + e.getMessage()).cause(e).build();
+        }
+        return length;
+    }
+
+    static String canonicalPath(String encodedPath, boolean doubleUrlEncode) {
+        if (StringUtils.isEmpty(encodedPath)) {
+            return "/";
+        }
+        String value = doubleUrlEncode ? SdkHttpUtils.urlEncodeIgnoreSlashes(encodedPath) : encodedPath;
+        return value.startsWith("/") ? value : "/" + value;
+    }
+
+    static String canonicalQueryString(Map<String, List<String>> parameters) {
+        if (parameters.isEmpty()) {
+            return "";
+        }
+        Map<String, List<String>> sorted = new TreeMap<>();
+        for (Map.Entry<String, List<String>> entry : parameters.entrySet()) {
+            List<String> encodedValues = new ArrayList<>(entry.getValue().size());
+            for (String value : entry.getValue()) {
+                String encodedValue = SdkHttpUtils.urlEncode(value);
+                encodedValues.add(encodedValue == null ? "" : encodedValue);
+            }
+            Collections.sort(encodedValues);
+            sorted.put(SdkHttpUtils.urlEncode(entry.getKey()), encodedValues);
+        }
+        return SdkHttpUtils.flattenQueryParameters(sorted).orElse("");
+    }
+
+    static Map<String, List<String>> canonicalHeaders(Map<String, List<String>> headers) {
+        Map<String, List<String>> result = new TreeMap<>();
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            String lowerCaseHeader = StringUtils.lowerCase(header.getKey());
+            if (!IGNORED_HEADERS.contains(lowerCaseHeader)) {
+                result.computeIfAbsent(lowerCaseHeader, x -> new ArrayList<>()).addAll(header.getValue());
+            }
+        }
+        return result;
+    }
+
+    static void appendCanonicalHeaders(StringBuilder buffer, Map<String, List<String>> canonicalHeaders) {
+        for (Map.Entry<String, List<String>> header : canonicalHeaders.entrySet()) {
+            for (String value : header.getValue()) {
+                appendCompacted(buffer, header.getKey());
+                buffer.append(':');
+                if (value != null) {
+                    appendCompacted(buffer, value);
+                }
+                buffer.append('\n');
+            }
+        }
+    }
+
+    private static void appendCompacted(StringBuilder buffer, String source) {
+        boolean previousIsWhiteSpace = false;
+        for (int i = 0; i < source.length(); i++) {
+            char ch = source.charAt(i);
+            if (ch == ' ' || ch == '\t' || ch == '\n' || ch == '\u000b' || ch == '\r' || ch == '\f') {
+                if (!previousIsWhiteSpace) {
+                    buffer.append(' ');
+                    previousIsWhiteSpace = true;
+                }
+            } else {
+                buffer.append(ch);
+                previousIsWhiteSpace = false;
+            }
+        }
+    }
+
+    static String payloadHash(ContentStreamProvider contentStreamProvider) {
+        if (contentStreamProvider == null) {
+            return EMPTY_SHA256_HEX;
+        }
+        MessageDigest digest = SHA256.get();
+        digest.reset();
+        byte[] buffer = new byte[8192];
+        try (InputStream is = contentStreamProvider.newStream()) {
+            int read;
+            while ((read = is.read(buffer)) > -1) {
+                digest.update(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            throw SdkClientException.builder().message("Unable to read request payload to sign request: " + e.getMessage()).cause(e).build();
+        }
+        return BinaryUtils.toHex(digest.digest());
+    }
+
+    static byte[] sha256(byte[] data) {
+        MessageDigest digest = SHA256.get();
+        digest.reset();
+        return digest.digest(data);
+    }
+
+    static byte[] hmacSha256(byte[] key, String data) {
+        try {
+            Mac mac = HMAC_SHA256.get();
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            throw SdkClientException.builder().message("Unable to calculate a request signature: " + e.getMessage()).cause(e).build();
+        }
+    }
+
+    private static final byte[] CHUNK_SIGNATURE_HEADER = ";chunk-signature=".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CRLF = { '\r', '\n' };
+
+    /**
+     * Encodes the wrapped body as aws-chunked, signing each chunk as it is read. Only one chunk is held in memory.
+     */
+    private static class ChunkSigningInputStream extends InputStream {
+        private final InputStream in;
+        private final String chunkStringToSignPrefix;
+        private final Mac mac;
+        private final MessageDigest digest;
+        private final byte[] chunk = new byte[STREAMING_CHUNK_SIZE];
+        private String previousSignature;
+        // framing of the current chunk: header, data and trailing CRLF
+        private byte[] header;
+        private int chunkLength;
+        private int position;
+        private boolean finalChunkSent;
+
+        ChunkSigningInputStream(InputStream in, byte[] signingKey, String dateTime, String scope, String seedSignature) {
+            this.in = in;
+            this.chunkStringToSignPrefix = "AWS4-HMAC-SHA256-PAYLOAD\n" + dateTime + "\n" + scope + "\n";
+            this.previousSignature = seedSignature;
+            try {
+                this.mac = Mac.getInstance("HmacSHA256");
+                this.mac.init(new SecretKeySpec(signingKey, "HmacSHA256"));
+                this.digest = MessageDigest.getInstance("SHA-256");
+            } catch (Exception e) {
+                throw SdkClientException.builder().message("Unable to initialize chunk signing: " + e.getMessage()).cause(e).build();
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int read = read(b, 0, 1);
+            return read < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (header == null || position == header.length + chunkLength + CRLF.length) {
+                if (finalChunkSent) {
+                    return -1;
+                }
+                nextChunk();
+            }
+            int count = 0;
+            while (count < len && position < header.length + chunkLength + CRLF.length) {
+                int n;
+                if (position < header.length) {
+                    n = Math.min(len - count, header.length - position);
+                    System.arraycopy(header, position, b, off + count, n);
+                } else if (position < header.length + chunkLength) {
+                    int chunkPosition = position - header.length;
+                    n = Math.min(len - count, chunkLength - chunkPosition);
+                    System.arraycopy(chunk, chunkPosition, b, off + count, n);
+                } else {
+                    int crlfPosition = position - header.length - chunkLength;
+                    n = Math.min(len - count, CRLF.length - crlfPosition);
+                    System.arraycopy(CRLF, crlfPosition, b, off + count, n);
+                }
+                position += n;
+                count += n;
+            }
+            return count;
+        }
+
+        // fills the chunk buffer and signs it, an empty chunk terminates the body
+        private void nextChunk() throws IOException {
+            int length = 0;
+            int read;
+            while (length < chunk.length && (read = in.read(chunk, length, chunk.length - length)) > -1) {
+                length += read;
+            }
+            digest.reset();
+            digest.update(chunk, 0, length);
+            String stringToSign = chunkStringToSignPrefix + previousSignature + "\n" + EMPTY_SHA256_HEX + "\n" + BinaryUtils.toHex(digest.digest());
+            previousSignature = BinaryUtils.toHex(mac.doFinal(stringToSign.getBytes(StandardCharsets.UTF_8)));
+            byte[] size = Integer.toHexString(length).getBytes(StandardCharsets.UTF_8);
+            byte[] signature = previousSignature.getBytes(StandardCharsets.UTF_8);
+            header = new byte[size.length + CHUNK_SIGNATURE_HEADER.length + signature.length + CRLF.length];
+            System.arraycopy(size, 0, header, 0, size.length);
+            System.arraycopy(CHUNK_SIGNATURE_HEADER, 0, header, size.length, CHUNK_SIGNATURE_HEADER.length);
+            System.arraycopy(signature, 0, header, size.length + CHUNK_SIGNATURE_HEADER.length, signature.length);
+            System.arraycopy(CRLF, 0, header, header.length - CRLF.length, CRLF.length);
+            chunkLength = length;
+            position = 0;
+            finalChunkSent = length == 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static final class SigningKeyId {
+        private final String accessKeyId;
+        private final String dateStamp;
+        private final String region;
+        private final String serviceName;
+        private final int hashCode;
+
+        SigningKeyId(String accessKeyId, String dateStamp, String region, String serviceName) {
+            this.accessKeyId = accessKeyId;
+            this.dateStamp = dateStamp;
+            this.region = region;
+            this.serviceName = serviceName;
+            this.hashCode = Objects.hash(accessKeyId, dateStamp, region, serviceName);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof SigningKeyId)) {
+                return false;
+            }
+            SigningKeyId other = (SigningKeyId) o;
+            return accessKeyId.equals(other.accessKeyId) && dateStamp.equals(other.dateStamp) && region.equals(other.region) && serviceName.equals(other.serviceName);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+}
@@ -0,0 +1,600 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.URI;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.exception.ApiCallTimeoutException;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.core.metrics.CoreMetric;
+import software.amazon.awssdk.http.HttpMetric;
+import software.amazon.awssdk.http.SdkHttpFullRequest;
+import software.amazon.awssdk.http.SdkHttpMethod;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.utils.IoUtils;
+
+/** Exercises AWSSignerHttpClient against a local stub HTTP server */
+public class AWSSignerHttpClientTest {
+
+    private static final String SEARCH_RESPONSE = "{\"took\":3,\"hits\":{\"total\":{\"value\":3},\"hits\":[{\"_id\":\"1\",\"_source\":{\"hits\":[\"nested\"]}},{\"_id\":\"2\"},{\"_id\":\"3\"}]},\"aggregations\":{\"hits\":[1,2]}}";
+
+    private HttpServer server;
+    private List<String> authorizations = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    @AfterEach
+    public void stop() {
+        stalled.countDown();
+        server.stop(0);
+        ((ExecutorService) server.getExecutor()).shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        authorizations.add(exchange.getRequestHeaders().getFirst("Authorization"));
+        if (exchange.getRequestURI().getPath().startsWith("/stall")) {
+            // never answers, the client has to abort
+            try {
+                stalled.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.close();
+            return;
+        }
+        if (exchange.getRequestURI().getPath().startsWith("/slow")) {
+            int current = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(current, Math::max);
+            try {
+                Thread.sleep(exchange.getRequestURI().getPath().startsWith("/slower") ? 2_000 : 50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+        boolean missing = exchange.getRequestURI().getPath().startsWith("/missing");
+        if (exchange.getRequestURI().getPath().startsWith("/throttle") && throttledRequests.incrementAndGet() <= 2) {
+            byte[] body = "{\"error\":\"throttled\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(429, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+            return;
+        }
+        if (exchange.getRequestURI().getPath().contains("/cached")) {
+            cachedRequests.incrementAndGet();
+            exchange.getResponseHeaders().add("ETag", "\"v1\"");
+            if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+        }
+        String json = missing ? "{\"error\":\"not found\"}" : String.format("{\"path\":\"%s\"}", exchange.getRequestURI().getPath());
+        // the scroll reader may be configured with a /proxy endpoint path
+        String searchPath = exchange.getRequestURI().getPath().startsWith("/proxy/") ? exchange.getRequestURI().getPath().substring("/proxy".length()) : exchange.getRequestURI().getPath();
+        if (searchPath.contains("_search")) {
+            searchPaths.add(exchange.getRequestURI().getPath());
+        }
+        String query = exchange.getRequestURI().getQuery();
+        if (searchPath.endsWith("/_search") && query != null && query.startsWith("scroll=")) {
+            keepAlives.add(query.substring("scroll=".length()));
+            JsonObject search = Json.createReader(new StringReader(requestBody(exchange))).readObject();
+            json = scrollResponse(search.getJsonObject("slice").getInt("id") + ":0");
+        } else if (searchPath.startsWith("/_search/scroll/") && "DELETE".equals(exchange.getRequestMethod())) {
+            clearedScrolls.addAll(Arrays.asList(searchPath.substring("/_search/scroll/".length()).split(",")));
+            json = "{\"succeeded\":true}";
+        } else if (searchPath.equals("/_search/scroll")) {
+            JsonObject scroll = Json.createReader(new StringReader(requestBody(exchange))).readObject();
+            keepAlives.add(scroll.getString("scroll"));
+            String[] id = scroll.getString("scroll_id").split(":");
+            json = scrollResponse(id[0] + ":" + (Integer.parseInt(id[1]) + 1));
+        } else if (exchange.getRequestURI().getPath().endsWith("/_search")) {
+            json = SEARCH_RESPONSE;
+        } else if (exchange.getRequestURI().getPath().endsWith("/_bulk")) {
+            bulkPaths.add(exchange.getRequestURI().getPath());
+            json = bulkResponse(requestBody(exchange));
+        } else if (exchange.getRequestURI().getPath().equals("/echo")) {
+            json = requestBody(exchange);
+        }
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        if ("gzip".equals(exchange.getRequestHeaders().getFirst("Accept-Encoding"))) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            try (GZIPOutputStream gos = new GZIPOutputStream(bos)) {
+                gos.write(body);
+            }
+            body = bos.toByteArray();
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+        }
+        // chunked responses have no Content-Length
+        exchange.sendResponseHeaders(missing ? 404 : 200, exchange.getRequestURI().getPath().startsWith("/chunked") ? 0 : body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private AtomicInteger inFlight = new AtomicInteger();
+    private CountDownLatch stalled = new CountDownLatch(1);
+    private AtomicInteger cachedRequests = new AtomicInteger();
+    private AtomicInteger maxInFlight = new AtomicInteger();
+    private Set<String> clearedScrolls = ConcurrentHashMap.newKeySet();
+    private Set<String> searchPaths = ConcurrentHashMap.newKeySet();
+    private Set<String> keepAlives = ConcurrentHashMap.newKeySet();
+
+    // three pages of two hits per slice, the scroll id is slice:page
+    private String scrollResponse(String scrollId) {
+        String[] id = scrollId.split(":");
+        int page = Integer.parseInt(id[1]);
+        JsonArrayBuilder hits = Json.createArrayBuilder();
+        for (int i = 0; page < 3 && i < 2; i++) {
+            hits.add(Json.createObjectBuilder().add("_id", id[0] + "-" + page + "-" + i));
+        }
+        return Json.createObjectBuilder().add("_scroll_id", scrollId).add("hits", Json.createObjectBuilder().add("hits", hits)).build().toString();
+    }
+
+    private List<Long> requestLengths = new CopyOnWriteArrayList<>();
+
+    private String requestBody(HttpExchange exchange) throws IOException {
+        String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        requestLengths.add(contentLength != null ? Long.parseLong(contentLength) : -1);
+        boolean gzip = "gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"));
+        InputStream body = exchange.getRequestBody();
+        if (exchange.getRequestHeaders().containsKey("x-amz-decoded-content-length")) {
+            body = new ByteArrayInputStream(decodeChunks(IoUtils.toByteArray(body)));
+        }
+        return IoUtils.toUtf8String(gzip ? new GZIPInputStream(body) : body);
+    }
+
+    // strips the aws-chunked framing: hex-size;chunk-signature=...\r\n data \r\n
+    private byte[] decodeChunks(byte[] chunked) {
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        int position = 0;
+        while (true) {
+            int headerEnd = new String(chunked, position, Math.min(200, chunked.length - position), StandardCharsets.US_ASCII).indexOf("\r\n");
+            String header = new String(chunked, position, headerEnd, StandardCharsets.US_ASCII);
+            assertTrue(header.contains(";chunk-signature="));
+            int size = Integer.parseInt(header.substring(0, header.indexOf(';')), 16);
+            decoded.write(chunked, position + headerEnd + 2, size);
+            position += headerEnd + 2 + size + 2;
+            if (size == 0) {
+                assertEquals(chunked.length, position);
+                return decoded.toByteArray();
+            }
+        }
+    }
+
+    private Set<String> throttled = ConcurrentHashMap.newKeySet();
+    private Set<String> bulkPaths = ConcurrentHashMap.newKeySet();
+    private AtomicInteger throttledRequests = new AtomicInteger();
+
+    // rejects the "bad" document and throttles the "retry" document once
+    private String bulkResponse(String ndjson) {
+        JsonArrayBuilder items = Json.createArrayBuilder();
+        for (String line : ndjson.split("\n")) {
+            JsonObject action = Json.createReader(new StringReader(line)).readObject();
+            if (action.containsKey("index") || action.containsKey("delete")) {
+                String type = action.keySet().iterator().next();
+                String id = action.getJsonObject(type).getString("_id");
+                int status = "bad".equals(id) ? 400 : "retry".equals(id) && throttled.add(id) ? 429 : 201;
+                items.add(Json.createObjectBuilder().add(type, Json.createObjectBuilder().add("_id", id).add("status", status)));
+            }
+        }
+        return Json.createObjectBuilder().add("took", 1).add("errors", true).add("items", items).build().toString();
+    }
+
+    private AWSSignerHttpClient client() {
+        return builder().build();
+    }
+
+    private AWSSignerHttpClient.Builder builder() {
+        return AWSSignerHttpClient.builder().serviceName("es").region(Region.US_WEST_1).awsCredentials(StaticCredentialsProvider.create(AwsBasicCredentials.create("AKIDEXAMPLE", "secret")));
+    }
+
+    private SdkHttpFullRequest request(String path) {
+        return SdkHttpFullRequest.builder().method(SdkHttpMethod.GET).protocol("http").host("localhost").port(server.getAddress().getPort()).encodedPath(path).build();
+    }
+
+    @Test
+    public void executeTest() throws Exception {
+        try (AWSSignerHttpClient client = client()) {
+            JsonObject obj = client.<JsonObject> execute(request("/sync"));
+            assertEquals("/sync", obj.getString("path"));
+            assertTrue(authorizations.get(0).startsWith("AWS4-HMAC-SHA256 Credential=AKIDEXAMPLE/"));
+        }
+    }
+
+    @Test
+    public void executeAsyncTest() throws Exception {
+        try (AWSSignerHttpClient client = client()) {
+            List<CompletableFuture<JsonObject>> futures = IntStream.range(0, 20).mapToObj(i -> client.<JsonObject> executeAsync(request("/async/" + i))).collect(Collectors.toList());
+            for (int i = 0; i < futures.size(); i++) {
+                assertEquals("/async/" + i, futures.get(i).get(10, TimeUnit.SECONDS).getString("path"));
+            }
+            assertEquals(20, authorizations.size());
+            authorizations.forEach(a -> assertTrue(a.contains("/us-west-1/es/aws4_request")));
+
+            ExecutionException e = null;
+            try {
+                client.<JsonObject> executeAsync(request("/missing")).get(10, TimeUnit.SECONDS);
+            } catch (ExecutionException ee) {
+                e = ee;
+            }
+            assertNotNull(e);
+            assertTrue(e.getCause() instanceof SdkException);
+            assertTrue(e.getCause().getMessage().startsWith("404"));
+        }
+    }
+
+    @Test
+    public void streamTest() throws Exception {
+        try (AWSSignerHttpClient client = client()) {
+            List<String> ids = new ArrayList<>();
+            long count = client.execute(request("/index/_search"), JsonStreamHandler.forEach("hits.hits[*]", h -> ids.add(((JsonObject) h).getString("_id"))));
+            assertEquals(3, count);
+            assertEquals("1", ids.get(0));
+            assertEquals("3", ids.get(2));
+
+            try (Stream<JsonValue> hits = client.execute(request("/index/_search"), JsonStreamHandler.stream("hits.hits[*]._id"))) {
+                assertEquals("[\"1\", \"2\", \"3\"]", hits.map(JsonValue::toString).collect(Collectors.toList()).toString());
+            }
+            // the connection is released once the stream is closed
+            assertEquals("/after", client.<JsonObject> execute(request("/after")).getString("path"));
+        }
+    }
+
+    @Test
+    public void bulkIndexTest() throws Exception {
+        List<BulkIndexer.Failure> failures = new CopyOnWriteArrayList<>();
+        try (AWSSignerHttpClient client = client()) {
+            try (BulkIndexer indexer = BulkIndexer.builder().client(client).endpoint(URI.create("http://localhost:" + server.getAddress().getPort() + "/proxy/")).maxActions(10).retryDelay(Duration.ofMillis(10)).onFailure(failures::add).build()) {
+                for (int i = 0; i < 25; i++) {
+                    indexer.index("test-index", String.valueOf(i), Json.createObjectBuilder().add("value", i).build());
+                }
+                indexer.index("test-index", "retry", Json.createObjectBuilder().add("value", "retry").build());
+                indexer.index("test-index", "bad", Json.createObjectBuilder().add("value", "bad").build());
+                indexer.delete("test-index", "0");
+                indexer.flush();
+                assertEquals(27, indexer.succeeded());
+                assertEquals(1, indexer.retried());
+                assertEquals(1, indexer.failed());
+                assertEquals(4, indexer.bulks());
+            }
+        }
+        assertEquals(1, failures.size());
+        assertEquals("bad", failures.get(0).id());
+        assertEquals(400, failures.get(0).status());
+        // the endpoint path is kept
+        assertEquals(Collections.singleton("/proxy/_bulk"), bulkPaths);
+
+        // a bulk request rejected with a permanent status is not retried
+        failures.clear();
+        try (AWSSignerHttpClient client = client()) {
+            try (BulkIndexer indexer = BulkIndexer.builder().client(client).endpoint(URI.create("http://localhost:" + server.getAddress().getPort() + "/missing")).retryDelay(Duration.ofMillis(10)).onFailure(failures::add).build()) {
+                indexer.index("test-index", "1", Json.createObjectBuilder().add("value", 1).build());
+                indexer.flush();
+                assertEquals(0, indexer.retried());
+                assertEquals(1, indexer.failed());
+            }
+        }
+        assertEquals(-1, failures.get(0).status());
+        assertEquals(404, ((SdkServiceException) failures.get(0).cause()).statusCode());
+    }
+
+    @Test
+    public void scrollReaderTest() throws Exception {
+        URI endpoint = URI.create("http://localhost:" + server.getAddress().getPort());
+        try (AWSSignerHttpClient client = client()) {
+            try (ScrollReader reader = ScrollReader.builder().client(client).endpoint(endpoint).index("test-index").slices(4).build(); Stream<JsonObject> hits = reader.stream()) {
+                Set<String> ids = hits.map(h -> h.getString("_id")).collect(Collectors.toSet());
+                assertEquals(24, ids.size());
+                assertTrue(ids.contains("3-2-1"));
+            }
+            assertEquals(4, clearedScrolls.size());
+            assertEquals(Collections.singleton("60s"), keepAlives);
+
+            // the endpoint path is kept and sub-second keep alives are sent in milliseconds
+            clearedScrolls.clear();
+            searchPaths.clear();
+            keepAlives.clear();
+            URI proxy = URI.create(endpoint + "/proxy/");
+            try (ScrollReader reader = ScrollReader.builder().client(client).endpoint(proxy).index("test-index").slices(2).keepAlive(Duration.ofMillis(1500)).build(); Stream<JsonObject> hits = reader.stream()) {
+                assertEquals(12, hits.count());
+            }
+            assertEquals(2, clearedScrolls.size());
+            assertTrue(searchPaths.stream().allMatch(p -> p.startsWith("/proxy/_search") || p.equals("/proxy/test-index/_search")), searchPaths.toString());
+            assertEquals(Collections.singleton("1500ms"), keepAlives);
+
+            // closing early clears the open scrolls
+            clearedScrolls.clear();
+            try (ScrollReader reader = ScrollReader.builder().client(client).endpoint(endpoint).index("test-index").slices(2).queuedPages(1).build(); Stream<JsonObject> hits = reader.stream()) {
+                assertEquals(3, hits.limit(3).count());
+            }
+            assertEquals(2, clearedScrolls.size());
+        }
+    }
+
+    @Test
+    public void executeAllTest() throws Exception {
+        try (AWSSignerHttpClient client = client()) {
+            List<SdkHttpFullRequest> requests = IntStream.range(0, 20).mapToObj(i -> request(i == 7 ? "/missing" : "/slow/" + i)).collect(Collectors.toList());
+            List<AWSSignerHttpClient.Result<JsonObject>> results = client.executeAll(requests, 4, Duration.ofSeconds(10));
+            assertEquals(20, results.size());
+            for (int i = 0; i < 20; i++) {
+                if (i == 7) {
+                    assertTrue(!results.get(i).isSuccess());
+                    assertEquals(404, ((SdkServiceException) results.get(i).error()).statusCode());
+                } else {
+                    assertEquals("/slow/" + i, results.get(i).value().getString("path"));
+                }
+            }
+            assertTrue(maxInFlight.get() > 1 && maxInFlight.get() <= 4);
+
+            // unfinished requests time out
+            requests = Arrays.asList(request("/slow/fast"), request("/slower/1"), request("/slower/2"));
+            long start = System.nanoTime();
+            results = client.executeAll(requests, 2, Duration.ofMillis(500));
+            assertTrue(System.nanoTime() - start < 1_500_000_000L);
+            assertTrue(results.get(0).isSuccess());
+            assertTrue(results.get(1).error() instanceof ApiCallTimeoutException);
+            assertTrue(results.get(2).error() instanceof ApiCallTimeoutException);
+        }
+    }
+
+    @Test
+    public void executeAllAbortTest() throws Exception {
+        // a single connection and worker, both are only free again if the stalled request is aborted
+        try (AWSSignerHttpClient client = builder().maxConnections(1).batchPoolSize(1).build()) {
+            long start = System.nanoTime();
+            List<AWSSignerHttpClient.Result<JsonObject>> results = client.executeAll(Arrays.asList(request("/stall")), 1, Duration.ofMillis(300));
+            assertTrue(results.get(0).error() instanceof ApiCallTimeoutException);
+            results = client.executeAll(Arrays.asList(request("/after-stall")), 1, Duration.ofSeconds(5));
+            assertEquals("/after-stall", results.get(0).value().getString("path"));
+            assertTrue(System.nanoTime() - start < 3_000_000_000L);
+        }
+    }
+
+    @Test
+    public void responseCacheTest() throws Exception {
+        ResponseCache cache = ResponseCache.builder().maxEntries(3).ttl(Duration.ofMillis(300)).build();
+        try (AWSSignerHttpClient client = builder().responseCache(cache).build()) {
+            assertEquals("/cached", client.<JsonObject> execute(request("/cached")).getString("path"));
+            assertEquals("/cached", client.<JsonObject> execute(request("/cached")).getString("path"));
+            assertEquals(1, cachedRequests.get());
+            assertEquals(1, cache.hits());
+
+            // stale entry revalidated with If-None-Match
+            Thread.sleep(400);
+            assertEquals("/cached", client.<JsonObject> execute(request("/cached")).getString("path"));
+            assertEquals(2, cachedRequests.get());
+            assertEquals(1, cache.revalidations());
+
+            // writes invalidate the path
+            client.<JsonObject> execute(request("/cached").toBuilder().method(SdkHttpMethod.DELETE).build());
+            client.<JsonObject> execute(request("/cached"));
+            assertEquals(4, cachedRequests.get());
+
+            // concurrent misses share one request
+            List<CompletableFuture<JsonObject>> results = IntStream.range(0, 8).mapToObj(i -> CompletableFuture.supplyAsync(() -> client.<JsonObject> execute(request("/slow/cached")))).collect(Collectors.toList());
+            results.forEach(r -> assertEquals("/slow/cached", r.join().getString("path")));
+            assertEquals(5, cachedRequests.get());
+
+            // errors are not cached, least recently used entries are evicted
+            assertThrows(SdkServiceException.class, () -> client.<JsonObject> execute(request("/missing")));
+            IntStream.range(0, 5).forEach(i -> client.<JsonObject> execute(request("/cached/" + i)));
+            assertEquals(3, cache.size());
+        }
+    }
+
+    @Test
+    public void responseCacheLargeResponseTest() throws Exception {
+        ResponseCache cache = ResponseCache.builder().maxEntryBytes(16).build();
+        try (AWSSignerHttpClient client = builder().responseCache(cache).build()) {
+            // larger than maxEntryBytes: passed through to the handler and not cached
+            assertEquals("/cached/large", client.<JsonObject> execute(request("/cached/large")).getString("path"));
+            assertEquals("/cached/large", client.<JsonObject> execute(request("/cached/large")).getString("path"));
+            assertEquals(2, cachedRequests.get());
+            assertEquals(0, cache.size());
+            assertEquals("/chunked/large", client.<JsonObject> execute(request("/chunked/large")).getString("path"));
+            assertEquals(0, cache.size());
+
+            List<String> ids = new ArrayList<>();
+            assertEquals(3, (long) client.execute(request("/index/_search"), JsonStreamHandler.forEach("hits.hits[*]", h -> ids.add(((JsonObject) h).getString("_id")))));
+            assertEquals("[1, 2, 3]", ids.toString());
+            assertEquals(0, cache.size());
+
+            // small responses are still cached
+            assertEquals("/c", client.<JsonObject> execute(request("/c")).getString("path"));
+            assertEquals(1, cache.size());
+        }
+    }
+
+    @Test
+    public void retryTest() throws Exception {
+        try (AWSSignerHttpClient client = builder().adaptiveRateLimiting(false).build()) {
+            assertEquals("/throttle", client.<JsonObject> execute(request("/throttle")).getString("path"));
+            assertEquals(3, throttledRequests.get());
+            // every attempt is signed again
+            assertEquals(3, new HashSet<>(authorizations).size());
+
+            authorizations.clear();
+            SdkServiceException e = null;
+            try {
+                client.<JsonObject> execute(request("/missing"));
+            } catch (SdkServiceException se) {
+                e = se;
+            }
+            assertNotNull(e);
+            assertEquals(404, e.statusCode());
+            assertEquals(1, authorizations.size());
+        }
+    }
+
+    @Test
+    public void gzipTest() throws Exception {
+        JsonArrayBuilder values = Json.createArrayBuilder();
+        IntStream.range(0, 500).forEach(i -> values.add("value " + i));
+        JsonObject document = Json.createObjectBuilder().add("values", values).build();
+        byte[] json = document.toString().getBytes(StandardCharsets.UTF_8);
+        SdkHttpFullRequest request = request("/echo").toBuilder().method(SdkHttpMethod.POST).contentStreamProvider(() -> new ByteArrayInputStream(json)).putHeader("Content-Length", String.valueOf(json.length)).build();
+        try (AWSSignerHttpClient client = builder().compressRequests(true).acceptGzip(true).build()) {
+            assertEquals(document, client.<JsonObject> execute(request));
+            assertEquals(document, client.<JsonObject> executeAsync(request).get(10, TimeUnit.SECONDS));
+            assertEquals(500, client.execute(request, JsonStreamHandler.forEach("values[*]", v -> {
+            })));
+        }
+        // compressed length sent and signed
+        assertEquals(3, requestLengths.size());
+        requestLengths.forEach(l -> assertTrue(l > 0 && l < json.length / 4));
+
+        // the declared length only sizes the buffer, lengths past 2 GB are parsed as long
+        SdkHttpFullRequest large = request.toBuilder().putHeader("Content-Length", "3000000000").build();
+        try (AWSSignerHttpClient client = builder().compressRequests(true).build()) {
+            assertEquals(document, client.<JsonObject> execute(large));
+        }
+    }
+
+    @Test
+    public void streamingPayloadTest() throws Exception {
+        JsonArrayBuilder values = Json.createArrayBuilder();
+        IntStream.range(0, 50_000).forEach(i -> values.add("value " + i));
+        JsonObject document = Json.createObjectBuilder().add("values", values).build();
+        byte[] json = document.toString().getBytes(StandardCharsets.UTF_8);
+        SdkHttpFullRequest request = request("/echo").toBuilder().method(SdkHttpMethod.PUT).contentStreamProvider(() -> new ByteArrayInputStream(json)).putHeader("Content-Length", String.valueOf(json.length)).build();
+        try (AWSSignerHttpClient client = builder().payloadSigning(SigV4Signer.PayloadSigning.STREAMING).build()) {
+            assertEquals(document, client.<JsonObject> execute(request));
+            assertEquals(document, client.<JsonObject> executeAsync(request).get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(SigV4Signer.streamingContentLength(json.length), requestLengths.get(0).longValue());
+        assertTrue(authorizations.get(0).contains("x-amz-content-sha256;x-amz-date;x-amz-decoded-content-length"));
+    }
+
+    @Test
+    public void metricsTest() throws Exception {
+        MetricsRecorder recorder = MetricsRecorder.create();
+        try (AWSSignerHttpClient client = builder().addMetricPublisher(recorder).build()) {
+            for (int i = 0; i < 5; i++) {
+                client.<JsonObject> execute(request("/metrics"));
+            }
+            client.<JsonObject> executeAsync(request("/metrics")).get(10, TimeUnit.SECONDS);
+            try {
+                client.<JsonObject> execute(request("/missing"));
+            } catch (SdkServiceException e) {
+            }
+        }
+        assertEquals(7, recorder.histogram("es", "localhost", CoreMetric.CREDENTIALS_FETCH_DURATION.name()).count());
+        assertEquals(7, recorder.histogram("es", "localhost", CoreMetric.SIGNING_DURATION.name()).count());
+        assertEquals(7, recorder.histogram("es", "localhost", AWSSignerMetric.TIME_TO_FIRST_BYTE.name()).count());
+        assertEquals(6, recorder.counter("es", "localhost", HttpMetric.HTTP_STATUS_CODE.name() + ".200"));
+        assertEquals(1, recorder.counter("es", "localhost", HttpMetric.HTTP_STATUS_CODE.name() + ".404"));
+        assertEquals(6 * "{\"path\":\"/metrics\"}".length() + "{\"error\":\"not found\"}".length(), recorder.counter("es", "localhost", AWSSignerMetric.BYTES_RECEIVED.name()));
+        MetricsRecorder.Histogram signing = recorder.histogram("es", "localhost", CoreMetric.SIGNING_DURATION.name());
+        assertTrue(signing.percentile(0.5).compareTo(signing.max()) <= 0);
+        // connection pool gauges keep their last value instead of being summed
+        assertEquals(0, recorder.counter("es", "localhost", HttpMetric.MAX_CONCURRENCY.name()));
+        assertTrue(recorder.gauge("es", "localhost", HttpMetric.MAX_CONCURRENCY.name()) > 0);
+        assertTrue(Double.isNaN(recorder.gauge("es", "localhost", AWSSignerMetric.BYTES_RECEIVED.name())));
+    }
+
+    @Test
+    public void adaptiveRateLimiterTest() throws Exception {
+        AdaptiveRateLimiter limiter = AdaptiveRateLimiter.create();
+        for (int i = 0; i < 10; i++) {
+            limiter.acquire();
+            limiter.update(false);
+        }
+        assertTrue(!limiter.isEnabled());
+        limiter.update(true);
+        assertTrue(limiter.isEnabled());
+        double throttledRate = limiter.fillRate();
+        Thread.sleep(1_100);
+        limiter.update(false);
+        assertTrue(limiter.fillRate() >= throttledRate);
+    }
+
+    @Test
+    public void asyncRateLimitTest() throws Exception {
+        try (AWSSignerHttpClient client = builder().adaptiveRateLimiting(true).build()) {
+            // throttled at the minimum rate of half a token per second
+            client.rateLimiter().update(true);
+            List<CompletableFuture<JsonObject>> futures = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < 3; i++) {
+                futures.add(client.executeAsync(request("/limited/" + i)));
+            }
+            // the calls return at once, the sends are scheduled
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+            assertEquals("/limited/2", futures.get(2).get(20, TimeUnit.SECONDS).getString("path"));
+            assertTrue(System.nanoTime() - start >= TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    @Test
+    public void postNotRetriedTest() throws Exception {
+        try (AWSSignerHttpClient client = client()) {
+            SdkHttpFullRequest post = request("/throttle").toBuilder().method(SdkHttpMethod.POST).build();
+            SdkServiceException e = null;
+            try {
+                client.<JsonObject> execute(post);
+            } catch (SdkServiceException se) {
+                e = se;
+            }
+            assertNotNull(e);
+            assertEquals(429, e.statusCode());
+            assertEquals(1, throttledRequests.get());
+        }
+    }
+
+}
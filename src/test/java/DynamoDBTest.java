@@ -1,20 +1,46 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipException;
 
 import javax.json.Json;
 import javax.json.JsonArray;
 import javax.json.JsonArrayBuilder;
+import javax.json.JsonException;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
+import javax.json.JsonValue;
 
 import org.junit.jupiter.api.Test;
 
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.core.exception.SdkClientException;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
 
 public class DynamoDBTest {
@@ -77,6 +103,402 @@ public class DynamoDBTest {
 		assertEquals("entryTwo", listAttrValue.get(1).s());
 	}
 
+	@Test
+	public void streaming() throws Exception {
+		Map<String, AttributeValue> map = new HashMap<>();
+		map.put("string", AttributeValue.builder().s("test").build());
+		map.put("boolean", AttributeValue.builder().bool(false).build());
+		map.put("number", AttributeValue.builder().n("123.50").build());
+		map.put("null", AttributeValue.builder().nul(true).build());
+		map.put("empty", AttributeValue.builder().m(new HashMap<>()).build());
+		map.put("strings", AttributeValue.builder().ss("a", "b").build());
+		List<AttributeValue> list = new LinkedList<>();
+		list.add(AttributeValue.builder().s("entryOne").build());
+		list.add(AttributeValue.builder().m(Collections.singletonMap("key", AttributeValue.builder().n("1").build())).build());
+		map.put("list", AttributeValue.builder().l(list).build());
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DynamoDBUtil.toJsonWithSets(map, bos);
+		JsonObject json = Json.createReader(new ByteArrayInputStream(bos.toByteArray())).readObject();
+		assertEquals("test", json.getString("string"));
+		assertEquals(new BigDecimal("123.50"), json.getJsonNumber("number").bigDecimalValue());
+		assertTrue(json.isNull("null"));
+		assertEquals(0, json.getJsonObject("empty").size());
+		assertEquals("b", json.getJsonArray("strings").getString(1));
+		assertEquals(1, json.getJsonArray("list").getJsonObject(1).getInt("key"));
+
+		Map<String, AttributeValue> attrValue = DynamoDBUtil.toAttribute(new ByteArrayInputStream(bos.toByteArray()));
+		assertEquals(DynamoDBUtil.toAttribute(json), attrValue);
+		assertEquals("123.50", attrValue.get("number").n());
+		assertEquals(false, attrValue.get("boolean").bool());
+		assertEquals("1", attrValue.get("list").l().get(1).m().get("key").n());
+
+		assertEquals(DynamoDBUtil.toJson(map), DynamoDBUtil.decompress(DynamoDBUtil.compress(map)));
+	}
+
+	@Test
+	public void streamingMatchesTree() throws Exception {
+		Map<String, AttributeValue> map = new HashMap<>();
+		map.put("string", AttributeValue.builder().s("test").build());
+		map.put("strings", AttributeValue.builder().ss("a", "b").build());
+		map.put("numbers", AttributeValue.builder().ns("1", "2.5").build());
+		map.put("emptyMap", AttributeValue.builder().m(new HashMap<>()).build());
+		map.put("emptyList", AttributeValue.builder().l(new LinkedList<>()).build());
+		map.put("binary", AttributeValue.builder().b(SdkBytes.fromUtf8String("bytes")).build());
+		map.put("binaries", AttributeValue.builder().bs(SdkBytes.fromUtf8String("bytes")).build());
+		map.put("null", AttributeValue.builder().nul(true).build());
+		Map<String, AttributeValue> nested = new HashMap<>(map);
+		map.put("map", AttributeValue.builder().m(nested).build());
+		// toJson(List) only takes the values it does not convert to null
+		map.put("list", AttributeValue.builder().l(map.get("string"), map.get("strings"), map.get("numbers"), map.get("null")).build());
+
+		JsonObject tree = DynamoDBUtil.toJson(map);
+		assertEquals(false, tree.containsKey("strings"));
+		assertEquals(false, tree.containsKey("numbers"));
+		assertTrue(tree.isNull("emptyMap"));
+		assertTrue(tree.isNull("emptyList"));
+		assertTrue(tree.isNull("binary"));
+		assertTrue(tree.isNull("binaries"));
+		assertTrue(tree.isNull("null"));
+		// sets are left out of lists as well
+		assertEquals(2, tree.getJsonArray("list").size());
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DynamoDBUtil.toJson(map, bos);
+		assertEquals(tree, Json.createReader(new ByteArrayInputStream(bos.toByteArray())).readObject());
+		assertEquals(tree, DynamoDBUtil.decompress(DynamoDBUtil.compress(map)));
+		assertEquals(tree, DynamoDBUtil.decompress(DynamoDBUtil.compress(DynamoDBUtil.toJson(map))));
+
+		bos = new ByteArrayOutputStream();
+		DynamoDBUtil.toJsonWithSets(map, bos);
+		JsonObject withSets = Json.createReader(new ByteArrayInputStream(bos.toByteArray())).readObject();
+		assertEquals(Json.createArrayBuilder().add("a").add("b").build(), withSets.getJsonArray("strings"));
+		assertEquals(Json.createArrayBuilder().add(1).add(new BigDecimal("2.5")).build(), withSets.getJsonObject("map").getJsonArray("numbers"));
+		assertEquals(JsonValue.EMPTY_JSON_OBJECT, withSets.getJsonObject("emptyMap"));
+		assertEquals(JsonValue.EMPTY_JSON_ARRAY, withSets.getJsonArray("emptyList"));
+		assertEquals(4, withSets.getJsonArray("list").size());
+		assertTrue(withSets.isNull("binary"));
+		assertTrue(withSets.isNull("binaries"));
+		assertTrue(withSets.isNull("null"));
+	}
+
+	@Test
+	public void dictionaryCompression() throws Exception {
+		List<Map<String, AttributeValue>> samples = new LinkedList<>();
+		for (int i = 0; i < 200; i++) {
+			samples.add(item(i));
+		}
+		CompressionDictionary dictionary = CompressionDictionary.trainFromItems(1, samples, 4096);
+		assertTrue(dictionary.bytes().length > 0 && dictionary.bytes().length <= 4096);
+		CompressionCodec codec = CompressionCodec.builder().dictionary(dictionary).build();
+
+		Map<String, AttributeValue> item = item(1000);
+		AttributeValue plain = DynamoDBUtil.compress(item);
+		AttributeValue compressed = DynamoDBUtil.compress(item, codec);
+		System.out.format("dictionary: %d bytes plain, %d bytes with dictionary\n", plain.b().asByteArrayUnsafe().length, compressed.b().asByteArrayUnsafe().length);
+		assertTrue(compressed.b().asByteArrayUnsafe().length < plain.b().asByteArrayUnsafe().length * 2 / 3);
+		assertEquals(DynamoDBUtil.toJson(item), DynamoDBUtil.decompress(compressed, codec));
+		// plain values still decode
+		assertEquals(DynamoDBUtil.toJson(item), DynamoDBUtil.decompress(plain, codec));
+
+		// rotated dictionary
+		CompressionCodec rotated = CompressionCodec.builder().dictionary(CompressionDictionary.trainFromItems(2, samples, 2048)).previousDictionaries(dictionary).build();
+		assertEquals(DynamoDBUtil.toJson(item), DynamoDBUtil.decompress(compressed, rotated));
+		assertEquals(DynamoDBUtil.toJson(item), DynamoDBUtil.decompress(DynamoDBUtil.compress(item, rotated), rotated));
+		// the reader wraps the unknown dictionary error
+		JsonException e = assertThrows(JsonException.class, () -> DynamoDBUtil.decompress(compressed));
+		assertTrue(e.getCause() instanceof ZipException);
+	}
+
+	@Test
+	public void capacityEncoder() throws Exception {
+		Map<String, AttributeValue> small = new HashMap<>();
+		small.put("id", AttributeValue.builder().s("abc").build());
+		small.put("n", AttributeValue.builder().n("-0123.500").build());
+		small.put("m", AttributeValue.builder().m(Collections.singletonMap("a", AttributeValue.builder().s("\u00e9").build())).build());
+		small.put("ss", AttributeValue.builder().ss("x", "yz").build());
+		// 2 + 3, 1 + 3, 1 + 3 + 1 + 1 + 2, 2 + 3
+		assertEquals(5 + 4 + 8 + 5, CapacityEncoder.itemSize(small));
+
+		Map<String, AttributeValue> item = item(1);
+		item.put("id", AttributeValue.builder().s("key").build());
+		StringBuilder history = new StringBuilder();
+		List<AttributeValue> events = new LinkedList<>();
+		for (int i = 0; i < 100; i++) {
+			history.append("{\"event\":\"login\",\"sequence\":").append(i).append('}');
+			events.add(AttributeValue.builder().m(item(i)).build());
+		}
+		item.put("history", AttributeValue.builder().s(history.toString()).build());
+		item.put("events", AttributeValue.builder().l(events).build());
+		item.put("binary", AttributeValue.builder().bs(SdkBytes.fromUtf8String("one"), SdkBytes.fromUtf8String("two")).build());
+		item.put("numbers", AttributeValue.builder().ns("1", "2.5").build());
+
+		CapacityEncoder encoder = CapacityEncoder.builder().keyAttributes("id").build();
+		Map<String, AttributeValue> encoded = encoder.encode(item);
+		System.out.format("capacityEncoder: %d WCU plain, %d WCU encoded\n", CapacityEncoder.writeUnits(item), CapacityEncoder.writeUnits(encoded));
+		assertTrue(CapacityEncoder.writeUnits(encoded) < CapacityEncoder.writeUnits(item));
+		assertEquals("key", encoded.get("id").s());
+		// small attributes stay plain
+		assertEquals(item.get("status"), encoded.get("status"));
+		assertNotNull(encoded.get("events").b());
+		assertTrue(encoded.get(CapacityEncoder.DEFAULT_MARKER_ATTRIBUTE).ss().contains("events"));
+		assertEquals(item, encoder.decode(encoded));
+		// binary values are only decoded when the marker lists them
+		Map<String, AttributeValue> unmarked = new HashMap<>(encoded);
+		unmarked.remove(CapacityEncoder.DEFAULT_MARKER_ATTRIBUTE);
+		assertTrue(encoder.decode(unmarked) == unmarked);
+		assertThrows(IllegalArgumentException.class, () -> encoder.encode(encoded));
+		// nothing to gain
+		assertTrue(encoder.encode(small) == small);
+		assertTrue(encoder.decode(small) == small);
+	}
+
+	@Test
+	public void lazyJsonView() throws Exception {
+		Map<String, AttributeValue> item = item(7);
+		item.put("flag", AttributeValue.builder().bool(true).build());
+		item.put("nothing", AttributeValue.builder().nul(true).build());
+		item.put("binary", AttributeValue.builder().b(SdkBytes.fromUtf8String("bytes")).build());
+		item.put("strings", AttributeValue.builder().ss("a", "b").build());
+		item.put("numbers", AttributeValue.builder().ns("1", "2.5").build());
+		item.put("binaries", AttributeValue.builder().bs(SdkBytes.fromUtf8String("one")).build());
+
+		JsonObject json = DynamoDBUtil.asJson(item);
+		assertEquals("customer-7", json.getString("customerId"));
+		assertEquals("Springfield", json.getJsonObject("billingAddress").getString("city"));
+		assertEquals("paperlessBilling", json.getJsonArray("preferences").getString(1));
+		assertEquals(1600000119L, json.getJsonNumber("createdTimestamp").longValue());
+		assertTrue(json.getBoolean("flag"));
+		assertTrue(json.isNull("nothing"));
+		assertEquals(Base64.getEncoder().encodeToString("bytes".getBytes(StandardCharsets.UTF_8)), json.getString("binary"));
+		assertEquals("b", json.getJsonArray("strings").getString(1));
+		assertEquals(new BigDecimal("2.5"), json.getJsonArray("numbers").getJsonNumber(1).bigDecimalValue());
+		assertEquals(1, json.getJsonArray("binaries").size());
+		assertEquals("default", json.getString("missing", "default"));
+		// converted once
+		assertTrue(json.get("billingAddress") == json.get("billingAddress"));
+
+		// same content as a parsed document
+		JsonObject parsed = Json.createReader(new StringReader(json.toString())).readObject();
+		assertEquals(parsed, json);
+		assertEquals(json, parsed);
+		assertEquals(DynamoDBUtil.toJson(item(7)), DynamoDBUtil.asJson(item(7)));
+	}
+
+	@Test
+	public void scanExport() throws Exception {
+		FakeDynamoDbClient client = new FakeDynamoDbClient();
+		for (int i = 0; i < 1000; i++) {
+			Map<String, AttributeValue> item = item(i);
+			item.put("id", AttributeValue.builder().s("id-" + i).build());
+			client.items.put("id-" + i, item);
+		}
+		Path directory = Files.createTempDirectory("export");
+		Path file = directory.resolve("table.ndjson.gz");
+		Path checkpoint = directory.resolve("table.checkpoint");
+		client.failScan = 10;
+		ScanExporter exporter = ScanExporter.builder().client(client).tableName("table").segments(4).pageSize(20).gzip(true).checkpoint(checkpoint).readCapacityPerSecond(10_000).build();
+		assertThrows(SdkClientException.class, () -> exporter.export(file));
+		assertTrue(Files.exists(checkpoint));
+		long exported = exporter.items();
+		assertTrue(exported > 0 && exported < 1000);
+
+		// resumes where each segment stopped
+		assertEquals(1000 - exported, exporter.export(file));
+		assertTrue(!Files.exists(checkpoint));
+		assertEquals(500, exporter.consumedCapacity(), 0.001);
+		Set<String> ids = new HashSet<>();
+		int lines = 0;
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				Map<String, AttributeValue> item = DynamoDBUtil.toAttribute(new ByteArrayInputStream(line.getBytes(StandardCharsets.UTF_8)));
+				ids.add(item.get("id").s());
+				lines++;
+			}
+		}
+		assertEquals(1000, lines);
+		assertEquals(1000, ids.size());
+	}
+
+	@Test
+	public void scanExportDynamoDbJson() throws Exception {
+		FakeDynamoDbClient client = new FakeDynamoDbClient();
+		for (int i = 0; i < 100; i++) {
+			Map<String, AttributeValue> item = item(i);
+			item.put("id", AttributeValue.builder().s("id-" + i).build());
+			item.put("binary", AttributeValue.builder().b(SdkBytes.fromByteArray(new byte[] { (byte) i, 0, -1 })).build());
+			item.put("binaries", AttributeValue.builder().bs(SdkBytes.fromUtf8String("one"), SdkBytes.fromUtf8String("two")).build());
+			item.put("strings", AttributeValue.builder().ss("a", "b").build());
+			item.put("numbers", AttributeValue.builder().ns("1", "2.50").build());
+			item.put("nothing", AttributeValue.builder().nul(true).build());
+			client.items.put("id-" + i, item);
+		}
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ScanExporter.builder().client(client).tableName("table").segments(4).pageSize(20).dynamoDbJson(true).build().export(bos);
+
+		FakeDynamoDbClient imported = new FakeDynamoDbClient();
+		BatchImporter.Stats stats = BatchImporter.builder().client(imported).tableName("table").dynamoDbJson(true).build().importJson(new ByteArrayInputStream(bos.toByteArray()));
+		assertEquals(100, stats.items());
+		assertEquals(client.items, imported.items);
+	}
+
+	@Test
+	public void batchImport() throws Exception {
+		StringBuilder ndjson = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			ndjson.append(Json.createObjectBuilder().add("id", "id-" + i).add("value", i).build()).append('\n');
+		}
+		// one item above the 400 KB limit
+		StringBuilder large = new StringBuilder();
+		for (int i = 0; i < 30_000; i++) {
+			large.append("repeated text ");
+		}
+		ndjson.append(Json.createObjectBuilder().add("id", "large").add("text", large.toString()).build()).append('\n');
+
+		FakeDynamoDbClient client = new FakeDynamoDbClient();
+		client.unprocessedEvery = 5;
+		BatchImporter importer = BatchImporter.builder().client(client).tableName("table").backoff(Duration.ofMillis(1), Duration.ofMillis(10))
+				.compressOversized(CapacityEncoder.builder().keyAttributes("id").build()).build();
+		BatchImporter.Stats stats = importer.importJson(new ByteArrayInputStream(ndjson.toString().getBytes(StandardCharsets.UTF_8)));
+		System.out.format("batchImport: %s\n", stats);
+		assertEquals(1001, stats.items());
+		assertEquals(1001, client.items.size());
+		assertEquals(1001, stats.consumedCapacity(), 0.001);
+		assertEquals(1, stats.compressedItems());
+		assertTrue(stats.retries() > 0);
+		assertEquals(1, client.items.get("id-1").get("value").n().length());
+		assertNotNull(client.items.get("large").get("text").b());
+
+		// JSON array input
+		client = new FakeDynamoDbClient();
+		JsonArrayBuilder array = Json.createArrayBuilder();
+		for (int i = 0; i < 60; i++) {
+			array.add(Json.createObjectBuilder().add("id", "id-" + i));
+		}
+		stats = BatchImporter.builder().client(client).tableName("table").build().importJson(new ByteArrayInputStream(array.build().toString().getBytes(StandardCharsets.UTF_8)));
+		assertEquals(60, stats.items());
+		assertEquals(3, stats.batches());
+
+		// oversized items fail without an encoder
+		assertThrows(SdkClientException.class, () -> BatchImporter.builder().client(new FakeDynamoDbClient()).tableName("table").build()
+				.importJson(new ByteArrayInputStream(ndjson.toString().getBytes(StandardCharsets.UTF_8))));
+	}
+
+	@Test
+	public void itemEncryption() throws Exception {
+		try (DataKeyCache cache = DataKeyCache.builder().kmsClient(KMSTest.reversingKms(new AtomicInteger(), new AtomicInteger())).keyId("alias/test").build()) {
+			ItemEncryptor encryptor = ItemEncryptor.builder().dataKeyCache(cache).paths("customerId", "createdTimestamp", "billingAddress.street", "preferences[*]", "cards[1].number", "missing.path")
+					.build();
+			Map<String, AttributeValue> item = item(1);
+			Map<String, AttributeValue> card = Collections.singletonMap("number", AttributeValue.builder().s("4111111111111111").build());
+			item.put("cards", AttributeValue.builder().l(AttributeValue.builder().m(card).build(), AttributeValue.builder().m(card).build()).build());
+			Map<String, AttributeValue> encrypted = encryptor.encrypt(item);
+			// version, IV, type and tag around the 10 character value
+			assertEquals(1 + 12 + 1 + 10 + 16, encrypted.get("customerId").b().asByteArrayUnsafe().length);
+			assertNotNull(encrypted.get("createdTimestamp").b());
+			assertNotNull(encrypted.get("billingAddress").m().get("street").b());
+			assertEquals("Springfield", encrypted.get("billingAddress").m().get("city").s());
+			assertNotNull(encrypted.get("preferences").l().get(1).b());
+			assertEquals("4111111111111111", encrypted.get("cards").l().get(0).m().get("number").s());
+			assertNotNull(encrypted.get("cards").l().get(1).m().get("number").b());
+			assertNotNull(encrypted.get("_ek").b());
+			assertEquals("SUSPENDED", encrypted.get("status").s());
+			assertEquals(item, encryptor.decrypt(encrypted));
+
+			// fields are bound to their path
+			Map<String, AttributeValue> moved = new HashMap<>(encrypted);
+			moved.put("createdTimestamp", encrypted.get("customerId"));
+			assertThrows(SdkClientException.class, () -> encryptor.decrypt(moved));
+			// and to their list index
+			Map<String, AttributeValue> swapped = new HashMap<>(encrypted);
+			List<AttributeValue> preferences = encrypted.get("preferences").l();
+			swapped.put("preferences", AttributeValue.builder().l(preferences.get(1), preferences.get(0)).build());
+			assertThrows(SdkClientException.class, () -> encryptor.decrypt(swapped));
+			// a plain value at an encrypted path is rejected
+			Map<String, AttributeValue> downgraded = new HashMap<>(encrypted);
+			downgraded.put("customerId", AttributeValue.builder().s("customer-2").build());
+			assertThrows(SdkClientException.class, () -> encryptor.decrypt(downgraded));
+			// and to the type of their parents
+			Map<String, AttributeValue> replaced = new HashMap<>(encrypted);
+			replaced.put("billingAddress", AttributeValue.builder().s("1 Other Street").build());
+			assertThrows(SdkClientException.class, () -> encryptor.decrypt(replaced));
+			// unencrypted items are read as is
+			Map<String, AttributeValue> plain = item(2);
+			assertTrue(plain == encryptor.decrypt(plain));
+
+			List<Map<String, AttributeValue>> items = new LinkedList<>();
+			for (int i = 0; i < 1000; i++) {
+				items.add(item(i));
+			}
+			List<Map<String, AttributeValue>> encryptedItems = encryptor.encrypt(items);
+			assertEquals(items, encryptor.decrypt(encryptedItems));
+
+			// fields are bound to the table key of their item
+			ItemEncryptor keyed = ItemEncryptor.builder().dataKeyCache(cache).keyAttributes("id").paths("customerId", "address.street", "cards[*].number").build();
+			Map<String, AttributeValue> first = new HashMap<>(item(1));
+			first.put("id", AttributeValue.builder().s("a").build());
+			Map<String, AttributeValue> second = new HashMap<>(item(2));
+			second.put("id", AttributeValue.builder().s("b").build());
+			Map<String, AttributeValue> encryptedFirst = keyed.encrypt(first);
+			Map<String, AttributeValue> copied = new HashMap<>(keyed.encrypt(second));
+			copied.put("customerId", encryptedFirst.get("customerId"));
+			copied.put("_ek", encryptedFirst.get("_ek"));
+			assertEquals(first, keyed.decrypt(encryptedFirst));
+			assertThrows(SdkClientException.class, () -> keyed.decrypt(copied));
+			assertThrows(SdkClientException.class, () -> keyed.encrypt(item(3)));
+			assertThrows(IllegalArgumentException.class, () -> ItemEncryptor.builder().dataKeyCache(cache).keyAttributes("id").paths("id").build());
+			// a top level wildcard leaves the key attributes and the compression marker alone
+			ItemEncryptor all = ItemEncryptor.builder().dataKeyCache(cache).keyAttributes("id").paths("*").build();
+			first.put(CapacityEncoder.DEFAULT_MARKER_ATTRIBUTE, AttributeValue.builder().ss("none").build());
+			Map<String, AttributeValue> encryptedAll = all.encrypt(first);
+			assertEquals("a", encryptedAll.get("id").s());
+			assertEquals(first.get(CapacityEncoder.DEFAULT_MARKER_ATTRIBUTE), encryptedAll.get(CapacityEncoder.DEFAULT_MARKER_ATTRIBUTE));
+			assertNotNull(encryptedAll.get("status").b());
+			assertEquals(first, all.decrypt(encryptedAll));
+
+			// encrypted on import, decrypted on export
+			FakeDynamoDbClient client = new FakeDynamoDbClient();
+			StringBuilder large = new StringBuilder();
+			for (int i = 0; i < 30_000; i++) {
+				large.append("repeated text ");
+			}
+			String ndjson = "{\"id\":\"a\",\"customerId\":\"secret-a\"}\n{\"id\":\"b\",\"customerId\":\"secret-b\"}\n{\"id\":\"c\",\"address\":{\"street\":\"secret-street\"},"
+					+ "\"cards\":[{\"number\":\"4111111111111111\"}],\"history\":\"" + large + "\"}\n";
+			CapacityEncoder capacityEncoder = CapacityEncoder.builder().keyAttributes("id").build();
+			BatchImporter.Stats stats = BatchImporter.builder().client(client).tableName("table").itemEncryptor(keyed).compressOversized(capacityEncoder).build()
+					.importJson(new ByteArrayInputStream(ndjson.getBytes(StandardCharsets.UTF_8)));
+			assertEquals(1, stats.compressedItems());
+			assertNotNull(client.items.get("a").get("customerId").b());
+			// attributes holding encrypted fields stay encrypted and are not compressed
+			Map<String, AttributeValue> stored = client.items.get("c");
+			assertTrue(CapacityEncoder.itemSize(stored) < 400 * 1024);
+			assertEquals(Collections.singletonList("history"), stored.get(CapacityEncoder.DEFAULT_MARKER_ATTRIBUTE).ss());
+			assertNotNull(stored.get("address").m().get("street").b());
+			assertNotNull(stored.get("cards").l().get(0).m().get("number").b());
+			ByteArrayOutputStream exported = new ByteArrayOutputStream();
+			ScanExporter.builder().client(client).tableName("table").segments(1).itemEncryptor(keyed).capacityEncoder(capacityEncoder).build().export(exported);
+			assertTrue(exported.toString("UTF-8").contains("secret-b"), exported.toString("UTF-8"));
+			assertTrue(exported.toString("UTF-8").contains(large));
+			assertTrue(exported.toString("UTF-8").contains("secret-street"));
+			assertTrue(exported.toString("UTF-8").contains("4111111111111111"));
+		}
+	}
+
+	private static Map<String, AttributeValue> item(int i) {
+		Map<String, AttributeValue> item = new HashMap<>();
+		item.put("customerId", AttributeValue.builder().s("customer-" + i).build());
+		item.put("status", AttributeValue.builder().s(i % 3 == 0 ? "ACTIVE" : "SUSPENDED").build());
+		item.put("createdTimestamp", AttributeValue.builder().n(String.valueOf(1600000000L + i * 17)).build());
+		Map<String, AttributeValue> address = new HashMap<>();
+		address.put("street", AttributeValue.builder().s(i + " Main Street").build());
+		address.put("city", AttributeValue.builder().s("Springfield").build());
+		address.put("postalCode", AttributeValue.builder().s(String.valueOf(10000 + i)).build());
+		item.put("billingAddress", AttributeValue.builder().m(address).build());
+		item.put("preferences", AttributeValue.builder().l(AttributeValue.builder().s("emailNotifications").build(), AttributeValue.builder().s("paperlessBilling").build()).build());
+		return item;
+	}
+
 	/**
 	 * At times it may be necessary to store part of the data in a compressed format to avoid exceeding the 400k entry limit.
 	 */
@@ -86,6 +508,20 @@ public class DynamoDBTest {
 		AttributeValue compressed = DynamoDBUtil.compress(entry);
 		entry = (JsonObject) DynamoDBUtil.decompress(compressed);
 		assertEquals("value", entry.getString("test"));
+
+		Map<String, AttributeValue> item = new HashMap<>();
+		for (int i = 0; i < 1000; i++) {
+			item.put("key" + i, AttributeValue.builder().s("value " + i).build());
+		}
+		CompressionCodec codec = CompressionCodec.builder().level(Deflater.BEST_SPEED).poolSize(1).build();
+		for (int i = 0; i < 3; i++) {
+			compressed = DynamoDBUtil.compress(item, codec);
+			assertEquals(item, DynamoDBUtil.decompressItem(compressed));
+			assertEquals(DynamoDBUtil.toJson(item), DynamoDBUtil.decompress(compressed, codec));
+		}
+		byte[] data = new byte[100_000];
+		new Random(1).nextBytes(data);
+		assertArrayEquals(data, codec.decompress(codec.compress(data)));
 	}
 
 }
@@ -0,0 +1,94 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.DynamoDbException;
+import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
+import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+
+/** In-memory table keyed by the string attribute "id", supporting the calls used by the DynamoDB utilities */
+public class FakeDynamoDbClient implements DynamoDbClient {
+
+	final Map<String, Map<String, AttributeValue>> items = new ConcurrentSkipListMap<>();
+	final AtomicInteger scans = new AtomicInteger();
+	/** fails the scan call with this number, 0 for never */
+	volatile int failScan;
+	final AtomicInteger batchWrites = new AtomicInteger();
+	/** every n-th BatchWriteItem call leaves half of its items unprocessed, 0 for never */
+	volatile int unprocessedEvery;
+
+	@Override
+	public ScanResponse scan(ScanRequest request) {
+		int call = scans.incrementAndGet();
+		if (call == failScan) {
+			throw SdkClientException.create("injected failure");
+		}
+		int limit = request.limit() != null ? request.limit() : 100;
+		int segment = request.segment() != null ? request.segment() : 0;
+		int totalSegments = request.totalSegments() != null ? request.totalSegments() : 1;
+		String start = request.hasExclusiveStartKey() ? request.exclusiveStartKey().get("id").s() : null;
+		List<Map<String, AttributeValue>> page = new ArrayList<>();
+		String last = null;
+		boolean more = false;
+		for (Map.Entry<String, Map<String, AttributeValue>> item : ((ConcurrentSkipListMap<String, Map<String, AttributeValue>>) items).tailMap(start != null ? start : "", start == null).entrySet()) {
+			if (Math.floorMod(item.getKey().hashCode(), totalSegments) != segment) {
+				continue;
+			}
+			if (page.size() == limit) {
+				more = true;
+				break;
+			}
+			page.add(item.getValue());
+			last = item.getKey();
+		}
+		ScanResponse.Builder response = ScanResponse.builder().items(page).count(page.size()).consumedCapacity(ConsumedCapacity.builder().tableName(request.tableName()).capacityUnits(page.size() * 0.5).build());
+		if (more) {
+			response.lastEvaluatedKey(Collections.singletonMap("id", AttributeValue.builder().s(last).build()));
+		}
+		return response.build();
+	}
+
+	@Override
+	public BatchWriteItemResponse batchWriteItem(BatchWriteItemRequest request) {
+		int call = batchWrites.incrementAndGet();
+		List<ConsumedCapacity> capacity = new ArrayList<>();
+		Map<String, List<WriteRequest>> unprocessed = new HashMap<>();
+		request.requestItems().forEach((table, writes) -> {
+			if (writes.size() > 25) {
+				throw DynamoDbException.builder().message("Too many items requested for the BatchWriteItem call").build();
+			}
+			int processed = unprocessedEvery > 0 && call % unprocessedEvery == 0 ? writes.size() / 2 : writes.size();
+			for (WriteRequest write : writes.subList(0, processed)) {
+				Map<String, AttributeValue> item = write.putRequest().item();
+				items.put(item.get("id").s(), item);
+			}
+			if (processed < writes.size()) {
+				unprocessed.put(table, new ArrayList<>(writes.subList(processed, writes.size())));
+			}
+			capacity.add(ConsumedCapacity.builder().tableName(table).capacityUnits((double) processed).build());
+		});
+		return BatchWriteItemResponse.builder().unprocessedItems(unprocessed).consumedCapacity(capacity).build();
+	}
+
+	@Override
+	public String serviceName() {
+		return "dynamodb";
+	}
+
+	@Override
+	public void close() {
+
+	}
+
+}
@@ -0,0 +1,340 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.AEADBadTagException;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.DecryptRequest;
+import software.amazon.awssdk.services.kms.model.DecryptResponse;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyRequest;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyResponse;
+import software.amazon.awssdk.utils.IoUtils;
+
+public class KMSTest {
+
+	static final AtomicInteger kmsDecrypts = new AtomicInteger();
+
+	@BeforeAll
+	public static void initialize() {
+		KmsClient kmsClient = new KmsClient() {
+			@Override
+			public DecryptResponse decrypt(DecryptRequest decryptRequest) {
+				kmsDecrypts.incrementAndGet();
+				byte[] dataKey = new byte[32];
+				dataKey[0] = 1;
+				return DecryptResponse.builder().plaintext(SdkBytes.fromByteArray(dataKey)).build();
+			}
+
+			@Override
+			public String serviceName() {
+				return "kms";
+			}
+
+			@Override
+			public void close() {
+
+			}
+		};
+		DynamoDbClient dynamoDbClient = new DynamoDbClient() {
+			@Override
+			public GetItemResponse getItem(GetItemRequest getItemRequest) {
+				return GetItemResponse.builder().item(Collections.singletonMap("key", AttributeValue.builder().s(Base64.getEncoder().encodeToString(new byte[64])).build())).build();
+			}
+
+			@Override
+			public String serviceName() {
+				return "dynamodb";
+			}
+
+			@Override
+			public void close() {
+
+			}
+		};
+		KMSUtil.initialize(kmsClient, dynamoDbClient, "keys", AttributeValue.builder().s("test").build(), "key");
+	}
+
+	@Test
+	public void encryptTest() throws Exception {
+		String value = "secret value é中";
+		String encrypted = KMSUtil.encrypt(value);
+		assertNotEquals(encrypted, KMSUtil.encrypt(value));
+		assertEquals(value, KMSUtil.decrypt(encrypted));
+
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		assertArrayEquals(bytes, KMSUtil.decrypt(KMSUtil.encrypt(bytes)));
+		assertArrayEquals(new byte[0], KMSUtil.decrypt(KMSUtil.encrypt(new byte[0])));
+
+		ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+		buffer.put(bytes).flip();
+		ByteBuffer decrypted = KMSUtil.decrypt(KMSUtil.encrypt(buffer));
+		byte[] result = new byte[decrypted.remaining()];
+		decrypted.get(result);
+		assertArrayEquals(bytes, result);
+		// the String, byte[] and ByteBuffer forms share the format
+		assertArrayEquals(bytes, KMSUtil.decrypt(Base64.getDecoder().decode(encrypted)));
+	}
+
+	@Test
+	public void concurrentTest() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < 8; t++) {
+				int thread = t;
+				futures.add(executor.submit(() -> {
+					for (int i = 0; i < 1000; i++) {
+						String value = thread + "-" + i;
+						assertEquals(value, KMSUtil.decrypt(KMSUtil.encrypt(value)));
+					}
+					return null;
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(1, kmsDecrypts.get());
+	}
+
+	@Test
+	public void dataKeyCacheTest() throws Exception {
+		AtomicInteger generated = new AtomicInteger();
+		AtomicInteger decrypted = new AtomicInteger();
+		KmsClient kmsClient = reversingKms(generated, decrypted);
+		try (DataKeyCache cache = DataKeyCache.builder().kmsClient(kmsClient).keyId("alias/test").ttl(Duration.ofHours(1)).maxUses(10).build()) {
+			KMSUtil.initialize(cache);
+			List<byte[]> messages = new ArrayList<>();
+			for (int i = 0; i < 100; i++) {
+				messages.add(KMSUtil.encrypt(("message " + i).getBytes(StandardCharsets.UTF_8)));
+			}
+			assertTrue(generated.get() >= 10 && generated.get() <= 20, "generated " + generated.get());
+			for (int i = 0; i < 100; i++) {
+				assertEquals("message " + i, new String(KMSUtil.decrypt(messages.get(i)), StandardCharsets.UTF_8));
+			}
+			assertEquals(0, decrypted.get());
+			assertEquals("text", KMSUtil.decrypt(KMSUtil.encrypt("text")));
+
+			// a cold cache decrypts each data key once, concurrent misses share the call
+			try (DataKeyCache cold = DataKeyCache.builder().kmsClient(kmsClient).build()) {
+				KMSUtil.initialize(cold);
+				byte[] message = messages.get(0);
+				ExecutorService executor = Executors.newFixedThreadPool(8);
+				try {
+					List<Future<?>> futures = new ArrayList<>();
+					for (int t = 0; t < 8; t++) {
+						futures.add(executor.submit(() -> {
+							assertEquals("message 0", new String(KMSUtil.decrypt(message), StandardCharsets.UTF_8));
+							ByteBuffer buffer = KMSUtil.decrypt(ByteBuffer.wrap(message));
+							assertEquals("message 0", StandardCharsets.UTF_8.decode(buffer).toString());
+							return null;
+						}));
+					}
+					for (Future<?> future : futures) {
+						future.get();
+					}
+				} finally {
+					executor.shutdown();
+				}
+				assertEquals(1, decrypted.get());
+				assertEquals(1, cold.decryptCalls());
+				assertEquals(15, cold.hits());
+			}
+		} finally {
+			KMSUtil.initialize((DataKeyCache) null);
+		}
+
+		// expired keys are replaced
+		Map<String, Boolean> keys = new ConcurrentHashMap<>();
+		try (DataKeyCache cache = DataKeyCache.builder().kmsClient(kmsClient).keyId("alias/test").ttl(Duration.ofMillis(50)).refreshAhead(Duration.ZERO).build()) {
+			KMSUtil.initialize(cache);
+			keys.put(Base64.getEncoder().encodeToString(cache.encryptionKey().encryptedKey()), true);
+			byte[] first = KMSUtil.encrypt(new byte[] { 1 });
+			Thread.sleep(100);
+			keys.put(Base64.getEncoder().encodeToString(cache.encryptionKey().encryptedKey()), true);
+			byte[] second = KMSUtil.encrypt(new byte[] { 1 });
+			assertEquals(2, keys.size());
+			assertFalse(Arrays.equals(Arrays.copyOf(first, 35), Arrays.copyOf(second, 35)));
+			assertArrayEquals(new byte[] { 1 }, KMSUtil.decrypt(first));
+		} finally {
+			KMSUtil.initialize((DataKeyCache) null);
+		}
+	}
+
+	@Test
+	public void versionTest() throws Exception {
+		byte[] singleKey = KMSUtil.encrypt("single key".getBytes(StandardCharsets.UTF_8));
+		assertEquals(0, singleKey[0]);
+
+		try (DataKeyCache cache = DataKeyCache.builder().kmsClient(reversingKms(new AtomicInteger(), new AtomicInteger())).keyId("alias/test").build()) {
+			KMSUtil.initialize(cache);
+			byte[] envelope = KMSUtil.encrypt("envelope".getBytes(StandardCharsets.UTF_8));
+			assertEquals(EnvelopeEncryption.MESSAGE_VERSION, envelope[0]);
+			assertEquals("single key", new String(KMSUtil.decrypt(singleKey), StandardCharsets.UTF_8));
+			assertEquals("single key", StandardCharsets.UTF_8.decode(KMSUtil.decrypt(ByteBuffer.wrap(singleKey))).toString());
+
+			// a tampered envelope fails authentication, also when its length is whole CBC blocks
+			byte[] blocks = KMSUtil.encrypt(new byte[17]);
+			assertEquals(0, blocks.length % 16);
+			blocks[blocks.length - 1] ^= 1;
+			assertThrows(AEADBadTagException.class, () -> KMSUtil.decrypt(blocks));
+			byte[] unknown = singleKey.clone();
+			unknown[0] = 1;
+			assertThrows(IllegalArgumentException.class, () -> KMSUtil.decrypt(unknown));
+
+			// envelope values need the cache
+			KMSUtil.initialize((DataKeyCache) null);
+			assertThrows(IllegalStateException.class, () -> KMSUtil.decrypt(envelope));
+			assertEquals("single key", new String(KMSUtil.decrypt(singleKey), StandardCharsets.UTF_8));
+		} finally {
+			KMSUtil.initialize((DataKeyCache) null);
+		}
+	}
+
+	/** Stub KMS whose encrypted data keys are the plaintext keys reversed */
+	static KmsClient reversingKms(AtomicInteger generated, AtomicInteger decrypted) {
+		return new KmsClient() {
+			@Override
+			public GenerateDataKeyResponse generateDataKey(GenerateDataKeyRequest generateDataKeyRequest) {
+				byte[] dataKey = new byte[32];
+				Arrays.fill(dataKey, (byte) generated.incrementAndGet());
+				dataKey[31] = 0;
+				return GenerateDataKeyResponse.builder().plaintext(SdkBytes.fromByteArray(dataKey)).ciphertextBlob(SdkBytes.fromByteArray(reverse(dataKey))).keyId(generateDataKeyRequest.keyId()).build();
+			}
+
+			@Override
+			public DecryptResponse decrypt(DecryptRequest decryptRequest) {
+				decrypted.incrementAndGet();
+				return DecryptResponse.builder().plaintext(SdkBytes.fromByteArray(reverse(decryptRequest.ciphertextBlob().asByteArray()))).build();
+			}
+
+			@Override
+			public String serviceName() {
+				return "kms";
+			}
+
+			@Override
+			public void close() {
+
+			}
+		};
+	}
+
+	@Test
+	public void envelopeTest() throws Exception {
+		AtomicInteger decrypted = new AtomicInteger();
+		KmsClient kmsClient = reversingKms(new AtomicInteger(), decrypted);
+		try (DataKeyCache cache = DataKeyCache.builder().kmsClient(kmsClient).keyId("alias/test").build()) {
+			EnvelopeEncryption envelope = EnvelopeEncryption.builder().dataKeyCache(cache).segmentSize(1000).parallelism(4).build();
+			byte[] message = envelope.encrypt("message".getBytes(StandardCharsets.UTF_8));
+			assertEquals(EnvelopeEncryption.MESSAGE_VERSION, message[0]);
+			assertEquals("message", new String(envelope.decrypt(message), StandardCharsets.UTF_8));
+			message[message.length - 1] ^= 1;
+			assertThrows(AEADBadTagException.class, () -> envelope.decrypt(message));
+
+			Random random = new Random(7);
+			for (int size : new int[] { 0, 1, 1000, 12345 }) {
+				byte[] payload = new byte[size];
+				random.nextBytes(payload);
+				ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+				try (OutputStream out = envelope.encryptingStream(encrypted)) {
+					// uneven writes across segment boundaries
+					for (int i = 0; i < size; i += 333) {
+						out.write(payload, i, Math.min(333, size - i));
+					}
+				}
+				assertEquals(EnvelopeEncryption.SEGMENTED_VERSION, encrypted.toByteArray()[0]);
+				assertArrayEquals(payload, IoUtils.toByteArray(envelope.decryptingStream(new ByteArrayInputStream(encrypted.toByteArray()))));
+				assertArrayEquals(payload, envelope.decrypt(encrypted.toByteArray()));
+			}
+
+			byte[] payload = new byte[1024 * 1024 + 17];
+			random.nextBytes(payload);
+			Path plain = Files.createTempFile("envelope", ".bin");
+			Path encrypted = Files.createTempFile("envelope", ".enc");
+			Path decryptedFile = Files.createTempFile("envelope", ".out");
+			try {
+				Files.write(plain, payload);
+				// longer previous contents are truncated
+				Files.write(encrypted, new byte[2 * payload.length]);
+				Files.write(decryptedFile, new byte[2 * payload.length]);
+				try (FileChannel in = FileChannel.open(plain, StandardOpenOption.READ); FileChannel out = FileChannel.open(encrypted, StandardOpenOption.WRITE)) {
+					assertEquals(Files.size(plain) + 1049 * 16 + 3 + 32 + 4 + 8, envelope.encrypt(in, out));
+				}
+				try (FileChannel in = FileChannel.open(encrypted, StandardOpenOption.READ); FileChannel out = FileChannel.open(decryptedFile, StandardOpenOption.WRITE)) {
+					assertEquals(payload.length, envelope.decrypt(in, out));
+					assertArrayEquals(Arrays.copyOfRange(payload, 5000, 6000), envelope.decryptSegment(in, 5));
+					assertArrayEquals(Arrays.copyOfRange(payload, 1048000, payload.length), envelope.decryptSegment(in, 1048));
+				}
+				assertArrayEquals(payload, Files.readAllBytes(decryptedFile));
+				// files and streams share the format
+				assertArrayEquals(payload, IoUtils.toByteArray(envelope.decryptingStream(Files.newInputStream(encrypted))));
+
+				byte[] bytes = Files.readAllBytes(encrypted);
+				int header = 3 + 32 + 4 + 8;
+				byte[] swapped = bytes.clone();
+				System.arraycopy(bytes, header, swapped, header + 1016, 1016);
+				System.arraycopy(bytes, header + 1016, swapped, header, 1016);
+				IOException e = assertThrows(IOException.class, () -> IoUtils.toByteArray(envelope.decryptingStream(new ByteArrayInputStream(swapped))));
+				assertTrue(e instanceof EnvelopeEncryption.SegmentException, e.toString());
+				// dropping the last segment leaves a full segment without the last flag
+				byte[] truncated = Arrays.copyOf(bytes, header + 1048 * 1016);
+				assertThrows(IOException.class, () -> IoUtils.toByteArray(envelope.decryptingStream(new ByteArrayInputStream(truncated))));
+				assertThrows(GeneralSecurityException.class, () -> envelope.decrypt(truncated));
+			} finally {
+				Files.delete(plain);
+				Files.delete(encrypted);
+				Files.delete(decryptedFile);
+			}
+		}
+		assertEquals(0, decrypted.get());
+	}
+
+	static byte[] reverse(byte[] bytes) {
+		byte[] reversed = new byte[bytes.length];
+		for (int i = 0; i < bytes.length; i++) {
+			reversed[i] = bytes[bytes.length - 1 - i];
+		}
+		return reversed;
+	}
+
+}
@@ -1,4 +1,15 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.net.URL;
+import java.time.Clock;
 import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import javax.json.Json;
 import javax.json.JsonObject;
@@ -12,6 +23,11 @@ import javax.ws.rs.core.Response;
 import org.apache.johnzon.jaxrs.JsrProvider;
 import org.junit.jupiter.api.Test;
 
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentials;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 import software.amazon.awssdk.services.s3.presigner.model.PresignedGetObjectRequest;
 import software.amazon.awssdk.services.s3.presigner.model.PresignedPutObjectRequest;
@@ -44,4 +60,51 @@ public class S3PresignTest {
 
 	}
 
+	@Test
+	public void bulkPresignTest() throws Exception {
+		List<String> keys = new ArrayList<>(Arrays.asList(S3_FILENAME, "a", "dir/a b+c~*\u00e9!'().txt", "dir//double/", "%2F&=?#"));
+		for (int i = 0; i < 1000; i++) {
+			keys.add("bulk/object-" + i + ".json");
+		}
+		for (AwsCredentials credentials : Arrays.asList(AwsBasicCredentials.create("AKIDEXAMPLE", "secret"), AwsSessionCredentials.create("AKIDEXAMPLE", "secret", "token+/="))) {
+			for (Region region : Arrays.asList(Region.US_EAST_1, Region.US_WEST_2)) {
+				S3Presigner presigner = S3Presigner.builder().region(region).credentialsProvider(StaticCredentialsProvider.create(credentials)).build();
+				for (String bucket : Arrays.asList("some-bucket", "some.bucket")) {
+					List<URL> expectedGet = new ArrayList<>();
+					List<URL> expectedPut = new ArrayList<>();
+					for (String key : keys) {
+						expectedGet.add(presigner.presignGetObject(r -> r.signatureDuration(Duration.ofMinutes(5)).getObjectRequest(gor -> gor.bucket(bucket).key(key))).url());
+						expectedPut.add(presigner.presignPutObject(r -> r.signatureDuration(Duration.ofMinutes(5)).putObjectRequest(por -> por.bucket(bucket).key(key))).url());
+					}
+					// the SDK signs with the current time, which may move on during the loop, and takes X-Amz-Expires from an expiration computed just before, so it is one second short when a second
+					// starts in between. The batch is signed once for each signing time and expiry the SDK used.
+					Map<String, List<URL>> actualGet = new HashMap<>();
+					Map<String, List<URL>> actualPut = new HashMap<>();
+					for (int i = 0; i < keys.size(); i++) {
+						List<URL> get = actualGet.computeIfAbsent(parameter(expectedGet.get(i), "X-Amz-Date") + parameter(expectedGet.get(i), "X-Amz-Expires"),
+								d -> bulkPresigner(credentials, region, d.substring(0, 16)).presignGetObjects(bucket, keys, Duration.ofSeconds(Long.parseLong(d.substring(16)))));
+						List<URL> put = actualPut.computeIfAbsent(parameter(expectedPut.get(i), "X-Amz-Date") + parameter(expectedPut.get(i), "X-Amz-Expires"),
+								d -> bulkPresigner(credentials, region, d.substring(0, 16)).presignPutObjects(bucket, keys, Duration.ofSeconds(Long.parseLong(d.substring(16)))));
+						assertEquals(expectedGet.get(i).toString(), get.get(i).toString());
+						assertEquals(expectedPut.get(i).toString(), put.get(i).toString());
+					}
+				}
+				presigner.close();
+			}
+		}
+	}
+
+	private static String parameter(URL url, String name) {
+		String query = url.getQuery();
+		int start = query.indexOf(name + "=") + name.length() + 1;
+		return query.substring(start, query.indexOf('&', start));
+	}
+
+	// splits batches of more than 512 keys even on a single processor
+	private static S3BulkPresigner bulkPresigner(AwsCredentials credentials, Region region, String signingTime) {
+		ZonedDateTime time = ZonedDateTime.of(Integer.parseInt(signingTime.substring(0, 4)), Integer.parseInt(signingTime.substring(4, 6)), Integer.parseInt(signingTime.substring(6, 8)), Integer.parseInt(signingTime.substring(9, 11)),
+				Integer.parseInt(signingTime.substring(11, 13)), Integer.parseInt(signingTime.substring(13, 15)), 0, ZoneOffset.UTC);
+		return S3BulkPresigner.builder().awsCredentials(StaticCredentialsProvider.create(credentials)).region(region).clock(Clock.fixed(time.toInstant(), ZoneOffset.UTC)).parallelism(4).build();
+	}
+
 }
@@ -0,0 +1,143 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+import software.amazon.awssdk.auth.signer.Aws4Signer;
+import software.amazon.awssdk.auth.signer.Aws4UnsignedPayloadSigner;
+import software.amazon.awssdk.auth.signer.AwsS3V4Signer;
+import software.amazon.awssdk.auth.signer.params.Aws4SignerParams;
+import software.amazon.awssdk.auth.signer.params.AwsS3V4SignerParams;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.http.SdkHttpFullRequest;
+import software.amazon.awssdk.http.SdkHttpMethod;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.utils.IoUtils;
+
+public class SigV4SignerTest {
+
+    private static final Clock CLOCK = Clock.fixed(Instant.parse("2020-11-05T23:59:58Z"), ZoneOffset.UTC);
+
+    private void assertSameSignature(SdkHttpFullRequest request, AwsCredentials credentials) {
+        Aws4SignerParams params = Aws4SignerParams.builder().awsCredentials(credentials).signingName("es").signingRegion(Region.US_WEST_1).signingClockOverride(CLOCK).build();
+        SdkHttpFullRequest expected = Aws4Signer.create().sign(request, params);
+        SdkHttpFullRequest actual = SigV4Signer.create(CLOCK).sign(request, credentials, "us-west-1", "es");
+        assertEquals(expected.headers(), actual.headers());
+    }
+
+    @Test
+    public void matchesAws4Signer() throws Exception {
+        AwsCredentials credentials = AwsBasicCredentials.create("AKIDEXAMPLE", "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY");
+        SdkHttpFullRequest get = SdkHttpFullRequest.builder().method(SdkHttpMethod.GET).protocol("https").host("search-domain.us-west-1.es.amazonaws.com").encodedPath("/index-%2A/_search").appendRawQueryParameter("q", "title:a b")
+                .appendRawQueryParameter("pretty", "true").appendRawQueryParameter("size", null).appendHeader("X-Custom", "  some   spaced\tvalue ").appendHeader("User-Agent", "ignored").build();
+        assertSameSignature(get, credentials);
+
+        byte[] body = "{\"query\":{\"match_all\":{}}}".getBytes(StandardCharsets.UTF_8);
+        SdkHttpFullRequest post = SdkHttpFullRequest.builder().method(SdkHttpMethod.POST).protocol("http").host("localhost").port(9200).encodedPath("_search").contentStreamProvider(() -> new ByteArrayInputStream(body))
+                .appendHeader("Content-Type", "application/json").appendHeader("Content-Length", String.valueOf(body.length)).build();
+        assertSameSignature(post, credentials);
+        assertSameSignature(post, AwsSessionCredentials.create("AKIDEXAMPLE", "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY", "session-token"));
+    }
+
+    @Test
+    public void matchesStreamingAndUnsignedSigners() throws Exception {
+        AwsCredentials credentials = AwsBasicCredentials.create("AKIDEXAMPLE", "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY");
+        byte[] body = new byte[300 * 1024];
+        new Random(1).nextBytes(body);
+        SdkHttpFullRequest put = SdkHttpFullRequest.builder().method(SdkHttpMethod.PUT).protocol("https").host("bucket.s3.us-west-1.amazonaws.com").encodedPath("/snapshot/data").contentStreamProvider(() -> new ByteArrayInputStream(body))
+                .appendHeader("Content-Length", String.valueOf(body.length)).build();
+
+        AwsS3V4SignerParams params = AwsS3V4SignerParams.builder().awsCredentials(credentials).signingName("s3").signingRegion(Region.US_WEST_1).signingClockOverride(CLOCK).enableChunkedEncoding(true)
+                .enablePayloadSigning(true).build();
+        SdkHttpFullRequest expected = AwsS3V4Signer.create().sign(put, params);
+        SdkHttpFullRequest actual = SigV4Signer.create(CLOCK).sign(put, credentials, "us-west-1", "s3", CLOCK.instant(), false, SigV4Signer.PayloadSigning.STREAMING);
+        assertEquals(expected.headers(), actual.headers());
+        byte[] expectedBody = IoUtils.toByteArray(expected.contentStreamProvider().get().newStream());
+        byte[] actualBody = IoUtils.toByteArray(actual.contentStreamProvider().get().newStream());
+        assertEquals(SigV4Signer.streamingContentLength(body.length), actualBody.length);
+        assertArrayEquals(expectedBody, actualBody);
+
+        Aws4SignerParams unsignedParams = Aws4SignerParams.builder().awsCredentials(credentials).signingName("es").signingRegion(Region.US_WEST_1).signingClockOverride(CLOCK).build();
+        expected = Aws4UnsignedPayloadSigner.create().sign(put, unsignedParams);
+        actual = SigV4Signer.create(CLOCK).sign(put, credentials, "us-west-1", "es", CLOCK.instant(), true, SigV4Signer.PayloadSigning.UNSIGNED);
+        assertEquals(expected.headers(), actual.headers());
+        assertEquals("UNSIGNED-PAYLOAD", actual.firstMatchingHeader("x-amz-content-sha256").get());
+    }
+
+    @Test
+    public void signingKeyCached() throws Exception {
+        SigV4Signer signer = SigV4Signer.create(CLOCK);
+        AwsCredentials credentials = AwsBasicCredentials.create("AKIDEXAMPLE", "secret");
+        byte[] key = signer.signingKey(credentials, "20201105", "us-west-1", "es");
+        assertSame(key, signer.signingKey(credentials, "20201105", "us-west-1", "es"));
+    }
+
+    @Test
+    public void credentialsCached() throws Exception {
+        AtomicInteger resolved = new AtomicInteger();
+        try (CachedCredentialsProvider provider = CachedCredentialsProvider.create(() -> {
+            resolved.incrementAndGet();
+            return AwsBasicCredentials.create("AKIDEXAMPLE", "secret");
+        })) {
+            for (int i = 0; i < 100; i++) {
+                assertEquals("AKIDEXAMPLE", provider.resolveCredentials().accessKeyId());
+            }
+            assertEquals(1, resolved.get());
+        }
+        // only session credentials expire
+        assertFalse(CachedCredentialsProvider.expirationTime(AwsBasicCredentials.create("AKIDEXAMPLE", "secret")).isPresent());
+        Instant expiration = CachedCredentialsProvider.expirationTime(AwsSessionCredentials.create("AKIDEXAMPLE", "secret", "token")).get();
+        assertFalse(expiration.isAfter(Instant.now().plus(CachedCredentialsProvider.DEFAULT_SESSION_LIFETIME)));
+    }
+
+    @Test
+    public void expiredCredentialsFailure() throws Exception {
+        AtomicBoolean failing = new AtomicBoolean();
+        AtomicBoolean closed = new AtomicBoolean();
+        class ClosableProvider implements AwsCredentialsProvider, AutoCloseable {
+            @Override
+            public AwsCredentials resolveCredentials() {
+                if (failing.get()) {
+                    throw SdkClientException.create("metadata service unavailable");
+                }
+                return AwsSessionCredentials.create("AKIDEXAMPLE", "secret", "token");
+            }
+
+            @Override
+            public void close() {
+                closed.set(true);
+            }
+        }
+        try (CachedCredentialsProvider provider = CachedCredentialsProvider.create(new ClosableProvider(), Duration.ofMillis(10), c -> Optional.of(Instant.now().plusMillis(200)))) {
+            assertEquals("token", ((AwsSessionCredentials) provider.resolveCredentials()).sessionToken());
+            failing.set(true);
+            // served until they expire, then the refresh failure reaches the caller
+            assertEquals("token", ((AwsSessionCredentials) provider.resolveCredentials()).sessionToken());
+            Thread.sleep(300);
+            assertThrows(SdkClientException.class, provider::resolveCredentials);
+            failing.set(false);
+            assertEquals("AKIDEXAMPLE", provider.resolveCredentials().accessKeyId());
+        }
+        // the delegate belongs to the caller
+        assertFalse(closed.get());
+    }
+
+}